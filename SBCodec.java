@@ -0,0 +1,118 @@
+/*
+ * This code is released as public domain. But that doesn't mean you should
+ * claim credit that isn't yours or sell it when it could otherwise be had for
+ * free, because that would be a shitty thing of you to do.
+ * It was originally written by Sophie Kirschner. (sophiek@pineapplemachine.com)
+ */
+
+package SBTree;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The SBCodec class turns keys or values into bytes and back again, for
+ * SBTreeFile. Codecs for strings, longs, integers and any Serializable object
+ * are built in; others can be made by extending this class.
+ *
+ * A codec writes straight into the buffer it's given and reads straight out
+ * of one. It doesn't need to check whether there's room or enough bytes left:
+ * if it runs off the end, the BufferOverflowException or
+ * BufferUnderflowException is caught, the buffer is flushed or refilled, and
+ * the whole record is tried again.
+ *
+ * @author Sophie Kirschner
+ */
+public abstract class SBCodec {
+    /** Codec for Strings, which may be null, as UTF-8 with a length. */
+    final static public SBCodec STRING=new SBCodec(){
+        @Override
+        public void write(Object object,ByteBuffer buffer){
+            if(object==null){
+                buffer.putInt(-1);
+            }else{
+                byte[] bytes=((String)object).getBytes(StandardCharsets.UTF_8);
+                buffer.putInt(bytes.length).put(bytes);
+            }
+        }
+        @Override
+        public Object read(ByteBuffer buffer){
+            int length=buffer.getInt();
+            if(length<0){return null;}
+            if(length>buffer.remaining()){throw new BufferUnderflowException();}
+            byte[] bytes=new byte[length];
+            buffer.get(bytes);
+            return new String(bytes,StandardCharsets.UTF_8);
+        }
+    };
+    /** Codec for Longs, as eight bytes. */
+    final static public SBCodec LONG=new SBCodec(){
+        @Override
+        public void write(Object object,ByteBuffer buffer){
+            buffer.putLong((Long)object);
+        }
+        @Override
+        public Object read(ByteBuffer buffer){
+            return buffer.getLong();
+        }
+    };
+    /** Codec for Integers, as four bytes. */
+    final static public SBCodec INTEGER=new SBCodec(){
+        @Override
+        public void write(Object object,ByteBuffer buffer){
+            buffer.putInt((Integer)object);
+        }
+        @Override
+        public Object read(ByteBuffer buffer){
+            return buffer.getInt();
+        }
+    };
+    /**
+     * Codec for any Serializable object, or null, by way of Java
+     * serialization. Every object is serialized on its own, so this is much
+     * slower and larger than the other codecs.
+     */
+    final static public SBCodec SERIALIZABLE=new SBCodec(){
+        @Override
+        public void write(Object object,ByteBuffer buffer) throws IOException{
+            ByteArrayOutputStream bytes=new ByteArrayOutputStream();
+            try(ObjectOutputStream out=new ObjectOutputStream(bytes)){
+                out.writeObject(object);
+            }
+            buffer.putInt(bytes.size()).put(bytes.toByteArray());
+        }
+        @Override
+        public Object read(ByteBuffer buffer) throws IOException{
+            int length=buffer.getInt();
+            if(length<0){throw new IOException("Negative length");}
+            if(length>buffer.remaining()){throw new BufferUnderflowException();}
+            byte[] bytes=new byte[length];
+            buffer.get(bytes);
+            try(ObjectInputStream in=new ObjectInputStream(new ByteArrayInputStream(bytes))){
+                return in.readObject();
+            }catch(ClassNotFoundException e){
+                throw new IOException(e);
+            }
+        }
+    };
+    /**
+     * Writes an object at the buffer's position.
+     * @param object A key or value.
+     * @param buffer The buffer.
+     * @throws IOException if the object can't be encoded.
+     */
+    public abstract void write(Object object,ByteBuffer buffer) throws IOException;
+    /**
+     * Reads an object from the buffer's position.
+     * @param buffer The buffer.
+     * @return the object.
+     * @throws IOException if the bytes can't be decoded.
+     */
+    public abstract Object read(ByteBuffer buffer) throws IOException;
+}
@@ -0,0 +1,474 @@
+/*
+ * This code is released as public domain. But that doesn't mean you should
+ * claim credit that isn't yours or sell it when it could otherwise be had for
+ * free, because that would be a shitty thing of you to do.
+ * It was originally written by Sophie Kirschner. (sophiek@pineapplemachine.com)
+ */
+
+package SBTree;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * The SBConcurrentTree class is a thread-safe container which spreads its keys
+ * across a number of SBTree shards, each holding a contiguous range of keys
+ * and guarded by its own lock. Since splaying changes a tree even when it's
+ * only being searched, every operation on a shard holds its lock, but threads
+ * working on different shards never wait on each other.
+ *
+ * Keys are routed to shards by a binary search over the splitter keys which
+ * separate them. The splitters and shards together make up an immutable
+ * layout. When a shard grows much larger than the others or shrinks much
+ * smaller, or while there are fewer shards than asked for and enough keys to
+ * fill more, the tree is rebalanced: every shard is locked, the shards are joined into one tree,
+ * new splitters are chosen by rank, and the tree is split again. That only
+ * touches the splay paths, so it takes O(shards log n) time. An operation
+ * which finds the layout replaced while it waited for a lock tries again.
+ *
+ * Nodes belong to their shard and may be restructured by other threads as
+ * soon as its lock is released, so searches hand back values rather than
+ * nodes. Scans across several shards lock one shard at a time; each shard is
+ * seen consistently, but the scan as a whole isn't atomic.
+ *
+ * @author Sophie Kirschner
+ */
+public class SBConcurrentTree {
+    /** Number of shards there will be once there are enough keys, by default. */
+    final static public int DEFAULTSHARDS=16;
+    /**
+     * Shards aren't split below this many nodes, and a shard this much larger
+     * than the average prompts a rebalance.
+     */
+    final static public int MINSHARDSIZE=4096;
+    /**
+     * A shard left with fewer nodes than the average divided by this, by a
+     * removal, prompts a rebalance.
+     */
+    final static public int SHRINKFACTOR=4;
+    /** The current splitters and shards. */
+    private volatile Layout layout;
+    /** Number of shards to aim for. */
+    private final int shardcount;
+    /** Whether the shards are splayed after insertion operations. */
+    private final boolean splayedinsertion;
+    /** Whether the shards are splayed after search operations. */
+    private final boolean splayedsearch;
+    /** Number of keys (nodes) in all shards. */
+    private final AtomicInteger nodecount=new AtomicInteger();
+    /** Number of values in all shards. */
+    private final AtomicInteger valuecount=new AtomicInteger();
+    /** Set while a rebalance is in progress. */
+    private final AtomicBoolean rebalancing=new AtomicBoolean();
+    /** Initializes a new SBConcurrentTree. */
+    public SBConcurrentTree(){
+        this(DEFAULTSHARDS,true,true);
+    }
+    /**
+     * Initializes a new SBConcurrentTree.
+     * @param shards Number of shards to spread the keys across once there are
+     * enough of them.
+     */
+    public SBConcurrentTree(int shards){
+        this(shards,true,true);
+    }
+    /**
+     * Initializes a new SBConcurrentTree.
+     * @param shards Number of shards to spread the keys across once there are
+     * enough of them.
+     * @param insertion Set whether the shards are splayed after insertion
+     * operations.
+     * @param search Set whether the shards are splayed after search operations.
+     */
+    public SBConcurrentTree(int shards,boolean insertion,boolean search){
+        if(shards<1){throw new IllegalArgumentException("Shard count must be at least 1");}
+        shardcount=shards;
+        splayedinsertion=insertion; splayedsearch=search;
+        layout=new Layout(new Comparable[0],new Shard[]{new Shard(newTree(null))});
+    }
+    /** @return true if the tree is empty, false otherwise. */
+    public boolean isEmpty(){
+        return nodecount.get()==0;
+    }
+    /** @return the number of keys (nodes) in the tree. */
+    public int size(){
+        return nodecount.get();
+    }
+    /** @return the number of values in the tree. */
+    public int valuesSize(){
+        return valuecount.get();
+    }
+    /** @return the number of shards the keys are currently spread across. */
+    public int shards(){
+        return layout.shards.length;
+    }
+    /** Removes all keys and values from the tree. */
+    public void clear(){
+        Layout current=lockAll();
+        try{
+            for(Shard shard:current.shards){
+                nodecount.addAndGet(-shard.tree.size());
+                valuecount.addAndGet(-shard.tree.valuesSize());
+                shard.tree.clear();
+            }
+        }finally{
+            unlockAll(current);
+        }
+    }
+    /**
+     * Inserts a new key, value pair into the tree.
+     * @param key A key.
+     * @param value A value.
+     */
+    public void insert(Comparable key,Object value){
+        int shardsize;
+        while(true){
+            Layout current=layout;
+            Shard shard=current.shards[current.route(key)];
+            shard.lock.lock();
+            try{
+                if(layout!=current){continue;}
+                int oldsize=shard.tree.size();
+                shard.tree.insert(key,value);
+                shardsize=shard.tree.size();
+                nodecount.addAndGet(shardsize-oldsize);
+                valuecount.incrementAndGet();
+                break;
+            }finally{
+                shard.lock.unlock();
+            }
+        }
+        if(shouldRebalance(shardsize)){tryRebalance();}
+    }
+    /**
+     * Searches for the oldest value which corresponds to a key.
+     * @param key A key.
+     * @return the oldest Object corresponding to the key, null if none exists.
+     */
+    public Object findFirstValue(Comparable key){
+        return withShard(key,tree->tree.findFirstValue(key));
+    }
+    /**
+     * Searches for the newest value which corresponds to a key.
+     * @param key A key.
+     * @return the newest Object corresponding to the key, null if none exists.
+     */
+    public Object findLastValue(Comparable key){
+        return withShard(key,tree->tree.findLastValue(key));
+    }
+    /**
+     * Searches for the list of values which corresponds to a key.
+     * @param key A key.
+     * @return a LinkedList containing all values corresponding to the key,
+     * null if none exist.
+     */
+    public LinkedList<Object> findAllValues(Comparable key){
+        return withShard(key,tree->tree.findAllValues(key));
+    }
+    /**
+     * Searches for the number of values which correspond to a key.
+     * @param key A key.
+     * @return the number of values corresponding to the key.
+     */
+    public int findValuesSize(Comparable key){
+        return withShard(key,tree->tree.findValuesSize(key));
+    }
+    /**
+     * Searches for a key.
+     * @param key A key.
+     * @return true if the key exists within the tree, false otherwise.
+     */
+    public boolean containsKey(Comparable key){
+        return withShard(key,tree->tree.containsKey(key));
+    }
+    /**
+     * Searches for a key, value pair.
+     * @param key A key.
+     * @param value A value.
+     * @return true if the key, value pair exists within the tree, false
+     * otherwise.
+     */
+    public boolean contains(Comparable key,Object value){
+        return withShard(key,tree->tree.contains(key,value));
+    }
+    /**
+     * Removes all values associated with a key, and the key itself.
+     * @param key A key.
+     * @return true if the key was in the tree, false otherwise.
+     */
+    public boolean remove(Comparable key){
+        final int[] shardsize=new int[1];
+        boolean removed=withShard(key,tree->{
+            SBNode node=tree.findNode(key,false);
+            if(node==null){return false;}
+            valuecount.addAndGet(-node.valuesSize());
+            nodecount.decrementAndGet();
+            tree.removeNode(node);
+            shardsize[0]=tree.size();
+            return true;
+        });
+        if(removed && shouldRebalanceShrunk(shardsize[0])){tryRebalance();}
+        return removed;
+    }
+    /**
+     * Removes a key, value pair. If no more values are associated with the
+     * key, the key is removed too.
+     * @param key A key.
+     * @param value A value.
+     * @return true if the pair was in the tree, false otherwise.
+     */
+    public boolean remove(Comparable key,Object value){
+        final int[] shardsize=new int[2];
+        boolean removed=withShard(key,tree->{
+            int oldsize=tree.size(),oldvalues=tree.valuesSize();
+            tree.remove(key,value);
+            nodecount.addAndGet(tree.size()-oldsize);
+            valuecount.addAndGet(tree.valuesSize()-oldvalues);
+            shardsize[0]=tree.size(); shardsize[1]=oldsize;
+            return tree.valuesSize()!=oldvalues;
+        });
+        if(shardsize[0]<shardsize[1] && shouldRebalanceShrunk(shardsize[0])){tryRebalance();}
+        return removed;
+    }
+    /**
+     * Collects the values of nodes with keys in the range [lo,hi).
+     * @param lo The lower bound, null for none.
+     * @param hi The upper bound, null for none.
+     * @return a list of the values in the range, in ascending order of key.
+     */
+    public List<Object> valuesInRange(Comparable lo,Comparable hi){
+        return valuesInRange(lo,true,hi,false);
+    }
+    /**
+     * Collects the values of nodes with keys in a range.
+     * @param lo The lower bound, null for none.
+     * @param loinclusive Whether the lower bound is part of the range.
+     * @param hi The upper bound, null for none.
+     * @param hiinclusive Whether the upper bound is part of the range.
+     * @return a list of the values in the range, in ascending order of key
+     * and oldest first within a key.
+     */
+    public List<Object> valuesInRange(Comparable lo,boolean loinclusive,Comparable hi,boolean hiinclusive){
+        final ArrayList<Object> list=new ArrayList<>();
+        visitRange(lo,loinclusive,hi,hiinclusive,node->{
+            for(Object value:node.values()){list.add(value);}
+        });
+        return list;
+    }
+    /** @return a list of all values in the tree, in ascending order of key. */
+    public List<Object> toList(){
+        return valuesInRange(null,true,null,true);
+    }
+    /**
+     * Performs an action for every node with a key in a range, in ascending
+     * order. The action is performed while the node's shard is locked, and
+     * mustn't keep the node or add or remove nodes.
+     * @param lo The lower bound, null for none.
+     * @param loinclusive Whether the lower bound is part of the range.
+     * @param hi The upper bound, null for none.
+     * @param hiinclusive Whether the upper bound is part of the range.
+     * @param visitor The action.
+     */
+    public void visitRange(Comparable lo,boolean loinclusive,Comparable hi,boolean hiinclusive,final Consumer<SBNode> visitor){
+        // Where to pick up if the layout changes partway through
+        final Comparable[] resume={lo};
+        boolean resumeinclusive=loinclusive;
+        scan:
+        while(true){
+            Layout current=layout;
+            int first=(resume[0]==null)?0:current.route(resume[0]);
+            int last=(hi==null)?current.shards.length-1:current.route(hi);
+            for(int i=first;i<=last;i++){
+                Shard shard=current.shards[i];
+                shard.lock.lock();
+                try{
+                    if(layout!=current){continue scan;}
+                    Comparable from=resume[0];
+                    shard.tree.visitRange(from,resumeinclusive,hi,hiinclusive,false,node->{
+                        visitor.accept(node); resume[0]=node.key;
+                    });
+                    if(resume[0]!=from){resumeinclusive=false;}
+                }finally{
+                    shard.lock.unlock();
+                }
+            }
+            return;
+        }
+    }
+    /**
+     * Counts the nodes with keys in a range.
+     * @param lo The lower bound, null for none.
+     * @param loinclusive Whether the lower bound is part of the range.
+     * @param hi The upper bound, null for none.
+     * @param hiinclusive Whether the upper bound is part of the range.
+     * @return the number of keys in the range.
+     */
+    public int countRange(Comparable lo,boolean loinclusive,Comparable hi,boolean hiinclusive){
+        scan:
+        while(true){
+            Layout current=layout;
+            int first=(lo==null)?0:current.route(lo);
+            int last=(hi==null)?current.shards.length-1:current.route(hi);
+            int count=0;
+            for(int i=first;i<=last;i++){
+                Shard shard=current.shards[i];
+                shard.lock.lock();
+                try{
+                    if(layout!=current){continue scan;}
+                    count+=shard.tree.countRange(lo,loinclusive,hi,hiinclusive);
+                }finally{
+                    shard.lock.unlock();
+                }
+            }
+            return count;
+        }
+    }
+    /**
+     * Respreads the keys evenly across as many shards as asked for, or fewer
+     * if there aren't enough keys to go around. This happens by itself as
+     * keys are inserted and removed, so it needn't normally be called.
+     */
+    public void rebalance(){
+        while(!rebalancing.compareAndSet(false,true)){Thread.yield();}
+        try{
+            rebalanceLocked();
+        }finally{
+            rebalancing.set(false);
+        }
+    }
+    /**
+     * Convenience function runs an operation on the shard a key belongs in,
+     * holding its lock.
+     * @param key A key.
+     * @param operation The operation.
+     * @return the operation's result.
+     */
+    private <R> R withShard(Comparable key,Function<SBTree,R> operation){
+        while(true){
+            Layout current=layout;
+            Shard shard=current.shards[current.route(key)];
+            shard.lock.lock();
+            try{
+                if(layout==current){return operation.apply(shard.tree);}
+            }finally{
+                shard.lock.unlock();
+            }
+        }
+    }
+    /**
+     * @param shardsize The size of a shard which just grew.
+     * @return whether the tree ought to be rebalanced.
+     */
+    private boolean shouldRebalance(int shardsize){
+        int shards=layout.shards.length;
+        if(shardsize<2*MINSHARDSIZE){return false;}
+        if(shards<shardcount){return true;}
+        return shardsize>2*(nodecount.get()/shards)+MINSHARDSIZE;
+    }
+    /**
+     * @param shardsize The size of a shard which just lost a node.
+     * @return whether the tree ought to be rebalanced.
+     */
+    private boolean shouldRebalanceShrunk(int shardsize){
+        int shards=layout.shards.length;
+        if(shards<2){return false;}
+        return shardsize<nodecount.get()/shards/SHRINKFACTOR;
+    }
+    /** Rebalances the tree unless another thread already is. */
+    private void tryRebalance(){
+        if(rebalancing.compareAndSet(false,true)){
+            try{
+                rebalanceLocked();
+            }finally{
+                rebalancing.set(false);
+            }
+        }
+    }
+    /** Rebalances the tree. Must be called with the rebalancing flag held. */
+    private void rebalanceLocked(){
+        Layout current=lockAll();
+        try{
+            SBTree all=newTree(null);
+            for(Shard shard:current.shards){all.join(shard.tree);}
+            int total=all.size();
+            int count=Math.max(1,Math.min(shardcount,total/MINSHARDSIZE));
+            Comparable[] splitters=new Comparable[count-1];
+            for(int i=1;i<count;i++){
+                splitters[i-1]=all.select((int)((long)i*total/count)).key;
+            }
+            Shard[] shards=new Shard[count];
+            for(int i=count-1;i>0;i--){
+                SBTree[] parts=all.split(splitters[i-1]);
+                shards[i]=new Shard(parts[1]);
+                all=parts[0];
+            }
+            shards[0]=new Shard(all);
+            layout=new Layout(splitters,shards);
+        }finally{
+            unlockAll(current);
+        }
+    }
+    /**
+     * Locks every shard, in order. Nothing but a rebalance can change the
+     * layout while they're all held.
+     * @return the layout whose shards were locked.
+     */
+    private Layout lockAll(){
+        while(true){
+            Layout current=layout;
+            for(Shard shard:current.shards){shard.lock.lock();}
+            if(layout==current){return current;}
+            unlockAll(current);
+        }
+    }
+    private void unlockAll(Layout current){
+        for(Shard shard:current.shards){shard.lock.unlock();}
+    }
+    /** @return a new shard tree, splayed the way this tree is. */
+    private SBTree newTree(SBNode root){
+        return new SBTree(root,splayedinsertion,splayedsearch);
+    }
+
+    /** A tree holding a range of keys, and the lock guarding it. */
+    private static final class Shard {
+        final SBTree tree;
+        final ReentrantLock lock=new ReentrantLock();
+        Shard(SBTree shardtree){
+            tree=shardtree;
+        }
+    }
+
+    /**
+     * The splitters and shards in use at some moment. Shard i holds the keys
+     * which are at least splitter i-1 and less than splitter i.
+     */
+    private static final class Layout {
+        final Comparable[] splitters;
+        final Shard[] shards;
+        Layout(Comparable[] layoutsplitters,Shard[] layoutshards){
+            splitters=layoutsplitters; shards=layoutshards;
+        }
+        /**
+         * @param key A key.
+         * @return the index of the shard the key belongs in.
+         */
+        int route(Comparable key){
+            int low=0,high=splitters.length;
+            while(low<high){
+                int middle=(low+high)>>>1;
+                if(key.compareTo(splitters[middle])<0){
+                    high=middle;
+                }else{
+                    low=middle+1;
+                }
+            }
+            return low;
+        }
+    }
+}
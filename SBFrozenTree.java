@@ -0,0 +1,393 @@
+/*
+ * This code is released as public domain. But that doesn't mean you should
+ * claim credit that isn't yours or sell it when it could otherwise be had for
+ * free, because that would be a shitty thing of you to do.
+ * It was originally written by Sophie Kirschner. (sophiek@pineapplemachine.com)
+ */
+
+package SBTree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.NoSuchElementException;
+
+/**
+ * The SBFrozenTree class is an immutable copy of an SBTree, made by
+ * SBTree.freeze(), laid out for searching rather than changing. Its keys are
+ * held in an array in Eytzinger order: the root first, then both its
+ * children, then all four grandchildren and so on, of a perfectly balanced
+ * tree. The first few levels of every search share a handful of cache lines,
+ * and each step down is a compare and a shift with no branch to mispredict,
+ * so on trees too big for the cache searches are several times faster than
+ * following SBNode links.
+ *
+ * If every key is a Long, or every key is an Integer, the keys are held as a
+ * long[] and compared as primitives. If every key is a String, the first few
+ * chars of each are packed into a long[] alongside them, and a String is only
+ * looked at when its prefix matches the one searched for. Otherwise keys are
+ * compared through compareTo().
+ *
+ * Besides the search array, the keys are kept in ascending order along with
+ * their values. Every key has an index, its rank, and its values are the
+ * ones from valueStart(index) up to valueStart(index+1) in one array of
+ * values, oldest first.
+ *
+ * Nothing is ever written to a frozen tree once it's made, so any number of
+ * threads can read one at once without locking.
+ *
+ * @author Sophie Kirschner
+ */
+public class SBFrozenTree {
+    /** Keys are Comparables, compared through compareTo(). */
+    final static int OBJECTKEYS=0;
+    /** Keys are all Longs, held as a long[]. */
+    final static int LONGKEYS=1;
+    /** Keys are all Integers, held as a long[]. */
+    final static int INTEGERKEYS=2;
+    /**
+     * Keys are all Strings, compared by the prefixes in a long[] and only
+     * through compareTo() when the prefixes are equal.
+     */
+    final static int STRINGKEYS=3;
+    /** The number of keys. */
+    private final int size;
+    /** Which kind of keys the tree has. */
+    private final int keykind;
+    /** The keys in ascending order. */
+    private final Comparable[] keys;
+    /**
+     * The keys in Eytzinger order, from index 1, for OBJECTKEYS. Element 0 is
+     * unused.
+     */
+    private final Comparable[] eytzinger;
+    /**
+     * The keys in Eytzinger order, from index 1, for LONGKEYS and INTEGERKEYS.
+     * For STRINGKEYS, the keys' prefixes. Element 0 is unused.
+     */
+    private final long[] eytzingerlongs;
+    /** The rank of the key at each index of the Eytzinger order. */
+    private final int[] ranks;
+    /** The values of all keys, in ascending order of key and oldest first. */
+    private final Object[] values;
+    /**
+     * The index in values of each key's first value, by rank, followed by
+     * the number of values.
+     */
+    private final int[] valuestart;
+    /**
+     * Initializes a new SBFrozenTree. Only links from parents to children are
+     * followed, so the nodes may be shared with a snapshot.
+     * @param root The root of the tree to copy, or null.
+     */
+    SBFrozenTree(SBNode root){
+        size=(root==null)?0:root.subtreesize;
+        keys=new Comparable[size];
+        values=new Object[(root==null)?0:root.subtreevaluessize];
+        valuestart=new int[size+1];
+        boolean longs=true,integers=true,strings=true;
+        ArrayList<SBNode> stack=new ArrayList<>();
+        int index=0,valueindex=0;
+        for(SBNode node=root;node!=null || !stack.isEmpty();){
+            if(node!=null){
+                stack.add(node); node=node.left;
+                continue;
+            }
+            node=stack.remove(stack.size()-1);
+            keys[index]=node.key;
+            longs&=(node.key instanceof Long);
+            integers&=(node.key instanceof Integer);
+            strings&=(node.key instanceof String);
+            valuestart[index++]=valueindex;
+            for(int i=0;i<node.valuecount;i++){values[valueindex++]=node.getValue(i);}
+            node=node.right;
+        }
+        valuestart[size]=valueindex;
+        keykind=(size==0)?OBJECTKEYS:longs?LONGKEYS:integers?INTEGERKEYS:strings?STRINGKEYS:OBJECTKEYS;
+        ranks=new int[size+1];
+        eytzinger=(keykind==OBJECTKEYS || keykind==STRINGKEYS)?new Comparable[size+1]:null;
+        eytzingerlongs=(keykind==OBJECTKEYS)?null:new long[size+1];
+        layout(0,1);
+    }
+    /**
+     * Fills in the Eytzinger order of a subtree of the perfectly balanced
+     * tree, taking its keys in order.
+     * @param rank The rank of the subtree's least key.
+     * @param position The subtree's root's position in the Eytzinger order.
+     * @return the rank of the next key to take.
+     */
+    private int layout(int rank,int position){
+        if(position>size){return rank;}
+        rank=layout(rank,position<<1);
+        ranks[position]=rank;
+        if(eytzinger!=null){eytzinger[position]=keys[rank];}
+        if(keykind==STRINGKEYS){
+            eytzingerlongs[position]=prefix((String)keys[rank]);
+        }else if(eytzingerlongs!=null){
+            eytzingerlongs[position]=((Number)keys[rank]).longValue();
+        }
+        return layout(rank+1,(position<<1)|1);
+    }
+    /**
+     * @param key A key.
+     * @return whether the key can be compared as a primitive with the keys
+     * in eytzingerlongs.
+     */
+    private boolean primitive(Comparable key){
+        return keykind==LONGKEYS && key instanceof Long || keykind==INTEGERKEYS && key instanceof Integer;
+    }
+    /**
+     * @param string A String.
+     * @return the string's first four chars packed into a long, so that
+     * a string whose prefix is less than another's is less than it too.
+     */
+    private static long prefix(String string){
+        long prefix=0;
+        for(int i=0;i<4;i++){prefix=(prefix<<16)|((i<string.length())?string.charAt(i):0);}
+        // Chars are unsigned, so flip the sign to compare as signed longs
+        return prefix^Long.MIN_VALUE;
+    }
+    /**
+     * @param key A key.
+     * @return the position in the Eytzinger order of the least key greater
+     * than or equal to the key, 0 if none exists.
+     */
+    private int search(Comparable key){
+        int position=1;
+        if(primitive(key)){
+            long search=((Number)key).longValue();
+            final long[] array=eytzingerlongs;
+            while(position<=size){position=(position<<1)|((array[position]<search)?1:0);}
+        }else if(keykind==STRINGKEYS && key instanceof String){
+            long search=prefix((String)key);
+            final long[] array=eytzingerlongs;
+            while(position<=size){
+                long prefix=array[position];
+                // Only look at the string itself when the prefixes can't tell
+                boolean less=(prefix!=search)?(prefix<search):(eytzinger[position].compareTo(key)<0);
+                position=(position<<1)|(less?1:0);
+            }
+        }else if(eytzinger!=null){
+            final Comparable[] array=eytzinger;
+            while(position<=size){position=(position<<1)|((array[position].compareTo(key)<0)?1:0);}
+        }else{
+            // Searching primitive keys for something else, which compareTo() will reject
+            while(position<=size){position=(position<<1)|((keys[ranks[position]].compareTo(key)<0)?1:0);}
+        }
+        // Undo the steps right taken after the last step left
+        return position>>>(Integer.numberOfTrailingZeros(~position)+1);
+    }
+    /**
+     * @param key A key.
+     * @return the rank of the least key greater than or equal to the key,
+     * size() if none exists.
+     */
+    private int lowerBound(Comparable key){
+        int position=search(key);
+        return (position==0)?size:ranks[position];
+    }
+    /**
+     * @param key A key.
+     * @return the key's rank, -1 if it isn't in the tree.
+     */
+    public int indexOf(Comparable key){
+        int position=search(key);
+        if(position==0){return -1;}
+        boolean equal;
+        if(primitive(key)){
+            equal=(eytzingerlongs[position]==((Number)key).longValue());
+        }else{
+            equal=(((eytzinger!=null)?eytzinger[position]:keys[ranks[position]]).compareTo(key)==0);
+        }
+        return equal?ranks[position]:-1;
+    }
+    /** @return true if the tree is empty, false otherwise. */
+    public boolean isEmpty(){
+        return size==0;
+    }
+    /** @return the number of keys in the tree. */
+    public int size(){
+        return size;
+    }
+    /** @return the number of values in the tree. */
+    public int valuesSize(){
+        return values.length;
+    }
+    /**
+     * @param key A key.
+     * @return whether the tree contains the key.
+     */
+    public boolean containsKey(Comparable key){
+        return indexOf(key)>=0;
+    }
+    /**
+     * @param key A key.
+     * @return the oldest value associated with the key, null if none exists.
+     */
+    public Object findFirstValue(Comparable key){
+        int index=indexOf(key);
+        return (index<0 || valuestart[index]==valuestart[index+1])?null:values[valuestart[index]];
+    }
+    /**
+     * @param key A key.
+     * @return the newest value associated with the key, null if none exists.
+     */
+    public Object findLastValue(Comparable key){
+        int index=indexOf(key);
+        return (index<0 || valuestart[index]==valuestart[index+1])?null:values[valuestart[index+1]-1];
+    }
+    /**
+     * @param key A key.
+     * @return a list of all values associated with the key, oldest first, or
+     * null if the key isn't in the tree.
+     */
+    public LinkedList<Object> findAllValues(Comparable key){
+        int index=indexOf(key);
+        if(index<0){return null;}
+        LinkedList<Object> list=new LinkedList<>();
+        for(int i=valuestart[index];i<valuestart[index+1];i++){list.add(values[i]);}
+        return list;
+    }
+    /**
+     * @param key A key.
+     * @return the number of values associated with the key.
+     */
+    public int findValuesSize(Comparable key){
+        int index=indexOf(key);
+        return (index<0)?0:valuestart[index+1]-valuestart[index];
+    }
+    /**
+     * @param key A key.
+     * @return the number of keys less than the specified key.
+     */
+    public int rank(Comparable key){
+        return lowerBound(key);
+    }
+    /**
+     * @param index An index, where 0 refers to the least key.
+     * @return the key with the specified rank, null if none exists.
+     */
+    public Comparable keyAt(int index){
+        return (index<0 || index>=size)?null:keys[index];
+    }
+    /**
+     * @param index An index, where 0 refers to the least key's oldest value.
+     * @return the value at the specified index, null if none exists.
+     */
+    public Object valueAt(int index){
+        return (index<0 || index>=values.length)?null:values[index];
+    }
+    /**
+     * @param index An index, where 0 refers to the least key.
+     * @return the index of the key's oldest value among all values. Its
+     * values end where the next key's begin.
+     */
+    public int valueStart(int index){
+        return valuestart[index];
+    }
+    /** @return the least key, null if the tree is empty. */
+    public Comparable firstKey(){
+        return keyAt(0);
+    }
+    /** @return the greatest key, null if the tree is empty. */
+    public Comparable lastKey(){
+        return keyAt(size-1);
+    }
+    /**
+     * @param key A key.
+     * @return the greatest key less than the specified key, null if none exists.
+     */
+    public Comparable lowerKey(Comparable key){
+        return keyAt(lowerBound(key)-1);
+    }
+    /**
+     * @param key A key.
+     * @return the greatest key less than or equal to the specified key, null
+     * if none exists.
+     */
+    public Comparable floorKey(Comparable key){
+        int index=lowerBound(key);
+        return (index<size && keys[index].compareTo(key)==0)?keys[index]:keyAt(index-1);
+    }
+    /**
+     * @param key A key.
+     * @return the least key greater than or equal to the specified key, null
+     * if none exists.
+     */
+    public Comparable ceilingKey(Comparable key){
+        return keyAt(lowerBound(key));
+    }
+    /**
+     * @param key A key.
+     * @return the least key greater than the specified key, null if none
+     * exists.
+     */
+    public Comparable higherKey(Comparable key){
+        int index=lowerBound(key);
+        return (index<size && keys[index].compareTo(key)==0)?keyAt(index+1):keyAt(index);
+    }
+    /**
+     * Finds the key most closely matching the specified one: the key itself
+     * if it's in the tree, otherwise the least key greater than it, or if
+     * there is none the greatest key.
+     * @param key A key.
+     * @return the rank of the closest key, -1 if the tree is empty.
+     */
+    public int findClosestIndex(Comparable key){
+        if(size==0){return -1;}
+        int index=lowerBound(key);
+        return (index==size)?size-1:index;
+    }
+    /** @return an iterator over the tree's keys, in ascending order. */
+    public Iterator<Comparable> keys(){
+        return Arrays.asList(keys).iterator();
+    }
+    /**
+     * @return an iterator over the tree's values, in ascending order of key
+     * and oldest first within a key.
+     */
+    public Iterator<Object> values(){
+        return Arrays.asList(values).iterator();
+    }
+    /**
+     * @param lo The lower bound, null for none.
+     * @param hi The upper bound, null for none.
+     * @return an iterator over the values of the keys in the range [lo,hi),
+     * in ascending order of key and oldest first within a key.
+     */
+    public Iterator<Object> valuesInRange(Comparable lo,Comparable hi){
+        final int start=valuestart[(lo==null)?0:lowerBound(lo)];
+        final int end=valuestart[(hi==null)?size:lowerBound(hi)];
+        return new Iterator<Object>(){
+            private int index=start;
+            @Override
+            public boolean hasNext(){
+                return index<end;
+            }
+            @Override
+            public Object next(){
+                if(index>=end){throw new NoSuchElementException();}
+                return values[index++];
+            }
+        };
+    }
+    /** @return an array of all values in the tree, in order. */
+    public Object[] toArray(){
+        return values.clone();
+    }
+    /** @return an array of all keys in the tree, in ascending order. */
+    public Comparable[] keysToArray(){
+        return keys.clone();
+    }
+    /** @return a String representation of the tree. */
+    @Override
+    public String toString(){
+        StringBuilder string=new StringBuilder("[");
+        for(int i=0;i<size;i++){
+            if(i>0){string.append(", ");}
+            string.append(keys[i]).append("=").append(Arrays.asList(values).subList(valuestart[i],valuestart[i+1]));
+        }
+        return string.append("]").toString();
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * This code is released as public domain. But that doesn't mean you should
+ * claim credit that isn't yours or sell it when it could otherwise be had for
+ * free, because that would be a shitty thing of you to do.
+ * It was originally written by Sophie Kirschner. (sophiek@pineapplemachine.com)
+ */
+
+package SBTree;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * The SBJournal class is an append-only log file of records, used by
+ * SBJournaledTree to make its changes durable. Each record is written as its
+ * length, a CRC32 checksum, and then its bytes, so that a record which was
+ * only partly written when the process died is recognized and ignored.
+ *
+ * Appending a record only copies it into a buffer in memory. It's written to
+ * the file and forced to the disk by commit(). Commits are grouped: while
+ * one thread is forcing the file, others which want their records committed
+ * wait for it, and then one of them writes and forces everything appended in
+ * the meantime at once. So however many threads are writing, there's about
+ * one force at a time rather than one per record.
+ *
+ * @author Sophie Kirschner
+ */
+public class SBJournal {
+    /** Every record is forced to the disk before the change returns. */
+    final static public int SYNC=0;
+    /** Records are forced to the disk every so often by a background thread. */
+    final static public int INTERVAL=1;
+    /** Records are only forced to the disk by sync() and close(). */
+    final static public int NONE=2;
+    /** Records are written out once this many bytes of them are waiting. */
+    final static public int BUFFERSIZE=1<<20;
+    /** Size of the length and checksum which precede every record. */
+    final static int HEADERSIZE=8;
+    /** The log file. */
+    private final FileChannel channel;
+    /** How durable records are. */
+    private final int durability;
+    /** Thread forcing records to the disk now and then, for INTERVAL. */
+    private final Thread flusher;
+    /** Records appended but not yet written. */
+    private ByteBuffer pending=ByteBuffer.allocate(BUFFERSIZE);
+    /** Buffer swapped with pending while its records are being written. */
+    private ByteBuffer spare=ByteBuffer.allocate(BUFFERSIZE);
+    /** Number of bytes appended to the log. */
+    private long appended;
+    /** Number of bytes written to the file. */
+    private long written;
+    /** Number of bytes forced to the disk. */
+    private long synced;
+    /** Whether some thread is writing to the file. */
+    private boolean committing=false;
+    /** Whether the journal has been closed. */
+    private boolean closed=false;
+    /** Set if writing to the file failed, after which nothing more can be. */
+    private IOException failure=null;
+    /**
+     * Opens a journal, appending to the end of the file if it already exists.
+     * Use replay() first to find where its valid records end.
+     * @param path The log file.
+     * @param durability SYNC, INTERVAL or NONE.
+     * @param intervalms For INTERVAL, the time in milliseconds between forces.
+     * @throws IOException if the file can't be opened.
+     */
+    public SBJournal(Path path,int durability,final long intervalms) throws IOException{
+        if(durability<SYNC || durability>NONE){throw new IllegalArgumentException("Unknown durability "+durability);}
+        if(durability==INTERVAL && intervalms<=0){throw new IllegalArgumentException("Interval must be positive");}
+        this.durability=durability;
+        channel=FileChannel.open(path,StandardOpenOption.WRITE,StandardOpenOption.CREATE);
+        channel.position(channel.size());
+        appended=written=synced=channel.size();
+        if(durability==INTERVAL){
+            flusher=new Thread(()->{
+                try{
+                    while(true){
+                        Thread.sleep(intervalms);
+                        synchronized(this){
+                            if(closed){return;}
+                        }
+                        try{
+                            commit(appended(),true);
+                        }catch(IOException e){
+                            // Kept in failure, and thrown at the next commit
+                            return;
+                        }
+                    }
+                }catch(InterruptedException e){
+                    // Closed
+                }
+            },"SBJournal flusher");
+            flusher.setDaemon(true);
+            flusher.start();
+        }else{
+            flusher=null;
+        }
+    }
+    /** @return how durable records are, SYNC, INTERVAL or NONE. */
+    public int durability(){
+        return durability;
+    }
+    /** @return the number of bytes appended to the log, including those already in the file when it was opened. */
+    public synchronized long appended(){
+        return appended;
+    }
+    /**
+     * Appends a record to the log. It isn't durable until it's committed.
+     * @param record The record's bytes, from the buffer's position to its
+     * limit.
+     * @return the position just past the end of the record, to pass to
+     * commit().
+     * @throws IOException if the journal is closed or writing to it failed.
+     */
+    public long append(ByteBuffer record) throws IOException{
+        long end;
+        synchronized(this){
+            if(closed){throw new IOException("Journal is closed");}
+            if(failure!=null){throw new IOException("Journal write failed",failure);}
+            int length=record.remaining();
+            CRC32 crc=new CRC32();
+            crc.update(record.duplicate());
+            if(pending.remaining()<HEADERSIZE+length){
+                ByteBuffer larger=ByteBuffer.allocate(Math.max(pending.capacity()*2,pending.position()+HEADERSIZE+length));
+                pending.flip(); larger.put(pending);
+                pending=larger;
+            }
+            pending.putInt(length).putInt((int)crc.getValue()).put(record);
+            appended+=HEADERSIZE+length;
+            end=appended;
+            if(durability!=SYNC && pending.position()<BUFFERSIZE){return end;}
+        }
+        // Write out a full buffer so that memory use stays bounded
+        if(durability!=SYNC){commit(end,false);}
+        return end;
+    }
+    /**
+     * Commits the log up to a position, according to the journal's
+     * durability: for SYNC this writes and forces it, otherwise it returns
+     * straight away.
+     * @param position A position returned by append().
+     * @throws IOException if writing to the file failed.
+     */
+    public void commit(long position) throws IOException{
+        if(durability==SYNC){commit(position,true);}
+    }
+    /**
+     * Writes and forces everything appended so far.
+     * @throws IOException if writing to the file failed.
+     */
+    public void sync() throws IOException{
+        commit(appended(),true);
+    }
+    /**
+     * Writes the log to the file at least up to a position, and forces it to
+     * the disk if asked. If another thread is already writing, this waits for
+     * it and then writes whatever that thread didn't, on behalf of every
+     * thread which is waiting.
+     * @param position A position returned by append().
+     * @param force Whether to force the file to the disk.
+     * @throws IOException if writing to the file failed.
+     */
+    void commit(long position,boolean force) throws IOException{
+        ByteBuffer batch; long end;
+        synchronized(this){
+            while(true){
+                if(failure!=null){throw new IOException("Journal write failed",failure);}
+                if((force?synced:written)>=position){return;}
+                if(!committing){break;}
+                try{
+                    wait();
+                }catch(InterruptedException e){
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for the journal",e);
+                }
+            }
+            committing=true;
+            batch=pending; pending=spare; spare=batch;
+            end=appended;
+        }
+        IOException error=null;
+        try{
+            batch.flip();
+            while(batch.hasRemaining()){channel.write(batch);}
+            if(force){channel.force(false);}
+        }catch(IOException e){
+            error=e;
+        }
+        synchronized(this){
+            batch.clear();
+            if(error==null){
+                written=end;
+                if(force){synced=end;}
+            }else{
+                failure=error;
+            }
+            committing=false;
+            notifyAll();
+        }
+        if(error!=null){throw error;}
+    }
+    /**
+     * Writes and forces everything appended, then closes the file.
+     * @throws IOException if writing to the file failed.
+     */
+    public void close() throws IOException{
+        synchronized(this){
+            if(closed){return;}
+        }
+        try{
+            sync();
+        }finally{
+            synchronized(this){closed=true;}
+            if(flusher!=null){flusher.interrupt();}
+            channel.close();
+        }
+    }
+    /**
+     * Reads the valid records of a log file in order. Reading stops at the
+     * first record which is incomplete or whose checksum doesn't match, which
+     * can only be one that was being written when the process died, and the
+     * file is truncated there so that later records can be appended after it.
+     * @param path The log file.
+     * @param reader Called with every valid record, as a buffer holding just
+     * that record.
+     * @return the number of valid records.
+     * @throws IOException if the file can't be read.
+     */
+    public static int replay(Path path,Consumer<ByteBuffer> reader) throws IOException{
+        try(FileChannel channel=FileChannel.open(path,StandardOpenOption.READ,StandardOpenOption.WRITE)){
+            long size=channel.size(),position=0;
+            ByteBuffer buffer=ByteBuffer.allocate(BUFFERSIZE);
+            buffer.limit(0);
+            int count=0;
+            CRC32 crc=new CRC32();
+            while(true){
+                if(buffer.remaining()<HEADERSIZE){buffer=refill(channel,buffer,HEADERSIZE);}
+                if(buffer.remaining()<HEADERSIZE){break;}
+                int length=buffer.getInt(buffer.position()),checksum=buffer.getInt(buffer.position()+4);
+                if(length<0 || position+HEADERSIZE+length>size){break;}
+                if(buffer.remaining()<HEADERSIZE+length){buffer=refill(channel,buffer,HEADERSIZE+length);}
+                ByteBuffer record=buffer.duplicate();
+                record.position(buffer.position()+HEADERSIZE).limit(buffer.position()+HEADERSIZE+length);
+                crc.reset(); crc.update(record.duplicate());
+                if((int)crc.getValue()!=checksum){break;}
+                reader.accept(record.slice());
+                buffer.position(buffer.position()+HEADERSIZE+length);
+                position+=HEADERSIZE+length;
+                count++;
+            }
+            if(position<size){channel.truncate(position);}
+            return count;
+        }
+    }
+    /**
+     * Reads more of a channel into a buffer.
+     * @param channel The channel.
+     * @param buffer The buffer, with its position at the next byte to read
+     * and its limit at the end of the data.
+     * @param needed The number of bytes wanted past the position.
+     * @return the buffer, or the larger one which replaced it, holding at
+     * least that many bytes unless the channel ended first.
+     * @throws IOException if the channel can't be read.
+     */
+    private static ByteBuffer refill(FileChannel channel,ByteBuffer buffer,int needed) throws IOException{
+        if(needed>buffer.capacity()){
+            ByteBuffer larger=ByteBuffer.allocate(needed);
+            larger.put(buffer);
+            buffer=larger;
+        }else{
+            buffer.compact();
+        }
+        while(buffer.position()<needed && channel.read(buffer)>=0){}
+        buffer.flip();
+        return buffer;
+    }
+}
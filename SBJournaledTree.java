@@ -0,0 +1,550 @@
+/*
+ * This code is released as public domain. But that doesn't mean you should
+ * claim credit that isn't yours or sell it when it could otherwise be had for
+ * free, because that would be a shitty thing of you to do.
+ * It was originally written by Sophie Kirschner. (sophiek@pineapplemachine.com)
+ */
+
+package SBTree;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Objects;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The SBJournaledTree class is a thread-safe SBTree whose changes survive a
+ * crash. It keeps its files in a directory of its own: checkpoints, each a
+ * whole tree saved by SBTreeFile, and journals, each an SBJournal of the
+ * changes made since the checkpoint before it. Opening the tree loads the
+ * latest checkpoint and replays the journals which follow it.
+ *
+ * Every change is appended to the current journal and then applied to the
+ * tree under the tree's lock, so the journal holds changes in the order they
+ * were made, and a change which can't be journaled isn't made at all. How
+ * long a change then waits to be durable depends on the journal's
+ * durability. With SBJournal.SYNC it doesn't return until it's on the disk,
+ * but since commits are grouped, threads changing the tree at the same time
+ * share forces rather than paying for one each.
+ *
+ * checkpoint() saves a snapshot of the tree and starts a new journal. Only
+ * taking the snapshot and switching journals happens under the lock; the tree
+ * is saved while other threads go on changing it, loaded back to check that
+ * it's readable, and only then are the older journals and checkpoints
+ * deleted. Checkpointing now and then keeps the journals, and so the time
+ * it takes to open the tree, short. A checkpoint left half written by a
+ * crash is deleted the next time the tree is opened.
+ *
+ * Values are compared by equals() rather than identity in remove(key,value),
+ * since once they've been through a journal they're different objects.
+ *
+ * @author Sophie Kirschner
+ */
+public class SBJournaledTree {
+    /** Journal record for insert(). */
+    final static byte INSERT=1;
+    /** Journal record for remove(key). */
+    final static byte REMOVE=2;
+    /** Journal record for remove(key,value). */
+    final static byte REMOVEVALUE=3;
+    /** Journal record for removeFirstValue(). */
+    final static byte REMOVEFIRST=4;
+    /** Journal record for removeLastValue(). */
+    final static byte REMOVELAST=5;
+    /** Journal record for removeAllValues(). */
+    final static byte REMOVEALL=6;
+    /** Journal record for clear(). */
+    final static byte CLEAR=7;
+    /** Prefix of the names of checkpoint files, followed by their generation. */
+    final static String CHECKPOINT="checkpoint.";
+    /** Prefix of the names of journal files, followed by their generation. */
+    final static String JOURNAL="journal.";
+    /** The directory holding the tree's files. */
+    private final Path directory;
+    private final SBCodec keycodec,valuecodec;
+    private final int durability;
+    private final long intervalms;
+    /** The tree. */
+    private final SBTree tree=new SBTree();
+    /** Lock guards the tree, the current journal and the record buffer. */
+    private final ReentrantLock lock=new ReentrantLock();
+    /** Lock held while checkpointing, so only one checkpoint runs at a time. */
+    private final ReentrantLock checkpointlock=new ReentrantLock();
+    /** The journal new changes are appended to. */
+    private SBJournal journal;
+    /** Generation of the current journal. */
+    private long generation;
+    /** Buffer records are encoded into. */
+    private ByteBuffer record=ByteBuffer.allocate(256);
+    /**
+     * Opens a tree, recovering it from the files in a directory, which is
+     * created if need be. Every change is forced to the disk before it
+     * returns.
+     * @param directory The directory.
+     * @param keycodec Codec for the keys.
+     * @param valuecodec Codec for the values.
+     * @throws IOException if the files can't be read or written.
+     */
+    public SBJournaledTree(Path directory,SBCodec keycodec,SBCodec valuecodec) throws IOException{
+        this(directory,keycodec,valuecodec,SBJournal.SYNC,0);
+    }
+    /**
+     * Opens a tree, recovering it from the files in a directory, which is
+     * created if need be.
+     * @param directory The directory.
+     * @param keycodec Codec for the keys.
+     * @param valuecodec Codec for the values.
+     * @param durability SBJournal.SYNC, INTERVAL or NONE.
+     * @param intervalms For INTERVAL, the time in milliseconds between forces.
+     * @throws IOException if the files can't be read or written.
+     */
+    public SBJournaledTree(Path directory,SBCodec keycodec,SBCodec valuecodec,int durability,long intervalms) throws IOException{
+        this.directory=directory; this.keycodec=keycodec; this.valuecodec=valuecodec;
+        this.durability=durability; this.intervalms=intervalms;
+        Files.createDirectories(directory);
+        // Checkpoints a crash left unfinished are never loaded, so they'd only take up space
+        ArrayList<Path> unfinished=new ArrayList<>();
+        try(DirectoryStream<Path> files=Files.newDirectoryStream(directory,CHECKPOINT+"*.tmp")){
+            for(Path file:files){unfinished.add(file);}
+        }
+        for(Path file:unfinished){Files.deleteIfExists(file);}
+        long checkpoint=-1;
+        for(long found:generations(CHECKPOINT)){checkpoint=Math.max(checkpoint,found);}
+        if(checkpoint>=0){
+            tree.root=SBTreeFile.load(directory.resolve(CHECKPOINT+checkpoint),keycodec,valuecodec).root;
+        }
+        long last=checkpoint;
+        for(long found:generations(JOURNAL)){
+            if(found<checkpoint){continue;}
+            try{
+                SBJournal.replay(directory.resolve(JOURNAL+found),this::apply);
+            }catch(UncheckedIOException e){
+                throw e.getCause();
+            }
+            last=Math.max(last,found);
+        }
+        generation=last+1;
+        journal=new SBJournal(directory.resolve(JOURNAL+generation),durability,intervalms);
+        // Make sure the new journal's directory entry is durable as well
+        forceDirectory();
+    }
+    /** @return true if the tree is empty, false otherwise. */
+    public boolean isEmpty(){
+        return size()==0;
+    }
+    /** @return the number of keys (nodes) in the tree. */
+    public int size(){
+        lock.lock();
+        try{
+            return tree.size();
+        }finally{
+            lock.unlock();
+        }
+    }
+    /** @return the number of values in the tree. */
+    public int valuesSize(){
+        lock.lock();
+        try{
+            return tree.valuesSize();
+        }finally{
+            lock.unlock();
+        }
+    }
+    /**
+     * @param key A key.
+     * @return the oldest value associated with the key, null if none exists.
+     */
+    public Object findFirstValue(Comparable key){
+        lock.lock();
+        try{
+            return tree.findFirstValue(key);
+        }finally{
+            lock.unlock();
+        }
+    }
+    /**
+     * @param key A key.
+     * @return the newest value associated with the key, null if none exists.
+     */
+    public Object findLastValue(Comparable key){
+        lock.lock();
+        try{
+            return tree.findLastValue(key);
+        }finally{
+            lock.unlock();
+        }
+    }
+    /**
+     * @param key A key.
+     * @return a list of all values associated with the key, null if the key
+     * isn't in the tree.
+     */
+    public LinkedList<Object> findAllValues(Comparable key){
+        lock.lock();
+        try{
+            return tree.findAllValues(key);
+        }finally{
+            lock.unlock();
+        }
+    }
+    /**
+     * @param key A key.
+     * @return whether the tree contains the key.
+     */
+    public boolean containsKey(Comparable key){
+        lock.lock();
+        try{
+            return tree.containsKey(key);
+        }finally{
+            lock.unlock();
+        }
+    }
+    /**
+     * Takes a snapshot of the tree, which any number of threads can read
+     * without locking while the tree goes on changing. See SBTree.snapshot().
+     * @return a snapshot of the tree as it is now.
+     */
+    public SBSnapshot snapshot(){
+        lock.lock();
+        try{
+            return tree.snapshot();
+        }finally{
+            lock.unlock();
+        }
+    }
+    /**
+     * Inserts a new key, value pair into the tree.
+     * @param key A key.
+     * @param value A value.
+     * @throws IOException if the change couldn't be journaled or made durable.
+     */
+    public void insert(Comparable key,Object value) throws IOException{
+        change(INSERT,key,value,true);
+    }
+    /**
+     * Removes all values associated with a key.
+     * @param key A key.
+     * @return whether the key was in the tree.
+     * @throws IOException if the change couldn't be journaled or made durable.
+     */
+    public boolean remove(Comparable key) throws IOException{
+        return change(REMOVE,key,null,false);
+    }
+    /**
+     * Removes every value associated with a key which equals the given value.
+     * If there are no more values associated with the key, the key is also
+     * removed.
+     * @param key A key.
+     * @param value A value.
+     * @return whether any values were removed.
+     * @throws IOException if the change couldn't be journaled or made durable.
+     */
+    public boolean remove(Comparable key,Object value) throws IOException{
+        return change(REMOVEVALUE,key,value,true);
+    }
+    /**
+     * Removes the oldest value associated with a key. If there are no more
+     * values associated with the key, the key is also removed.
+     * @param key A key.
+     * @return whether the key was in the tree.
+     * @throws IOException if the change couldn't be journaled or made durable.
+     */
+    public boolean removeFirstValue(Comparable key) throws IOException{
+        return change(REMOVEFIRST,key,null,false);
+    }
+    /**
+     * Removes the newest value associated with a key. If there are no more
+     * values associated with the key, the key is also removed.
+     * @param key A key.
+     * @return whether the key was in the tree.
+     * @throws IOException if the change couldn't be journaled or made durable.
+     */
+    public boolean removeLastValue(Comparable key) throws IOException{
+        return change(REMOVELAST,key,null,false);
+    }
+    /**
+     * Removes all values associated with a key, but not the key itself.
+     * @param key A key.
+     * @return whether the key was in the tree.
+     * @throws IOException if the change couldn't be journaled or made durable.
+     */
+    public boolean removeAllValues(Comparable key) throws IOException{
+        return change(REMOVEALL,key,null,false);
+    }
+    /**
+     * Removes all keys and values from the tree.
+     * @throws IOException if the change couldn't be journaled or made durable.
+     */
+    public void clear() throws IOException{
+        change(CLEAR,null,null,false);
+    }
+    /**
+     * Forces every change made so far to the disk, whatever the durability.
+     * @throws IOException if the journal couldn't be written.
+     */
+    public void sync() throws IOException{
+        SBJournal current;
+        lock.lock();
+        try{
+            current=journal;
+        }finally{
+            lock.unlock();
+        }
+        current.sync();
+    }
+    /**
+     * Saves the tree as a new checkpoint and deletes the journals and
+     * checkpoints it makes obsolete. Other threads can go on changing the
+     * tree while the checkpoint is written.
+     * @throws IOException if the checkpoint couldn't be written, or didn't
+     * load back the same as the tree. The tree can still be recovered from
+     * the older files in that case.
+     */
+    public void checkpoint() throws IOException{
+        checkpointlock.lock();
+        try{
+            SBSnapshot snapshot; SBJournal old; long checkpoint;
+            lock.lock();
+            try{
+                snapshot=tree.snapshot();
+                old=journal;
+                checkpoint=generation+1;
+                journal=new SBJournal(directory.resolve(JOURNAL+checkpoint),durability,intervalms);
+                generation=checkpoint;
+            }finally{
+                lock.unlock();
+            }
+            // Until the checkpoint is in place, recovery needs the old journal
+            old.close();
+            forceDirectory();
+            Path temporary=directory.resolve(CHECKPOINT+checkpoint+".tmp");
+            SBTreeFile.save(snapshot,temporary,keycodec,valuecodec);
+            try(FileChannel channel=FileChannel.open(temporary,StandardOpenOption.WRITE)){
+                channel.force(true);
+            }
+            // Nothing is deleted until the checkpoint is known to load back
+            try{
+                verify(snapshot,temporary);
+            }catch(IOException | RuntimeException e){
+                Files.deleteIfExists(temporary);
+                throw e;
+            }
+            Files.move(temporary,directory.resolve(CHECKPOINT+checkpoint),StandardCopyOption.ATOMIC_MOVE);
+            forceDirectory();
+            for(long found:generations(JOURNAL)){
+                if(found<checkpoint){Files.deleteIfExists(directory.resolve(JOURNAL+found));}
+            }
+            for(long found:generations(CHECKPOINT)){
+                if(found<checkpoint){Files.deleteIfExists(directory.resolve(CHECKPOINT+found));}
+            }
+        }finally{
+            checkpointlock.unlock();
+        }
+    }
+    /**
+     * Loads a checkpoint back and checks that it holds the same keys, in the
+     * same order, and as many values as the snapshot it was saved from.
+     * @param snapshot The snapshot which was saved.
+     * @param path The checkpoint file.
+     * @throws IOException if the checkpoint can't be loaded or doesn't match.
+     */
+    private void verify(SBSnapshot snapshot,Path path) throws IOException{
+        SBTree loaded=SBTreeFile.load(path,keycodec,valuecodec);
+        if(loaded.size()!=snapshot.size() || loaded.valuesSize()!=snapshot.valuesSize()){
+            throw new IOException("Checkpoint "+path+" doesn't match the tree");
+        }
+        Iterator<Comparable> keys=snapshot.keys();
+        SBNode root=loaded.root;
+        for(SBNode node=(root==null)?null:root.leftMostNode();node!=null;node=node.nextInOrder(root)){
+            if(!keys.hasNext() || !Objects.equals(keys.next(),node.key)){
+                throw new IOException("Checkpoint "+path+" doesn't match the tree");
+            }
+        }
+    }
+    /**
+     * Makes every change durable and closes the current journal. The tree
+     * mustn't be changed afterwards.
+     * @throws IOException if the journal couldn't be written.
+     */
+    public void close() throws IOException{
+        lock.lock();
+        try{
+            journal.close();
+        }finally{
+            lock.unlock();
+        }
+    }
+    /**
+     * Journals a change and then makes it to the tree, then waits for it to
+     * be as durable as the journal requires. If the change can't be appended
+     * to the journal, because it's closed or an earlier write failed, the
+     * tree is left as it was. If it's appended but then can't be made
+     * durable, it has been made to the tree but may not survive a crash,
+     * along with any other changes committed with it. The journal refuses
+     * every change after a failed write, so the tree gets no further ahead
+     * of its files than that.
+     * @param operation The kind of change.
+     * @param key The key, if the change has one.
+     * @param value The value, if the change has one.
+     * @param hasvalue Whether the change has a value.
+     * @return whether the change changed anything.
+     * @throws IOException if the change couldn't be journaled or made durable.
+     */
+    private boolean change(byte operation,Comparable key,Object value,boolean hasvalue) throws IOException{
+        SBJournal current; long position;
+        lock.lock();
+        try{
+            // Encoded first, so a value the codec can't handle changes nothing
+            ByteBuffer encoded=encode(operation,key,value,hasvalue);
+            if(!changes(operation,key,value)){return false;}
+            current=journal;
+            position=current.append(encoded);
+            apply(operation,key,value);
+        }finally{
+            lock.unlock();
+        }
+        current.commit(position);
+        return true;
+    }
+    /**
+     * Encodes a change as a journal record.
+     * @param operation The kind of change.
+     * @param key The key, if the change has one.
+     * @param value The value, if the change has one.
+     * @param hasvalue Whether the change has a value.
+     * @return a buffer holding the record between its position and limit.
+     * @throws IOException if the key or value can't be encoded.
+     */
+    private ByteBuffer encode(byte operation,Comparable key,Object value,boolean hasvalue) throws IOException{
+        while(true){
+            record.clear();
+            try{
+                record.put(operation);
+                if(operation!=CLEAR){keycodec.write(key,record);}
+                if(hasvalue){valuecodec.write(value,record);}
+                record.flip();
+                return record;
+            }catch(BufferOverflowException e){
+                record=ByteBuffer.allocate(record.capacity()*2);
+            }
+        }
+    }
+    /**
+     * Decodes a journal record and makes the change to the tree.
+     * @param buffer A buffer holding the record.
+     */
+    private void apply(ByteBuffer buffer){
+        try{
+            byte operation=buffer.get();
+            Comparable key=(operation==CLEAR)?null:(Comparable)keycodec.read(buffer);
+            Object value=(operation==INSERT || operation==REMOVEVALUE)?valuecodec.read(buffer):null;
+            apply(operation,key,value);
+        }catch(IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+    /**
+     * @param operation The kind of change.
+     * @param key The key, if the change has one.
+     * @param value The value, if the change has one.
+     * @return whether making the change to the tree would change anything.
+     */
+    private boolean changes(byte operation,Comparable key,Object value){
+        if(operation==INSERT || operation==CLEAR){return true;}
+        SBNode node=tree.findNode(key,SBSplayPolicy.NEVER);
+        if(node==null){return false;}
+        if(operation!=REMOVEVALUE){return true;}
+        for(int i=0;i<node.valuesSize();i++){
+            if(Objects.equals(node.getValue(i),value)){return true;}
+        }
+        return false;
+    }
+    /**
+     * Makes a change to the tree.
+     * @param operation The kind of change.
+     * @param key The key, if the change has one.
+     * @param value The value, if the change has one.
+     * @return whether the change changed anything.
+     */
+    private boolean apply(byte operation,Comparable key,Object value){
+        if(operation==INSERT){
+            tree.insert(key,value);
+            return true;
+        }else if(operation==CLEAR){
+            tree.clear();
+            return true;
+        }
+        SBNode node=tree.findNode(key,SBSplayPolicy.NEVER);
+        if(node==null){return false;}
+        switch(operation){
+            case REMOVE:
+                tree.remove(key);
+                return true;
+            case REMOVEVALUE:
+                boolean removed=false;
+                for(int i=node.valuesSize()-1;i>=0;i--){
+                    if(Objects.equals(node.getValue(i),value)){
+                        node=tree.removeValueAt(key,i);
+                        removed=true;
+                    }
+                }
+                return removed;
+            case REMOVEFIRST:
+                if(node.valuesSize()==0){tree.remove(key);}else{tree.removeFirstValue(key);}
+                return true;
+            case REMOVELAST:
+                if(node.valuesSize()==0){tree.remove(key);}else{tree.removeLastValue(key);}
+                return true;
+            case REMOVEALL:
+                tree.removeAllValues(key);
+                return true;
+            default:
+                throw new IllegalArgumentException("Unknown journal record "+operation);
+        }
+    }
+    /**
+     * @param prefix The prefix of the file names.
+     * @return the generations of the files in the directory with the prefix,
+     * in ascending order.
+     * @throws IOException if the directory can't be read.
+     */
+    private ArrayList<Long> generations(String prefix) throws IOException{
+        ArrayList<Long> found=new ArrayList<>();
+        try(DirectoryStream<Path> files=Files.newDirectoryStream(directory,prefix+"*")){
+            for(Path file:files){
+                String name=file.getFileName().toString().substring(prefix.length());
+                try{
+                    found.add(Long.parseLong(name));
+                }catch(NumberFormatException e){
+                    // Not one of ours, or a checkpoint which was never finished
+                }
+            }
+        }
+        Collections.sort(found);
+        return found;
+    }
+    /**
+     * Forces the directory itself to the disk, so that files created or
+     * renamed in it stay that way. Not every platform can do this, in which
+     * case it's skipped.
+     */
+    private void forceDirectory(){
+        try(FileChannel channel=FileChannel.open(directory,StandardOpenOption.READ)){
+            channel.force(true);
+        }catch(IOException e){
+            // Directories can't be opened on some platforms
+        }
+    }
+}
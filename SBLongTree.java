@@ -0,0 +1,797 @@
+/*
+ * This code is released as public domain. But that doesn't mean you should
+ * claim credit that isn't yours or sell it when it could otherwise be had for
+ * free, because that would be a shitty thing of you to do.
+ * It was originally written by Sophie Kirschner. (sophiek@pineapplemachine.com)
+ */
+
+package SBTree;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.function.IntConsumer;
+
+/**
+ * The SBLongTree class is a splayed binary search tree like SBTree, except
+ * that its keys are primitive longs and its nodes aren't objects. Every node
+ * is an index into a handful of parallel arrays: one of keys, two of child
+ * indexes and one of values. Keys are compared directly rather than through
+ * compareTo(), and a node costs around twenty bytes plus its value instead of
+ * an SBNode, a boxed key and a LinkedList.
+ *
+ * Nodes are referred to by int handles, and NONE stands in for null. A handle
+ * stays valid until its node is removed, after which it may be reused by a
+ * later insertion. Removed nodes are kept on a free list, and the arrays grow
+ * when the free list is empty.
+ *
+ * The nodes don't keep references to their parents, so successor() and
+ * predecessor() search from the root. Iterating through the tree's nodes
+ * looks like this:
+ * for(int node=tree.leftMostNode();node!=SBLongTree.NONE;node=tree.successor(node)){}
+ * which takes time proportional to the depth of the tree for every node.
+ * toArray() and keysToArray() walk the whole tree in linear time instead.
+ *
+ * @author Sophie Kirschner
+ */
+public class SBLongTree {
+    /** Handle used in place of a node where none exists. */
+    final static public int NONE=-1;
+    /** Number of nodes there is room for when no capacity is specified. */
+    final static public int DEFAULTCAPACITY=16;
+    /** Keys of the nodes, indexed by handle. */
+    private long[] keys;
+    /**
+     * Left children of the nodes, indexed by handle. For nodes on the free
+     * list this is the next free node instead.
+     */
+    private int[] lefts;
+    /** Right children of the nodes, indexed by handle. */
+    private int[] rights;
+    /**
+     * Values of the nodes, indexed by handle. A node with a single value
+     * holds it directly, a node with several holds a ValueList.
+     */
+    private Object[] values;
+    /** Handle of the root node. */
+    private int root=NONE;
+    /** Handle of the first node on the free list. */
+    private int freenode=NONE;
+    /** Number of handles which have ever been handed out. */
+    private int used=0;
+    /** Number of nodes in the tree. */
+    private int size=0;
+    /** Number of values in the tree. */
+    private int valuessize=0;
+    /**
+     * Boolean determines whether the tree is splayed after insertion
+     * operations.
+     */
+    public boolean splayedinsertion=true;
+    /** Boolean determines whether the tree is splayed after search operations. */
+    public boolean splayedsearch=true;
+    /** Initializes a new SBLongTree. */
+    public SBLongTree(){
+        this(DEFAULTCAPACITY);
+    }
+    /**
+     * Initializes a new SBLongTree.
+     * @param capacity Number of nodes to make room for up front.
+     */
+    public SBLongTree(int capacity){
+        capacity=Math.max(capacity,1);
+        keys=new long[capacity];
+        lefts=new int[capacity];
+        rights=new int[capacity];
+        values=new Object[capacity];
+    }
+    /**
+     * Initializes a new SBLongTree.
+     * @param splayed Set whether the tree is splayed after insertion and search
+     * operations.
+     */
+    public SBLongTree(boolean splayed){
+        this(DEFAULTCAPACITY);
+        setSplay(splayed);
+    }
+    /**
+     * Initializes a new SBLongTree.
+     * @param insertion Set whether the tree is splayed after insertion
+     * operations.
+     * @param search Set whether the tree is splayed after search operations.
+     */
+    public SBLongTree(boolean insertion,boolean search){
+        this(DEFAULTCAPACITY);
+        setSplay(insertion,search);
+    }
+    /** @return true if the tree is empty (has no root node), false otherwise. */
+    public boolean isEmpty(){
+        return root==NONE;
+    }
+    /** @return the number of keys (nodes) in the tree. */
+    public int size(){
+        return size;
+    }
+    /** @return the number of values in the tree. */
+    public int valuesSize(){
+        return valuessize;
+    }
+    /** Removes all nodes and values from the tree. Its capacity is kept. */
+    public void clear(){
+        Arrays.fill(values,0,used,null);
+        root=NONE; freenode=NONE; used=0; size=0; valuessize=0;
+    }
+    /** @return whether the tree is splayed after insertion operations. */
+    public boolean getSplayInsertion(){
+        return splayedinsertion;
+    }
+    /** @param set Set whether the tree is splayed after insertion operations. */
+    public void setSplayInsertion(boolean set){
+        splayedinsertion=set;
+    }
+    /** @return whether the tree is splayed after search operations. */
+    public boolean getSplaySearch(){
+        return splayedsearch;
+    }
+    /** @param set Set whether the tree is splayed after search operations. */
+    public void setSplaySearch(boolean set){
+        splayedsearch=set;
+    }
+    /**
+     * @param set Set whether the tree is splayed after insertion and search
+     * operations.
+     */
+    final public void setSplay(boolean set){
+        splayedinsertion=set;
+        splayedsearch=set;
+    }
+    /**
+     * @param insertion Set whether the tree is splayed after insertion
+     * operations.
+     * @param search Set whether the tree is splayed after search operations.
+     */
+    final public void setSplay(boolean insertion,boolean search){
+        splayedinsertion=insertion;
+        splayedsearch=search;
+    }
+    /**
+     * @param node A node handle.
+     * @return the node's key.
+     */
+    public long getKey(int node){
+        return keys[node];
+    }
+    /**
+     * @param node A node handle.
+     * @return the oldest value associated with the node.
+     */
+    public Object getFirstValue(int node){
+        Object value=values[node];
+        return (value instanceof ValueList)?((ValueList)value).items[0]:value;
+    }
+    /**
+     * @param node A node handle.
+     * @return the newest value associated with the node.
+     */
+    public Object getLastValue(int node){
+        Object value=values[node];
+        if(value instanceof ValueList){
+            ValueList list=(ValueList)value;
+            return list.items[list.size-1];
+        }
+        return value;
+    }
+    /**
+     * @param node A node handle.
+     * @return a LinkedList containing all values associated with the node.
+     */
+    public LinkedList<Object> getAllValues(int node){
+        LinkedList<Object> list=new LinkedList<>();
+        Object value=values[node];
+        if(value instanceof ValueList){
+            ValueList valuelist=(ValueList)value;
+            for(int i=0;i<valuelist.size;i++){list.addLast(valuelist.items[i]);}
+        }else{
+            list.addLast(value);
+        }
+        return list;
+    }
+    /**
+     * @param node A node handle.
+     * @return the number of values associated with the node.
+     */
+    public int valuesSize(int node){
+        Object value=values[node];
+        return (value instanceof ValueList)?((ValueList)value).size:1;
+    }
+    /**
+     * Inserts a new key, value pair into the tree.
+     * @param key A key.
+     * @param value A value.
+     * @return the handle of the node containing the new key, value pair.
+     */
+    public int insert(long key,Object value){
+        if(root==NONE){
+            root=allocate(key,value);
+            return root;
+        }
+        if(splayedinsertion){
+            int current=splay(root,key);
+            long currentkey=keys[current];
+            if(key==currentkey){
+                addValue(current,value);
+                root=current;
+            }else{
+                int node=allocate(key,value);
+                if(key<currentkey){
+                    lefts[node]=lefts[current]; rights[node]=current;
+                    lefts[current]=NONE;
+                }else{
+                    rights[node]=rights[current]; lefts[node]=current;
+                    rights[current]=NONE;
+                }
+                root=node;
+            }
+            return root;
+        }
+        int current=root;
+        while(true){
+            long currentkey=keys[current];
+            if(key<currentkey){
+                if(lefts[current]!=NONE){
+                    current=lefts[current];
+                }else{
+                    int node=allocate(key,value);
+                    lefts[current]=node;
+                    return node;
+                }
+            }else if(key>currentkey){
+                if(rights[current]!=NONE){
+                    current=rights[current];
+                }else{
+                    int node=allocate(key,value);
+                    rights[current]=node;
+                    return node;
+                }
+            }else{
+                addValue(current,value);
+                return current;
+            }
+        }
+    }
+    /**
+     * Inserts an array of key, value pairs into the tree.
+     * @param keyarray An array of keys.
+     * @param valuearray An array of values, each belonging to the key at the
+     * same index.
+     */
+    public void insertMultiple(long[] keyarray,Object[] valuearray){
+        for(int i=0;i<keyarray.length;i++){insert(keyarray[i],valuearray[i]);}
+    }
+    /**
+     * Searches for a node with a matching key.
+     * @param key A key.
+     * @return the handle of the node corresponding to the specified key, NONE
+     * if none exists.
+     */
+    public int findNode(long key){
+        return findNode(key,splayedsearch);
+    }
+    /**
+     * Searches for a node with a matching key.
+     * @param key A key.
+     * @param splay Whether the tree should be splayed.
+     * @return the handle of the node corresponding to the specified key, NONE
+     * if none exists.
+     */
+    public int findNode(long key,boolean splay){
+        if(root==NONE){return NONE;}
+        if(splay){
+            root=splay(root,key);
+            return (keys[root]==key)?root:NONE;
+        }
+        int current=root;
+        while(current!=NONE){
+            long currentkey=keys[current];
+            if(key<currentkey){
+                current=lefts[current];
+            }else if(key>currentkey){
+                current=rights[current];
+            }else{
+                return current;
+            }
+        }
+        return NONE;
+    }
+    /**
+     * Searches for the node with the most closely matching key.
+     * @param key A key.
+     * @return the handle of the node most closely corresponding to the
+     * specified key, NONE if the tree is empty.
+     */
+    public int findClosestNode(long key){
+        if(root==NONE){return NONE;}
+        if(splayedsearch){
+            root=splay(root,key);
+            return root;
+        }
+        int current=root;
+        while(true){
+            long currentkey=keys[current];
+            if(key<currentkey && lefts[current]!=NONE){
+                current=lefts[current];
+            }else if(key>currentkey && rights[current]!=NONE){
+                current=rights[current];
+            }else{
+                return current;
+            }
+        }
+    }
+    /**
+     * Searches for the oldest value which corresponds to a key.
+     * @param key A key.
+     * @return the oldest Object corresponding to the key, null if none exists.
+     */
+    public Object findFirstValue(long key){
+        int node=findNode(key);
+        return (node==NONE)?null:getFirstValue(node);
+    }
+    /**
+     * Searches for the newest value which corresponds to a key.
+     * @param key A key.
+     * @return the newest Object corresponding to the key, null if none exists.
+     */
+    public Object findLastValue(long key){
+        int node=findNode(key);
+        return (node==NONE)?null:getLastValue(node);
+    }
+    /**
+     * Searches for the list of values which corresponds to a key.
+     * @param key A key.
+     * @return a LinkedList containing all values corresponding to the key,
+     * null if none exist.
+     */
+    public LinkedList<Object> findAllValues(long key){
+        int node=findNode(key);
+        return (node==NONE)?null:getAllValues(node);
+    }
+    /**
+     * Searches for the number of values which correspond to a key.
+     * @param key A key.
+     * @return the number of values corresponding to the key.
+     */
+    public int findValuesSize(long key){
+        int node=findNode(key);
+        return (node==NONE)?0:valuesSize(node);
+    }
+    /**
+     * Searches for a key.
+     * @param key A key.
+     * @return true if the key exists within the tree, false otherwise.
+     */
+    public boolean containsKey(long key){
+        return findNode(key)!=NONE;
+    }
+    /**
+     * Searches for a key, value pair.
+     * @param key A key.
+     * @param value A value.
+     * @return true if the key, value pair exists within the tree, false
+     * otherwise.
+     */
+    public boolean contains(long key,Object value){
+        int node=findNode(key);
+        if(node==NONE){return false;}
+        Object nodevalue=values[node];
+        if(nodevalue instanceof ValueList){
+            ValueList list=(ValueList)nodevalue;
+            for(int i=0;i<list.size;i++){
+                if(value==null?list.items[i]==null:value.equals(list.items[i])){return true;}
+            }
+            return false;
+        }
+        return value==null?nodevalue==null:value.equals(nodevalue);
+    }
+    /**
+     * Removes all values associated with a key, and the node corresponding to
+     * the key along with them.
+     * @param key A key.
+     * @return true if the key existed and was removed, false otherwise.
+     */
+    public boolean remove(long key){
+        int current=root,currentparent=NONE;
+        while(current!=NONE){
+            long currentkey=keys[current];
+            if(key<currentkey){
+                currentparent=current; current=lefts[current];
+            }else if(key>currentkey){
+                currentparent=current; current=rights[current];
+            }else{
+                unlink(current,currentparent);
+                return true;
+            }
+        }
+        return false;
+    }
+    /**
+     * Removes all instances of a value associated with a key. If there are no
+     * more values associated with the key, its node is also removed.
+     * @param key A key.
+     * @param value A value.
+     * @return true if any value was removed, false otherwise.
+     */
+    public boolean remove(long key,Object value){
+        int node=findNode(key,false);
+        if(node==NONE){return false;}
+        Object nodevalue=values[node];
+        if(nodevalue instanceof ValueList){
+            ValueList list=(ValueList)nodevalue;
+            int kept=0;
+            for(int i=0;i<list.size;i++){
+                if(list.items[i]!=value){list.items[kept++]=list.items[i];}
+            }
+            int removed=list.size-kept;
+            if(removed==0){return false;}
+            Arrays.fill(list.items,kept,list.size,null);
+            list.size=kept; valuessize-=removed;
+            if(kept==1){
+                values[node]=list.items[0];
+            }else if(kept==0){
+                remove(key);
+            }
+            return true;
+        }else if(nodevalue==value){
+            remove(key);
+            return true;
+        }
+        return false;
+    }
+    /**
+     * Removes the oldest value associated with a key. If there are no more
+     * values associated with the key, its node is also removed.
+     * @param key A key.
+     * @return true if a value was removed, false otherwise.
+     */
+    public boolean removeFirstValue(long key){
+        return removeValueAt(key,true);
+    }
+    /**
+     * Removes the newest value associated with a key. If there are no more
+     * values associated with the key, its node is also removed.
+     * @param key A key.
+     * @return true if a value was removed, false otherwise.
+     */
+    public boolean removeLastValue(long key){
+        return removeValueAt(key,false);
+    }
+    /**
+     * Convenience function shared by removeFirstValue() and removeLastValue().
+     * @param key A key.
+     * @param first Whether to remove the oldest value rather than the newest.
+     * @return true if a value was removed, false otherwise.
+     */
+    private boolean removeValueAt(long key,boolean first){
+        int node=findNode(key,false);
+        if(node==NONE){return false;}
+        Object nodevalue=values[node];
+        if(!(nodevalue instanceof ValueList)){return remove(key);}
+        ValueList list=(ValueList)nodevalue;
+        if(first){System.arraycopy(list.items,1,list.items,0,list.size-1);}
+        list.items[--list.size]=null; valuessize--;
+        if(list.size==1){values[node]=list.items[0];}
+        return true;
+    }
+    /**
+     * Balances the tree. This takes time, so it isn't something to be done
+     * frequently. The nodes are listed in order using a Morris traversal,
+     * which needs no stack, and then relinked.
+     * @return the handle of the new root of the tree.
+     */
+    public int optimize(){
+        if(root==NONE){return NONE;}
+        final int[] order=new int[size]; final int[] index={0};
+        inOrder(node -> order[index[0]++]=node);
+        // Each pending range is stored as start, end, parent, side.
+        int[] stack=new int[4*64]; int stacksize=4;
+        stack[0]=0; stack[1]=order.length-1; stack[2]=NONE;
+        while(stacksize>0){
+            stacksize-=4;
+            int start=stack[stacksize],end=stack[stacksize+1];
+            int parent=stack[stacksize+2],side=stack[stacksize+3];
+            int middle=(int)Math.ceil((double)(end-start)/2d)+start;
+            int node=order[middle];
+            lefts[node]=NONE; rights[node]=NONE;
+            if(parent==NONE){
+                root=node;
+            }else if(side<0){
+                lefts[parent]=node;
+            }else{
+                rights[parent]=node;
+            }
+            if(middle<end){
+                stack[stacksize]=middle+1; stack[stacksize+1]=end;
+                stack[stacksize+2]=node; stack[stacksize+3]=1;
+                stacksize+=4;
+            }
+            if(middle>start){
+                stack[stacksize]=start; stack[stacksize+1]=middle-1;
+                stack[stacksize+2]=node; stack[stacksize+3]=-1;
+                stacksize+=4;
+            }
+        }
+        return root;
+    }
+    /** @return the handle of the leftmost node in the tree, NONE if empty. */
+    public int leftMostNode(){
+        if(root==NONE){return NONE;}
+        int node=root;
+        while(lefts[node]!=NONE){node=lefts[node];}
+        return node;
+    }
+    /** @return the handle of the rightmost node in the tree, NONE if empty. */
+    public int rightMostNode(){
+        if(root==NONE){return NONE;}
+        int node=root;
+        while(rights[node]!=NONE){node=rights[node];}
+        return node;
+    }
+    /**
+     * @param node A node handle.
+     * @return the handle of the node to the immediate right of the specified
+     * one, NONE if none exists.
+     */
+    public int successor(int node){
+        return higherNode(keys[node]);
+    }
+    /**
+     * @param node A node handle.
+     * @return the handle of the node to the immediate left of the specified
+     * one, NONE if none exists.
+     */
+    public int predecessor(int node){
+        return lowerNode(keys[node]);
+    }
+    /**
+     * @param key A key.
+     * @return the handle of the node with the least key greater than the
+     * specified one, NONE if none exists.
+     */
+    public int higherNode(long key){
+        int current=root,found=NONE;
+        while(current!=NONE){
+            if(key<keys[current]){
+                found=current; current=lefts[current];
+            }else{
+                current=rights[current];
+            }
+        }
+        return found;
+    }
+    /**
+     * @param key A key.
+     * @return the handle of the node with the greatest key less than the
+     * specified one, NONE if none exists.
+     */
+    public int lowerNode(long key){
+        int current=root,found=NONE;
+        while(current!=NONE){
+            if(key>keys[current]){
+                found=current; current=rights[current];
+            }else{
+                current=lefts[current];
+            }
+        }
+        return found;
+    }
+    /**
+     * Splays the tree so that the node with the specified key, or if there is
+     * none the last node on the key's search path, becomes the new root.
+     * @param key A key.
+     * @return the handle of the new root, NONE if the tree is empty.
+     */
+    public int splay(long key){
+        if(root!=NONE){root=splay(root,key);}
+        return root;
+    }
+    /** @return an array of all values in the tree, ordered by key. */
+    public Object[] toArray(){
+        final Object[] array=new Object[valuessize]; final int[] index={0};
+        inOrder(node -> {
+            Object value=values[node];
+            if(value instanceof ValueList){
+                ValueList list=(ValueList)value;
+                System.arraycopy(list.items,0,array,index[0],list.size);
+                index[0]+=list.size;
+            }else{
+                array[index[0]++]=value;
+            }
+        });
+        return array;
+    }
+    /** @return an array of all keys in the tree, in ascending order. */
+    public long[] keysToArray(){
+        final long[] array=new long[size]; final int[] index={0};
+        inOrder(node -> array[index[0]++]=keys[node]);
+        return array;
+    }
+    /** @return a simple sequential list of the tree's keys. */
+    public String keysToSequencedString(){
+        final StringBuilder str=new StringBuilder();
+        inOrder(node -> {
+            if(str.length()>0){str.append(", ");}
+            str.append(keys[node]);
+        });
+        return str.toString();
+    }
+    /** @return a String representation of the tree. */
+    @Override
+    public String toString(){
+        return keysToSequencedString();
+    }
+    /**
+     * Visits every node in order by key, using a Morris traversal like
+     * optimize() does, so that the whole walk takes linear time however
+     * deep the tree is, where calling successor() for each node would
+     * search from the root every time. Right links are borrowed as threads
+     * and put back along the way, so the action mustn't change the tree.
+     * @param action Called with the handle of each node.
+     */
+    private void inOrder(IntConsumer action){
+        int current=root;
+        while(current!=NONE){
+            if(lefts[current]==NONE){
+                action.accept(current); current=rights[current];
+            }else{
+                int previous=lefts[current];
+                while(rights[previous]!=NONE && rights[previous]!=current){
+                    previous=rights[previous];
+                }
+                if(rights[previous]==NONE){
+                    rights[previous]=current; current=lefts[current];
+                }else{
+                    rights[previous]=NONE;
+                    action.accept(current); current=rights[current];
+                }
+            }
+        }
+    }
+    /**
+     * Top-down splay of the subtree rooted at the given node. Works in one
+     * pass the same way as SBNode.splayKey(), and since there are no parent
+     * links or counts to repair it's nothing but array writes.
+     * @param node The subtree's root.
+     * @param key A key.
+     * @return the subtree's new root.
+     */
+    private int splay(int node,long key){
+        int current=node,leftroot=NONE,leftmax=NONE,rightroot=NONE,rightmin=NONE;
+        while(true){
+            long currentkey=keys[current];
+            if(key<currentkey){
+                int child=lefts[current];
+                if(child==NONE){break;}
+                if(key<keys[child]){
+                    lefts[current]=rights[child]; rights[child]=current;
+                    current=child;
+                    if(lefts[current]==NONE){break;}
+                }
+                if(rightmin==NONE){
+                    rightroot=current;
+                }else{
+                    lefts[rightmin]=current;
+                }
+                rightmin=current; current=lefts[current];
+            }else if(key>currentkey){
+                int child=rights[current];
+                if(child==NONE){break;}
+                if(key>keys[child]){
+                    rights[current]=lefts[child]; lefts[child]=current;
+                    current=child;
+                    if(rights[current]==NONE){break;}
+                }
+                if(leftmax==NONE){
+                    leftroot=current;
+                }else{
+                    rights[leftmax]=current;
+                }
+                leftmax=current; current=rights[current];
+            }else{
+                break;
+            }
+        }
+        if(leftmax!=NONE){
+            rights[leftmax]=lefts[current]; lefts[current]=leftroot;
+        }
+        if(rightmin!=NONE){
+            lefts[rightmin]=rights[current]; rights[current]=rightroot;
+        }
+        return current;
+    }
+    /**
+     * Removes a node from the tree and puts it on the free list. A node with
+     * two children is replaced by the rightmost node of its left subtree.
+     * @param node The node to remove.
+     * @param nodeparent The node's parent, NONE if it's the root.
+     */
+    private void unlink(int node,int nodeparent){
+        int replacement;
+        if(lefts[node]==NONE){
+            replacement=rights[node];
+        }else if(rights[node]==NONE){
+            replacement=lefts[node];
+        }else{
+            int previousparent=node; replacement=lefts[node];
+            while(rights[replacement]!=NONE){
+                previousparent=replacement; replacement=rights[replacement];
+            }
+            if(previousparent!=node){
+                rights[previousparent]=lefts[replacement];
+                lefts[replacement]=lefts[node];
+            }
+            rights[replacement]=rights[node];
+        }
+        if(nodeparent==NONE){
+            root=replacement;
+        }else if(lefts[nodeparent]==node){
+            lefts[nodeparent]=replacement;
+        }else{
+            rights[nodeparent]=replacement;
+        }
+        valuessize-=valuesSize(node);
+        size--;
+        values[node]=null;
+        lefts[node]=freenode; freenode=node;
+    }
+    /**
+     * Takes a node from the free list, or from the end of the arrays if the
+     * free list is empty, and initializes it.
+     * @param key The node's key.
+     * @param value The node's first value.
+     * @return the node's handle.
+     */
+    private int allocate(long key,Object value){
+        int node;
+        if(freenode!=NONE){
+            node=freenode; freenode=lefts[node];
+        }else{
+            if(used==keys.length){
+                int capacity=keys.length+(keys.length>>1)+1;
+                keys=Arrays.copyOf(keys,capacity);
+                lefts=Arrays.copyOf(lefts,capacity);
+                rights=Arrays.copyOf(rights,capacity);
+                values=Arrays.copyOf(values,capacity);
+            }
+            node=used++;
+        }
+        keys[node]=key; lefts[node]=NONE; rights[node]=NONE;
+        values[node]=value;
+        size++; valuessize++;
+        return node;
+    }
+    /**
+     * Adds a new value to a node, after any values it already has.
+     * @param node A node handle.
+     * @param value A value.
+     */
+    private void addValue(int node,Object value){
+        Object nodevalue=values[node];
+        if(nodevalue instanceof ValueList){
+            ValueList list=(ValueList)nodevalue;
+            if(list.size==list.items.length){
+                list.items=Arrays.copyOf(list.items,list.size*2);
+            }
+            list.items[list.size++]=value;
+        }else{
+            ValueList list=new ValueList();
+            list.items[0]=nodevalue; list.items[1]=value; list.size=2;
+            values[node]=list;
+        }
+        valuessize++;
+    }
+    /** Holds the values of a node which has more than one. */
+    private static class ValueList {
+        /** The values, oldest first. */
+        Object[] items=new Object[4];
+        /** Number of values in use. */
+        int size=0;
+    }
+}
@@ -0,0 +1,730 @@
+/*
+ * This code is released as public domain. But that doesn't mean you should
+ * claim credit that isn't yours or sell it when it could otherwise be had for
+ * free, because that would be a shitty thing of you to do.
+ * It was originally written by Sophie Kirschner. (sophiek@pineapplemachine.com)
+ */
+
+package SBTree;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * The SBMappedTree class is a splayed binary search tree like SBLongTree,
+ * except that its nodes live in a memory-mapped file instead of on the heap.
+ * However many nodes it has, the garbage collector sees only a handful of
+ * buffers, and opening the file again after a restart only maps it: nothing
+ * is read or rebuilt until it's used.
+ *
+ * Keys are byte arrays of at most a fixed width, chosen when the file is
+ * created, and are ordered as unsigned bytes, shorter keys before longer ones
+ * they're a prefix of. keyOf() turns a long into a key which sorts the same
+ * way the long does. Every key has a single long value, typically the
+ * position of a record somewhere else; inserting a key which is already in
+ * the tree replaces its value.
+ *
+ * Nodes are referred to by int handles, and NONE stands in for null, just as
+ * with SBLongTree. Each node is a fixed-size slot holding the handles of its
+ * children, its value and its key with the key's length. The slots are mapped
+ * in chunks, and the file grows by a chunk whenever the free list of removed
+ * nodes is empty and the last chunk is full. The file begins with a header
+ * holding the root, the free list and the number of nodes, which is kept up
+ * to date after every change.
+ *
+ * Changes reach the file whenever the operating system writes the mapped
+ * pages back, which it does even if the process dies. They're only certain
+ * to survive the machine itself going down once flush() or close() has
+ * returned, and a tree which was being changed at the time may be left
+ * inconsistent. SBJournaledTree is the one to use where that matters.
+ *
+ * @author Sophie Kirschner
+ */
+public class SBMappedTree {
+    /** Handle used in place of a node where none exists. */
+    final static public int NONE=-1;
+    /** The first four bytes of every file, "SBMT". */
+    final static public int MAGIC=0x53424D54;
+    /** The version of the format written. */
+    final static public int FORMAT=1;
+    /** The greatest possible key width. */
+    final static public int MAXKEYWIDTH=0xffff;
+    /** The size of the header at the start of the file. */
+    final static int HEADERSIZE=64;
+    /** The most bytes of nodes mapped at once by one buffer. */
+    final static int CHUNKSIZE=1<<26;
+    // Positions of the header's fields
+    final static int HEADERMAGIC=0,HEADERFORMAT=4,HEADERKEYWIDTH=8,HEADERROOT=12,HEADERFREENODE=16,HEADERUSED=20,HEADERSIZEFIELD=24;
+    // Positions of a node's fields within its slot
+    final static int NODELEFT=0,NODERIGHT=4,NODEVALUE=8,NODEKEYLENGTH=16,NODEKEY=18;
+    /** The file. */
+    private final FileChannel channel;
+    /** The header, mapped. */
+    private final MappedByteBuffer header;
+    /** The chunks of nodes mapped so far, some of the array possibly unused. */
+    private MappedByteBuffer[] chunks;
+    /** The number of chunks mapped. */
+    private int chunkcount;
+    /** The greatest width of a key. */
+    private final int keywidth;
+    /** The size of a node's slot. */
+    private final int nodesize;
+    /** Shift turning a handle into the index of its chunk. */
+    private final int chunkshift;
+    /** Mask turning a handle into its index within its chunk. */
+    private final int chunkmask;
+    /** Handle of the root node. */
+    private int root=NONE;
+    /**
+     * Handle of the first node on the free list. Nodes on the free list hold
+     * the next free node as their left child.
+     */
+    private int freenode=NONE;
+    /** Number of handles which have ever been handed out. */
+    private int used=0;
+    /** Number of nodes in the tree. */
+    private int size=0;
+    /**
+     * Boolean determines whether the tree is splayed after insertion
+     * operations.
+     */
+    public boolean splayedinsertion=true;
+    /** Boolean determines whether the tree is splayed after search operations. */
+    public boolean splayedsearch=true;
+    /**
+     * Opens an existing tree file.
+     * @param path The file.
+     * @throws IOException if the file can't be opened or isn't a valid tree
+     * file.
+     */
+    public SBMappedTree(Path path) throws IOException{
+        this(path,0);
+    }
+    /**
+     * Opens a tree file, creating it if it doesn't exist.
+     * @param path The file.
+     * @param keywidth The greatest width of a key, from 1 to MAXKEYWIDTH, or
+     * 0 to open an existing file with whatever width it has.
+     * @throws IOException if the file can't be opened or created, isn't a
+     * valid tree file, or has keys of a different width.
+     */
+    public SBMappedTree(Path path,int keywidth) throws IOException{
+        if(keywidth<0 || keywidth>MAXKEYWIDTH){throw new IllegalArgumentException("Key width out of range: "+keywidth);}
+        boolean exists=Files.exists(path) && Files.size(path)>0;
+        if(!exists && keywidth==0){throw new IOException("No SBMappedTree file at "+path);}
+        channel=FileChannel.open(path,StandardOpenOption.READ,StandardOpenOption.WRITE,StandardOpenOption.CREATE);
+        try{
+            if(exists && channel.size()<HEADERSIZE){throw new IOException("Not an SBMappedTree file");}
+            header=map(0,HEADERSIZE);
+            if(exists){
+                if(header.getInt(HEADERMAGIC)!=MAGIC){throw new IOException("Not an SBMappedTree file");}
+                int format=header.getInt(HEADERFORMAT);
+                if(format!=FORMAT){throw new IOException("Unsupported SBMappedTree file format "+format);}
+                int filekeywidth=header.getInt(HEADERKEYWIDTH);
+                if(keywidth!=0 && keywidth!=filekeywidth){
+                    throw new IOException("File has keys of width "+filekeywidth+", not "+keywidth);
+                }
+                keywidth=filekeywidth;
+            }else{
+                header.putInt(HEADERMAGIC,MAGIC).putInt(HEADERFORMAT,FORMAT).putInt(HEADERKEYWIDTH,keywidth);
+            }
+            this.keywidth=keywidth;
+            nodesize=(NODEKEY+keywidth+7)&~7;
+            chunkshift=31-Integer.numberOfLeadingZeros(CHUNKSIZE/nodesize);
+            chunkmask=(1<<chunkshift)-1;
+            chunks=new MappedByteBuffer[4];
+            if(exists){
+                root=header.getInt(HEADERROOT); freenode=header.getInt(HEADERFREENODE);
+                used=header.getInt(HEADERUSED); size=header.getInt(HEADERSIZEFIELD);
+                if(used<0 || size<0 || size>used || root<NONE || root>=used || freenode<NONE || freenode>=used){
+                    throw new IOException("Corrupt SBMappedTree file");
+                }
+                int needed=(int)(((long)used+chunkmask)>>>chunkshift);
+                if(channel.size()<HEADERSIZE+(long)needed*chunkBytes()){throw new IOException("Corrupt SBMappedTree file");}
+                while(chunkcount<needed){addChunk();}
+            }else{
+                writeHeader();
+            }
+        }catch(IOException | RuntimeException e){
+            channel.close();
+            throw e;
+        }
+    }
+    /**
+     * @param key A long.
+     * @return an eight byte key which sorts among others made by this method
+     * the same way the long does among other longs.
+     */
+    public static byte[] keyOf(long key){
+        key^=Long.MIN_VALUE;
+        byte[] bytes=new byte[8];
+        for(int i=7;i>=0;i--){bytes[i]=(byte)key; key>>>=8;}
+        return bytes;
+    }
+    /** @return true if the tree is empty, false otherwise. */
+    public boolean isEmpty(){
+        return size==0;
+    }
+    /** @return the number of keys (nodes) in the tree. */
+    public int size(){
+        return size;
+    }
+    /** @return the greatest width of a key. */
+    public int keyWidth(){
+        return keywidth;
+    }
+    /**
+     * Removes all keys and values from the tree. The file keeps its size,
+     * and its space is reused by later insertions.
+     */
+    public void clear(){
+        root=NONE; freenode=NONE; used=0; size=0;
+        writeHeader();
+    }
+    /** @return whether the tree is splayed after insertion operations. */
+    public boolean getSplayInsertion(){
+        return splayedinsertion;
+    }
+    /** @param set Whether the tree is splayed after insertion operations. */
+    public void setSplayInsertion(boolean set){
+        splayedinsertion=set;
+    }
+    /** @return whether the tree is splayed after search operations. */
+    public boolean getSplaySearch(){
+        return splayedsearch;
+    }
+    /** @param set Whether the tree is splayed after search operations. */
+    public void setSplaySearch(boolean set){
+        splayedsearch=set;
+    }
+    /**
+     * Sets whether the tree is splayed after insertion and search operations.
+     * @param set Whether the tree is splayed.
+     */
+    final public void setSplay(boolean set){
+        splayedinsertion=set;
+        splayedsearch=set;
+    }
+    /**
+     * @param node A node handle.
+     * @return a copy of the node's key.
+     */
+    public byte[] getKey(int node){
+        MappedByteBuffer chunk=chunk(node); int offset=offset(node);
+        byte[] key=new byte[chunk.getShort(offset+NODEKEYLENGTH)&0xffff];
+        for(int i=0;i<key.length;i++){key[i]=chunk.get(offset+NODEKEY+i);}
+        return key;
+    }
+    /**
+     * @param node A node handle.
+     * @return the node's value.
+     */
+    public long getValue(int node){
+        return chunk(node).getLong(offset(node)+NODEVALUE);
+    }
+    /**
+     * @param node A node handle.
+     * @param value The node's new value.
+     */
+    public void setValue(int node,long value){
+        chunk(node).putLong(offset(node)+NODEVALUE,value);
+    }
+    /**
+     * Inserts a key, value pair into the tree, or replaces the value if the
+     * key is already in it.
+     * @param key A key.
+     * @param value A value.
+     * @return the handle of the node containing the key.
+     * @throws IOException if the file had to grow and couldn't.
+     */
+    public int insert(byte[] key,long value) throws IOException{
+        checkKey(key);
+        if(root==NONE){
+            root=allocate(key,value);
+            writeHeader();
+            return root;
+        }
+        if(splayedinsertion){
+            int current=splay(root,key);
+            int comparison=compare(key,current);
+            if(comparison==0){
+                setValue(current,value);
+                root=current;
+            }else{
+                int node=allocate(key,value);
+                if(comparison<0){
+                    setLeft(node,left(current)); setRight(node,current);
+                    setLeft(current,NONE);
+                }else{
+                    setRight(node,right(current)); setLeft(node,current);
+                    setRight(current,NONE);
+                }
+                root=node;
+            }
+            writeHeader();
+            return root;
+        }
+        int current=root;
+        while(true){
+            int comparison=compare(key,current);
+            if(comparison<0){
+                if(left(current)!=NONE){
+                    current=left(current);
+                }else{
+                    int node=allocate(key,value);
+                    setLeft(current,node);
+                    writeHeader();
+                    return node;
+                }
+            }else if(comparison>0){
+                if(right(current)!=NONE){
+                    current=right(current);
+                }else{
+                    int node=allocate(key,value);
+                    setRight(current,node);
+                    writeHeader();
+                    return node;
+                }
+            }else{
+                setValue(current,value);
+                return current;
+            }
+        }
+    }
+    /**
+     * Searches for a node with a matching key.
+     * @param key A key.
+     * @return the handle of the node corresponding to the specified key, NONE
+     * if none exists.
+     */
+    public int findNode(byte[] key){
+        return findNode(key,splayedsearch);
+    }
+    /**
+     * Searches for a node with a matching key.
+     * @param key A key.
+     * @param splay Whether the tree should be splayed.
+     * @return the handle of the node corresponding to the specified key, NONE
+     * if none exists.
+     */
+    public int findNode(byte[] key,boolean splay){
+        if(root==NONE){return NONE;}
+        if(splay){
+            splay(key);
+            return (compare(key,root)==0)?root:NONE;
+        }
+        int current=root;
+        while(current!=NONE){
+            int comparison=compare(key,current);
+            if(comparison<0){
+                current=left(current);
+            }else if(comparison>0){
+                current=right(current);
+            }else{
+                return current;
+            }
+        }
+        return NONE;
+    }
+    /**
+     * @param key A key.
+     * @param missing The value to return if the key isn't in the tree.
+     * @return the value associated with the key, or missing.
+     */
+    public long findValue(byte[] key,long missing){
+        int node=findNode(key);
+        return (node==NONE)?missing:getValue(node);
+    }
+    /**
+     * @param key A key.
+     * @return whether the tree contains the key.
+     */
+    public boolean containsKey(byte[] key){
+        return findNode(key)!=NONE;
+    }
+    /**
+     * Removes a key and its value from the tree.
+     * @param key A key.
+     * @return true if the key existed and was removed, false otherwise.
+     */
+    public boolean remove(byte[] key){
+        int current=root,currentparent=NONE;
+        while(current!=NONE){
+            int comparison=compare(key,current);
+            if(comparison<0){
+                currentparent=current; current=left(current);
+            }else if(comparison>0){
+                currentparent=current; current=right(current);
+            }else{
+                unlink(current,currentparent);
+                writeHeader();
+                return true;
+            }
+        }
+        return false;
+    }
+    /** @return the handle of the leftmost node in the tree, NONE if empty. */
+    public int leftMostNode(){
+        if(root==NONE){return NONE;}
+        int node=root;
+        while(left(node)!=NONE){node=left(node);}
+        return node;
+    }
+    /** @return the handle of the rightmost node in the tree, NONE if empty. */
+    public int rightMostNode(){
+        if(root==NONE){return NONE;}
+        int node=root;
+        while(right(node)!=NONE){node=right(node);}
+        return node;
+    }
+    /**
+     * @param node A node handle.
+     * @return the handle of the node to the immediate right of the specified
+     * one, NONE if none exists.
+     */
+    public int successor(int node){
+        return higherNode(getKey(node));
+    }
+    /**
+     * @param node A node handle.
+     * @return the handle of the node to the immediate left of the specified
+     * one, NONE if none exists.
+     */
+    public int predecessor(int node){
+        return lowerNode(getKey(node));
+    }
+    /**
+     * @param key A key.
+     * @return the handle of the node with the least key greater than the
+     * specified one, NONE if none exists.
+     */
+    public int higherNode(byte[] key){
+        int current=root,found=NONE;
+        while(current!=NONE){
+            if(compare(key,current)<0){
+                found=current; current=left(current);
+            }else{
+                current=right(current);
+            }
+        }
+        return found;
+    }
+    /**
+     * @param key A key.
+     * @return the handle of the node with the greatest key less than the
+     * specified one, NONE if none exists.
+     */
+    public int lowerNode(byte[] key){
+        int current=root,found=NONE;
+        while(current!=NONE){
+            if(compare(key,current)>0){
+                found=current; current=right(current);
+            }else{
+                current=left(current);
+            }
+        }
+        return found;
+    }
+    /**
+     * Splays the tree so that the node with the specified key, or if there is
+     * none the last node on the key's search path, becomes the new root.
+     * @param key A key.
+     * @return the handle of the new root, NONE if the tree is empty.
+     */
+    public int splay(byte[] key){
+        if(root!=NONE){
+            int splayed=splay(root,key);
+            if(splayed!=root){root=splayed; writeHeader();}
+        }
+        return root;
+    }
+    /**
+     * Balances the tree. This takes time, so it isn't something to be done
+     * frequently, but it's the way out after keys were inserted in order and
+     * splaying left the tree a chain. The nodes are listed in order and then
+     * relinked. Like any other change, if the machine goes down partway
+     * through the file may be left inconsistent.
+     * @return the handle of the new root of the tree.
+     */
+    public int optimize(){
+        if(root==NONE){return NONE;}
+        final int[] order=new int[size]; final int[] index={0};
+        inOrder(node -> order[index[0]++]=node);
+        // Each pending range is stored as start, end, parent, side.
+        int[] stack=new int[4*64]; int stacksize=4;
+        stack[0]=0; stack[1]=order.length-1; stack[2]=NONE;
+        while(stacksize>0){
+            stacksize-=4;
+            int start=stack[stacksize],end=stack[stacksize+1];
+            int parent=stack[stacksize+2],side=stack[stacksize+3];
+            int middle=(int)Math.ceil((double)(end-start)/2d)+start;
+            int node=order[middle];
+            setLeft(node,NONE); setRight(node,NONE);
+            if(parent==NONE){
+                root=node;
+            }else if(side<0){
+                setLeft(parent,node);
+            }else{
+                setRight(parent,node);
+            }
+            if(middle<end){
+                stack[stacksize]=middle+1; stack[stacksize+1]=end;
+                stack[stacksize+2]=node; stack[stacksize+3]=1;
+                stacksize+=4;
+            }
+            if(middle>start){
+                stack[stacksize]=start; stack[stacksize+1]=middle-1;
+                stack[stacksize+2]=node; stack[stacksize+3]=-1;
+                stacksize+=4;
+            }
+        }
+        writeHeader();
+        return root;
+    }
+    /** @return an array of all values in the tree, ordered by key. */
+    public long[] toArray(){
+        final long[] array=new long[size]; final int[] index={0};
+        inOrder(node -> array[index[0]++]=getValue(node));
+        return array;
+    }
+    /** @return a String representation of the tree. */
+    @Override
+    public String toString(){
+        final StringBuilder str=new StringBuilder();
+        inOrder(node -> {
+            if(str.length()>0){str.append(", ");}
+            str.append(Arrays.toString(getKey(node))).append("=").append(getValue(node));
+        });
+        return str.toString();
+    }
+    /**
+     * Forces every change made so far to the disk.
+     * @throws IOException if the file can't be written.
+     */
+    public void flush() throws IOException{
+        for(int i=0;i<chunkcount;i++){chunks[i].force();}
+        header.force();
+    }
+    /**
+     * Forces every change to the disk and closes the file. The tree mustn't
+     * be used afterwards. The mapping itself is only released once the
+     * buffers are garbage collected.
+     * @throws IOException if the file can't be written.
+     */
+    public void close() throws IOException{
+        try{
+            flush();
+        }finally{
+            chunks=null; chunkcount=0;
+            channel.close();
+        }
+    }
+    /**
+     * Visits every node in order by key, in linear time however deep the
+     * tree is, where calling successor() for each node would search from the
+     * root every time. Unlike SBLongTree, this keeps its own stack of the
+     * nodes it has yet to visit rather than borrowing links in the file.
+     * @param action Called with the handle of each node.
+     */
+    private void inOrder(IntConsumer action){
+        int[] stack=new int[64]; int depth=0;
+        int current=root;
+        while(current!=NONE || depth>0){
+            while(current!=NONE){
+                if(depth==stack.length){stack=Arrays.copyOf(stack,depth*2);}
+                stack[depth++]=current; current=left(current);
+            }
+            current=stack[--depth];
+            action.accept(current);
+            current=right(current);
+        }
+    }
+    /**
+     * Top-down splay of the subtree rooted at the given node. Works in one
+     * pass the same way as SBLongTree.splay(), reading and writing the
+     * mapped nodes in place.
+     * @param node The subtree's root.
+     * @param key A key.
+     * @return the subtree's new root.
+     */
+    private int splay(int node,byte[] key){
+        int current=node,leftroot=NONE,leftmax=NONE,rightroot=NONE,rightmin=NONE;
+        while(true){
+            int comparison=compare(key,current);
+            if(comparison<0){
+                int child=left(current);
+                if(child==NONE){break;}
+                if(compare(key,child)<0){
+                    setLeft(current,right(child)); setRight(child,current);
+                    current=child;
+                    if(left(current)==NONE){break;}
+                }
+                if(rightmin==NONE){
+                    rightroot=current;
+                }else{
+                    setLeft(rightmin,current);
+                }
+                rightmin=current; current=left(current);
+            }else if(comparison>0){
+                int child=right(current);
+                if(child==NONE){break;}
+                if(compare(key,child)>0){
+                    setRight(current,left(child)); setLeft(child,current);
+                    current=child;
+                    if(right(current)==NONE){break;}
+                }
+                if(leftmax==NONE){
+                    leftroot=current;
+                }else{
+                    setRight(leftmax,current);
+                }
+                leftmax=current; current=right(current);
+            }else{
+                break;
+            }
+        }
+        if(leftmax!=NONE){
+            setRight(leftmax,left(current)); setLeft(current,leftroot);
+        }
+        if(rightmin!=NONE){
+            setLeft(rightmin,right(current)); setRight(current,rightroot);
+        }
+        return current;
+    }
+    /**
+     * Removes a node from the tree and puts it on the free list. A node with
+     * two children is replaced by the rightmost node of its left subtree.
+     * @param node The node to remove.
+     * @param nodeparent The node's parent, NONE if it's the root.
+     */
+    private void unlink(int node,int nodeparent){
+        int replacement;
+        if(left(node)==NONE){
+            replacement=right(node);
+        }else if(right(node)==NONE){
+            replacement=left(node);
+        }else{
+            int previousparent=node; replacement=left(node);
+            while(right(replacement)!=NONE){
+                previousparent=replacement; replacement=right(replacement);
+            }
+            if(previousparent!=node){
+                setRight(previousparent,left(replacement));
+                setLeft(replacement,left(node));
+            }
+            setRight(replacement,right(node));
+        }
+        if(nodeparent==NONE){
+            root=replacement;
+        }else if(left(nodeparent)==node){
+            setLeft(nodeparent,replacement);
+        }else{
+            setRight(nodeparent,replacement);
+        }
+        size--;
+        setLeft(node,freenode); freenode=node;
+    }
+    /**
+     * Takes a node from the free list, or from the end of the file if the
+     * free list is empty, and initializes it.
+     * @param key The node's key.
+     * @param value The node's value.
+     * @return the node's handle.
+     * @throws IOException if the file had to grow and couldn't.
+     */
+    private int allocate(byte[] key,long value) throws IOException{
+        int node;
+        if(freenode!=NONE){
+            node=freenode; freenode=left(node);
+        }else{
+            if(used==Integer.MAX_VALUE){throw new IOException("SBMappedTree is full");}
+            if((used>>>chunkshift)==chunkcount){addChunk();}
+            node=used++;
+        }
+        MappedByteBuffer chunk=chunk(node); int offset=offset(node);
+        chunk.putInt(offset+NODELEFT,NONE).putInt(offset+NODERIGHT,NONE).putLong(offset+NODEVALUE,value);
+        chunk.putShort(offset+NODEKEYLENGTH,(short)key.length);
+        for(int i=0;i<key.length;i++){chunk.put(offset+NODEKEY+i,key[i]);}
+        size++;
+        return node;
+    }
+    /**
+     * Compares a key with a node's key, as unsigned bytes.
+     * @param key A key.
+     * @param node A node handle.
+     * @return a negative number, zero or a positive number as the key is
+     * less than, equal to or greater than the node's.
+     */
+    private int compare(byte[] key,int node){
+        MappedByteBuffer chunk=chunk(node); int offset=offset(node);
+        int length=chunk.getShort(offset+NODEKEYLENGTH)&0xffff;
+        int common=Math.min(key.length,length);
+        offset+=NODEKEY;
+        for(int i=0;i<common;i++){
+            int difference=(key[i]&0xff)-(chunk.get(offset+i)&0xff);
+            if(difference!=0){return difference;}
+        }
+        return key.length-length;
+    }
+    /**
+     * @param key A key.
+     * @throws IllegalArgumentException if the key is too wide.
+     */
+    private void checkKey(byte[] key){
+        if(key.length>keywidth){
+            throw new IllegalArgumentException("Key of width "+key.length+" exceeds "+keywidth);
+        }
+    }
+    private MappedByteBuffer chunk(int node){
+        return chunks[node>>>chunkshift];
+    }
+    private int offset(int node){
+        return (node&chunkmask)*nodesize;
+    }
+    private int left(int node){
+        return chunks[node>>>chunkshift].getInt((node&chunkmask)*nodesize+NODELEFT);
+    }
+    private int right(int node){
+        return chunks[node>>>chunkshift].getInt((node&chunkmask)*nodesize+NODERIGHT);
+    }
+    private void setLeft(int node,int child){
+        chunks[node>>>chunkshift].putInt((node&chunkmask)*nodesize+NODELEFT,child);
+    }
+    private void setRight(int node,int child){
+        chunks[node>>>chunkshift].putInt((node&chunkmask)*nodesize+NODERIGHT,child);
+    }
+    /** @return the size of a chunk of nodes in the file. */
+    private long chunkBytes(){
+        return (long)nodesize<<chunkshift;
+    }
+    /**
+     * Maps the next chunk of nodes, growing the file if need be.
+     * @throws IOException if the file can't be mapped.
+     */
+    private void addChunk() throws IOException{
+        if(chunkcount==chunks.length){chunks=Arrays.copyOf(chunks,chunks.length*2);}
+        chunks[chunkcount]=map(HEADERSIZE+chunkcount*chunkBytes(),chunkBytes());
+        chunkcount++;
+    }
+    /**
+     * Maps a region of the file, growing it if it ends before the region does.
+     * @param position The start of the region.
+     * @param length The size of the region.
+     * @return the mapped region.
+     * @throws IOException if the file can't be mapped.
+     */
+    private MappedByteBuffer map(long position,long length) throws IOException{
+        return channel.map(FileChannel.MapMode.READ_WRITE,position,length);
+    }
+    /** Writes the tree's root, free list and counts to the header. */
+    private void writeHeader(){
+        header.putInt(HEADERROOT,root).putInt(HEADERFREENODE,freenode);
+        header.putInt(HEADERUSED,used).putInt(HEADERSIZEFIELD,size);
+    }
+}
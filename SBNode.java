@@ -7,8 +7,10 @@
 
 package SBTree;
 
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.NoSuchElementException;
 
 /**
  * The SBNode class represents the nodes of an SBTree object. The subtree of
@@ -17,14 +19,34 @@ import java.util.LinkedList;
 public class SBNode implements Cloneable, Comparable<SBNode> {
     /** Reference to the node's key. */
     public Comparable key=null;
-    /** A list of values assigned to the node. Each value belongs to its key. */
-    public LinkedList<Object> values=new LinkedList<>();
+    /** 
+     * The value assigned to the node when it has exactly one. Most keys only
+     * ever get one value, so it's kept here rather than in a list. 
+     */
+    Object value=null;
+    /** 
+     * The values assigned to the node, oldest first, when it has more than
+     * one. Only the first valuecount elements are in use. 
+     */
+    Object[] valuearray=null;
+    /** Number of values assigned to the node. */
+    int valuecount=0;
     /** Reference to the parent node. */
     public SBNode parent=null;
     /** Reference to the left child node. */
     public SBNode left=null;
     /** Reference to the right child node. */
     public SBNode right=null;
+    /** Number of nodes in the subtree of which this node is the root. */
+    public int subtreesize=1;
+    /** Number of values in the subtree of which this node is the root. */
+    public int subtreevaluessize=0;
+    /** 
+     * The version of the tree which last copied the node. A tree only writes
+     * to nodes of its own current version while snapshots of it are around;
+     * see SBTree.snapshot().
+     */
+    int version=0;
     /** 
      * Initializes a new SBNode. 
      * @param nodekey a key.
@@ -39,7 +61,8 @@ public class SBNode implements Cloneable, Comparable<SBNode> {
      * @param nodevalues a list of values.
      */
     public SBNode(Comparable nodekey,LinkedList<Object> nodevalues){
-        key=nodekey; values=nodevalues;
+        key=nodekey;
+        for(Object nodevalue:nodevalues){addValue(nodevalue);}
     }
     /** @return the leftmost node in the subtree. */
     public SBNode leftMostNode(){
@@ -88,15 +111,25 @@ public class SBNode implements Cloneable, Comparable<SBNode> {
      * or null if none exists.
      */
     public SBNode remove(){
+        SBNode oldparent=parent;
         if(left!=null){
             removeSub(left);
-            if(right!=null){right.moveToRight(left.rightMostNode());}
+            if(right!=null){
+                SBNode newparent=left.rightMostNode();
+                right.moveToRight(newparent);
+                newparent.updateCountsUp();
+            }else if(oldparent!=null){
+                oldparent.updateCountsUp();
+            }
             return left;
         }else if(right!=null){
             removeSub(right);
+            if(oldparent!=null){oldparent.updateCountsUp();}
             return right;
         }else{
-            orphan(); return null;
+            orphan();
+            if(oldparent!=null){oldparent.updateCountsUp();}
+            return null;
         }
     }
     /** 
@@ -105,8 +138,8 @@ public class SBNode implements Cloneable, Comparable<SBNode> {
      * @param child Must be either the node's left or right child.
      */
     private void removeSub(SBNode child){
+        child.parent=parent;
         if(parent!=null){
-            child.parent=parent;
             if(parent.left==this){
                 parent.left=child;
             }else if(parent.right==this){
@@ -134,11 +167,19 @@ public class SBNode implements Cloneable, Comparable<SBNode> {
      * the tree, or null if none exists. Otherwise, the node itself.
      */
     public SBNode removeValue(Object removevalue,boolean removeempty){
-        Iterator it=values.iterator();
-        while(it.hasNext()){
-            Object currentvalue=it.next();
-            if(removevalue==currentvalue){it.remove();}
+        int oldcount=valuecount;
+        if(valuecount==1){
+            if(value==removevalue){clearValues();}
+        }else if(valuecount>1){
+            int kept=0;
+            for(int i=0;i<valuecount;i++){
+                if(valuearray[i]!=removevalue){valuearray[kept++]=valuearray[i];}
+            }
+            Arrays.fill(valuearray,kept,valuecount,null);
+            valuecount=kept;
+            shrinkValues();
         }
+        addValueCounts(valuecount-oldcount);
         return checkEmptyValues(removeempty);
     }
     /** 
@@ -158,7 +199,7 @@ public class SBNode implements Cloneable, Comparable<SBNode> {
      * the tree, or null if none exists. Otherwise, the node itself.
      */
     public SBNode removeFirstValue(boolean removeempty){
-        values.removeFirst();
+        removeValueAt(0); addValueCounts(-1);
         return checkEmptyValues(removeempty);
     }
     /** 
@@ -178,7 +219,23 @@ public class SBNode implements Cloneable, Comparable<SBNode> {
      * the tree, or null if none exists. Otherwise, the node itself.
      */
     public SBNode removeLastValue(boolean removeempty){
-        values.removeLast();
+        removeValueAt(valuecount-1); addValueCounts(-1);
+        return checkEmptyValues(removeempty);
+    }
+    /** 
+     * Removes the value at an index.
+     * @param index An index, where 0 refers to the oldest value.
+     * @param removeempty Whether the node is itself removed if it contains no
+     * more values.
+     * @return if the node was removed, the node which has taken its position in
+     * the tree, or null if none exists. Otherwise, the node itself.
+     * @throws IndexOutOfBoundsException if there is no such value.
+     */
+    public SBNode removeValueAt(int index,boolean removeempty){
+        if(index<0 || index>=valuecount){
+            throw new IndexOutOfBoundsException("Index: "+index+", Size: "+valuecount);
+        }
+        removeValueAt(index); addValueCounts(-1);
         return checkEmptyValues(removeempty);
     }
     /** 
@@ -186,16 +243,23 @@ public class SBNode implements Cloneable, Comparable<SBNode> {
      * removed.
      */
     public void removeAllValues(){
-        values.clear();
+        addValueCounts(-valuecount);
+        clearValues();
     }
     /** 
      * Removes the all values associated with the node and all its children. 
      * The nodes themselves are not removed.
      */
     public void removeAllValuesRecursive(){
-        values.clear();
-        if(left!=null){left.removeAllValuesRecursive();}
-        if(right!=null){right.removeAllValuesRecursive();}
+        int removed=subtreevaluessize;
+        removeAllValuesRecursiveSub();
+        if(parent!=null){parent.addValueCounts(-removed);}
+    }
+    /** Clears the values of every node in the subtree. */
+    private void removeAllValuesRecursiveSub(){
+        for(SBNode node=this;node!=null;node=node.nextPreOrder(this)){
+            node.clearValues(); node.subtreevaluessize=0;
+        }
     }
     /** 
      * Convenience function related to value removal.
@@ -205,30 +269,105 @@ public class SBNode implements Cloneable, Comparable<SBNode> {
      * the tree, or null if none exists. Otherwise, the node itself.
      */
     private SBNode checkEmptyValues(boolean removeempty){
-        if(removeempty && values.isEmpty()){
+        if(removeempty && valuecount==0){
             return remove();
         }else{
             return this;
         }
     }
+    /** 
+     * Removes the value at an index, shifting newer values down to fill the
+     * gap. The node's value counts aren't updated.
+     * @param index An index, where 0 refers to the oldest value.
+     */
+    private void removeValueAt(int index){
+        if(index<0 || index>=valuecount){throw new NoSuchElementException();}
+        if(valuecount==1){
+            clearValues();
+        }else{
+            valuecount--;
+            System.arraycopy(valuearray,index+1,valuearray,index,valuecount-index);
+            valuearray[valuecount]=null;
+            shrinkValues();
+        }
+    }
+    /** 
+     * Moves the last remaining value out of the array and back into the value
+     * field, if the node is down to one value.
+     */
+    private void shrinkValues(){
+        if(valuecount==1){
+            value=valuearray[0]; valuearray=null;
+        }else if(valuecount==0){
+            valuearray=null;
+        }
+    }
+    /** Forgets all values assigned to the node without updating any counts. */
+    private void clearValues(){
+        value=null; valuearray=null; valuecount=0;
+    }
+    /** 
+     * @param index An index, where 0 refers to the oldest value.
+     * @return the value associated with the node at the specified index.
+     * @throws IndexOutOfBoundsException if there is no such value.
+     */
+    public Object getValue(int index){
+        if(index<0 || index>=valuecount){
+            throw new IndexOutOfBoundsException("Index: "+index+", Size: "+valuecount);
+        }
+        return (valuecount==1)?value:valuearray[index];
+    }
     /** @return the oldest value associated with the node, null if none exists. */
     public Object getFirstValue(){
-        return values.peekFirst();
+        if(valuecount==0){return null;}
+        return (valuecount==1)?value:valuearray[0];
     }
     /** @return the newest value associated with the node, null if none exists. */
     public Object getLastValue(){
-        return values.peekLast();
+        if(valuecount==0){return null;}
+        return (valuecount==1)?value:valuearray[valuecount-1];
     }
     /** @return a LinkedList containing all values corresponding to the key. */
     public LinkedList<Object> getAllValues(){
-        return (LinkedList<Object>)values.clone();
+        LinkedList<Object> list=new LinkedList<>();
+        for(int i=0;i<valuecount;i++){list.addLast(getValue(i));}
+        return list;
+    }
+    /** 
+     * Lets the node's values be iterated through, oldest first, like so:
+     * for(Object value:node.values()){}
+     * The values shouldn't be added to or removed during iteration.
+     * @return an Iterable over the values associated with the node.
+     */
+    public Iterable<Object> values(){
+        return new Iterable<Object>(){
+            @Override
+            public Iterator<Object> iterator(){
+                return new Iterator<Object>(){
+                    private int index=0;
+                    @Override
+                    public boolean hasNext(){
+                        return index<valuecount;
+                    }
+                    @Override
+                    public Object next(){
+                        if(index>=valuecount){throw new NoSuchElementException();}
+                        return getValue(index++);
+                    }
+                };
+            }
+        };
     }
     /** 
      * @param value A value.
      * @return true if the node contains the value, false otherwise. 
      */
     public boolean contains(Object value){
-        return values.contains(value);
+        for(int i=0;i<valuecount;i++){
+            Object nodevalue=getValue(i);
+            if(value==null?nodevalue==null:value.equals(nodevalue)){return true;}
+        }
+        return false;
     }
     /** 
      * @param value A value.
@@ -236,65 +375,147 @@ public class SBNode implements Cloneable, Comparable<SBNode> {
      * otherwise. 
      */
     public boolean treeContains(Object value){
-        if(contains(value)){
-            return true;
-        }else{
-            boolean leftcontains=(left==null)?false:left.treeContains(value);
-            if(leftcontains){return true;}
-            boolean rightcontains=(right==null)?false:right.treeContains(value);
-            return rightcontains;
+        for(SBNode node=this;node!=null;node=node.nextPreOrder(this)){
+            if(node.contains(value)){return true;}
         }
+        return false;
     }
     /** 
      * Adds a new value to the node.
      * @param nodevalue A value.
      */
     final public void addValue(Object nodevalue){
-        values.addLast(nodevalue);
+        appendValue(nodevalue);
+        addValueCounts(1);
+    }
+    /** 
+     * Adds all values of another node to this one, after its own values and
+     * in the same order. The other node is left as it was.
+     * @param other A node.
+     */
+    void addValues(SBNode other){
+        for(int i=0;i<other.valuecount;i++){appendValue(other.getValue(i));}
+        addValueCounts(other.valuecount);
+    }
+    /** 
+     * Convenience function adds a value to the node without touching any
+     * counts.
+     * @param nodevalue A value.
+     */
+    private void appendValue(Object nodevalue){
+        if(valuecount==0){
+            value=nodevalue;
+        }else if(valuecount==1){
+            valuearray=new Object[4];
+            valuearray[0]=value; valuearray[1]=nodevalue;
+            value=null;
+        }else{
+            if(valuecount==valuearray.length){
+                valuearray=Arrays.copyOf(valuearray,valuecount*2);
+            }
+            valuearray[valuecount]=nodevalue;
+        }
+        valuecount++;
+    }
+    /** 
+     * Adjusts the value count of this node's subtree and of every subtree
+     * which contains it.
+     * @param delta The number of values added, negative if values were removed.
+     */
+    private void addValueCounts(int delta){
+        if(delta!=0){
+            for(SBNode node=this;node!=null;node=node.parent){
+                node.subtreevaluessize+=delta;
+            }
+        }
+    }
+    /** 
+     * Recomputes the node and value counts of this node's subtree from those of
+     * its children.
+     */
+    void updateCounts(){
+        int nodes=1,nodevalues=valuecount;
+        if(left!=null){nodes+=left.subtreesize; nodevalues+=left.subtreevaluessize;}
+        if(right!=null){nodes+=right.subtreesize; nodevalues+=right.subtreevaluessize;}
+        subtreesize=nodes; subtreevaluessize=nodevalues;
+    }
+    /** 
+     * Recomputes the node and value counts of this node's subtree and of every
+     * subtree which contains it. 
+     */
+    void updateCountsUp(){
+        for(SBNode node=this;node!=null;node=node.parent){node.updateCounts();}
     }
     /** 
      * @return the number of nodes in the subtree of which this node is the 
      * root. 
      */
     public int size(){
-        int sum=1;
-        if(left!=null){sum+=left.size();}
-        if(right!=null){sum+=right.size();}
-        return sum;
+        return subtreesize;
     }
     /** @return the number of values associated with the node. */
     public int valuesSize(){
-        return values.size();
+        return valuecount;
     }
     /** 
      * @return number of values contained in the subtree of which this node is
      * the root. 
      */
     public int valuesSizeRecursive(){
-        int sum=valuesSize();
-        if(left!=null){sum+=left.size();}
-        if(right!=null){sum+=right.size();}
-        return sum;
+        return subtreevaluessize;
     }
     /** @return the height of the subtree of which this node is the root. */
     public int height(){
-        int heightleft=0,heightright=0;
-        if(left!=null){heightleft=left.height();}
-        if(right!=null){heightright=right.height();}
-        return Math.max(heightleft,heightright)+1;
+        int height=1,depth=1;
+        SBNode node=this;
+        while(true){
+            if(node.left!=null){
+                node=node.left; depth++;
+            }else if(node.right!=null){
+                node=node.right; depth++;
+            }else{
+                if(depth>height){height=depth;}
+                while(true){
+                    if(node==this){return height;}
+                    SBNode nodeparent=node.parent; depth--;
+                    if(nodeparent.left==node && nodeparent.right!=null){
+                        node=nodeparent.right; depth++;
+                        break;
+                    }
+                    node=nodeparent;
+                }
+            }
+        }
     }
     /** Clears all references in the subtree to other nodes. */
     public void clearLinks(){
-        if(left!=null){left.clearLinks();}
-        if(right!=null){right.clearLinks();}
-        orphan();
+        SBNode oldparent=parent;
+        clearLinksSub();
+        if(oldparent!=null){oldparent.updateCountsUp();}
+    }
+    /** Clears the links and resets the counts of the nodes in the subtree. */
+    private void clearLinksSub(){
+        SBNode node=firstPostOrderNode();
+        while(node!=null){
+            SBNode next=node.nextPostOrder(this);
+            node.orphan(); node.updateCounts();
+            node=next;
+        }
     }
     /** Clears all references in the subtree to values and other nodes. */
     public void clear(){
-        values.clear();
-        if(left!=null){left.clear();}
-        if(right!=null){right.clear();}
-        orphan();
+        SBNode oldparent=parent;
+        clearSub();
+        if(oldparent!=null){oldparent.updateCountsUp();}
+    }
+    /** Clears the values, links and counts of the nodes in the subtree. */
+    private void clearSub(){
+        SBNode node=firstPostOrderNode();
+        while(node!=null){
+            SBNode next=node.nextPostOrder(this);
+            node.clearValues(); node.orphan(); node.updateCounts();
+            node=next;
+        }
     }
     /** 
      * Inserts a new key, value pair into the subtree of which this node is the
@@ -313,6 +534,7 @@ public class SBNode implements Cloneable, Comparable<SBNode> {
                 }else{
                     node=new SBNode(key,value);
                     current.left=node; node.parent=current;
+                    current.addNodeCounts();
                     break;
                 }
             }else if(comparison>0){
@@ -321,6 +543,7 @@ public class SBNode implements Cloneable, Comparable<SBNode> {
                 }else{
                     node=new SBNode(key,value);
                     current.right=node; node.parent=current;
+                    current.addNodeCounts();
                     break;
                 }
             }else if(comparison==0){
@@ -331,6 +554,27 @@ public class SBNode implements Cloneable, Comparable<SBNode> {
         }
         return node;
     }
+    /** 
+     * Accounts for a single-valued node having been attached below this one by
+     * incrementing the counts of this node's subtree and of every subtree which
+     * contains it.
+     */
+    private void addNodeCounts(){
+        for(SBNode node=this;node!=null;node=node.parent){
+            node.subtreesize++; node.subtreevaluessize++;
+        }
+    }
+    /** 
+     * Accounts for nodes having been attached below this one by adjusting the
+     * counts of this node's subtree and of every subtree which contains it.
+     * @param nodes The number of nodes attached.
+     * @param nodevalues The number of values they hold.
+     */
+    void addCounts(int nodes,int nodevalues){
+        for(SBNode node=this;node!=null;node=node.parent){
+            node.subtreesize+=nodes; node.subtreevaluessize+=nodevalues;
+        }
+    }
     /** 
      * Searches in the subtree of which this node is the root for a node with
      * a matching key.
@@ -347,6 +591,8 @@ public class SBNode implements Cloneable, Comparable<SBNode> {
                 current=current.right;
             }else if(comparison==0){
                 return current;
+            }else{
+                return null;
             }
         }
         return null;
@@ -361,9 +607,9 @@ public class SBNode implements Cloneable, Comparable<SBNode> {
         SBNode current=this;
         while(current!=null){
             int comparison=key.compareTo(current.key);
-            if(comparison==-1 && current.left!=null){
+            if(comparison<0 && current.left!=null){
                 current=current.left;
-            }else if(comparison==1 && current.right!=null){
+            }else if(comparison>0 && current.right!=null){
                 current=current.right;
             }else{
                 return current;
@@ -371,6 +617,193 @@ public class SBNode implements Cloneable, Comparable<SBNode> {
         }
         return null; // this shouldn't happen
     }
+    /** 
+     * Searches in the subtree of which this node is the root for the node with
+     * the greatest key less than the specified key.
+     * @param key A key.
+     * @return the matching node, null if none exists.
+     */
+    public SBNode lowerNode(Comparable key){
+        SBNode current=this,found=null;
+        while(current!=null){
+            if(key.compareTo(current.key)>0){
+                found=current; current=current.right;
+            }else{
+                current=current.left;
+            }
+        }
+        return found;
+    }
+    /** 
+     * Searches in the subtree of which this node is the root for the node with
+     * the greatest key less than or equal to the specified key.
+     * @param key A key.
+     * @return the matching node, null if none exists.
+     */
+    public SBNode floorNode(Comparable key){
+        SBNode current=this,found=null;
+        while(current!=null){
+            int comparison=key.compareTo(current.key);
+            if(comparison>0){
+                found=current; current=current.right;
+            }else if(comparison<0){
+                current=current.left;
+            }else{
+                return current;
+            }
+        }
+        return found;
+    }
+    /** 
+     * Searches in the subtree of which this node is the root for the node with
+     * the least key greater than or equal to the specified key.
+     * @param key A key.
+     * @return the matching node, null if none exists.
+     */
+    public SBNode ceilingNode(Comparable key){
+        SBNode current=this,found=null;
+        while(current!=null){
+            int comparison=key.compareTo(current.key);
+            if(comparison<0){
+                found=current; current=current.left;
+            }else if(comparison>0){
+                current=current.right;
+            }else{
+                return current;
+            }
+        }
+        return found;
+    }
+    /** 
+     * Searches in the subtree of which this node is the root for the node with
+     * the least key greater than the specified key.
+     * @param key A key.
+     * @return the matching node, null if none exists.
+     */
+    public SBNode higherNode(Comparable key){
+        SBNode current=this,found=null;
+        while(current!=null){
+            if(key.compareTo(current.key)<0){
+                found=current; current=current.left;
+            }else{
+                current=current.right;
+            }
+        }
+        return found;
+    }
+    /** 
+     * Counts the keys in the subtree of which this node is the root which are
+     * less than the specified key.
+     * @param key A key.
+     * @return the number of keys less than the specified key, which is also the
+     * in-order index of the key if the subtree contains it.
+     */
+    public int rank(Comparable key){
+        int rank=0; SBNode current=this;
+        while(current!=null){
+            int comparison=key.compareTo(current.key);
+            if(comparison<0){
+                current=current.left;
+            }else{
+                if(current.left!=null){rank+=current.left.subtreesize;}
+                if(comparison==0){break;}
+                rank++; current=current.right;
+            }
+        }
+        return rank;
+    }
+    /** 
+     * @return the in-order index of this node within the whole tree it belongs
+     * to, where 0 refers to the leftmost node. 
+     */
+    public int index(){
+        int index=(left==null)?0:left.subtreesize;
+        for(SBNode node=this;node.parent!=null;node=node.parent){
+            if(node.parent.right==node){
+                index++;
+                if(node.parent.left!=null){index+=node.parent.left.subtreesize;}
+            }
+        }
+        return index;
+    }
+    /** 
+     * @return the number of values held by nodes to the left of this one in
+     * the whole tree it belongs to, which is also the index of this node's
+     * oldest value in the tree's toArray(). 
+     */
+    public int valueIndex(){
+        int index=(left==null)?0:left.subtreevaluessize;
+        for(SBNode node=this;node.parent!=null;node=node.parent){
+            if(node.parent.right==node){
+                index+=node.parent.valuecount;
+                if(node.parent.left!=null){index+=node.parent.left.subtreevaluessize;}
+            }
+        }
+        return index;
+    }
+    /** 
+     * Searches in the subtree of which this node is the root for the node with
+     * the specified in-order index.
+     * @param index An index, where 0 refers to the leftmost node.
+     * @return the node at the specified index, null if none exists.
+     */
+    public SBNode select(int index){
+        if(index<0 || index>=subtreesize){return null;}
+        SBNode current=this;
+        while(true){
+            int leftsize=(current.left==null)?0:current.left.subtreesize;
+            if(index<leftsize){
+                current=current.left;
+            }else if(index==leftsize){
+                return current;
+            }else{
+                index-=leftsize+1; current=current.right;
+            }
+        }
+    }
+    /** 
+     * Searches in the subtree of which this node is the root for the node
+     * holding the value with the specified index, where values are ordered as
+     * they are by valuesInOrder().
+     * @param index An index, where 0 refers to the leftmost node's oldest value.
+     * @return the node holding the value at the specified index, null if none
+     * exists.
+     */
+    public SBNode selectValueNode(int index){
+        if(index<0 || index>=subtreevaluessize){return null;}
+        SBNode current=this;
+        while(true){
+            int leftsize=(current.left==null)?0:current.left.subtreevaluessize;
+            if(index<leftsize){
+                current=current.left;
+            }else if(index<leftsize+current.valuecount){
+                return current;
+            }else{
+                index-=leftsize+current.valuecount; current=current.right;
+            }
+        }
+    }
+    /** 
+     * Searches in the subtree of which this node is the root for the value with
+     * the specified index, where values are ordered as they are by
+     * valuesInOrder().
+     * @param index An index, where 0 refers to the leftmost node's oldest value.
+     * @return the value at the specified index, null if none exists.
+     */
+    public Object valueAt(int index){
+        if(index<0 || index>=subtreevaluessize){return null;}
+        SBNode current=this;
+        while(true){
+            int leftsize=(current.left==null)?0:current.left.subtreevaluessize;
+            if(index<leftsize){
+                current=current.left;
+            }else if(index<leftsize+current.valuecount){
+                return current.getValue(index-leftsize);
+            }else{
+                index-=leftsize+current.valuecount; current=current.right;
+            }
+        }
+    }
     /** 
      * Balances the subtree of which this node is the root.
      * @return the new root of the subtree. 
@@ -388,38 +821,111 @@ public class SBNode implements Cloneable, Comparable<SBNode> {
             }else if(parentside==1){
                 rootparent.right=newroot;
             }
+            if(rootparent!=null){rootparent.updateCountsUp();}
         }
         return newroot;
     }
-    /** 
-     * Recursive function used for balancing a subtree. Don't expect me to
-     * articulate how this works, it's complicated.
+    /**
+     * Balances the subtree of which this node is the root, the same as
+     * optimize() but without allocating anything, using the Day-Stout-Warren
+     * algorithm. First every left child is rotated up until the subtree is a
+     * vine, a chain of nodes each the right child of its predecessor; then
+     * the vine is folded into a tree by left rotations of every other node
+     * down its length, once to fill out the bottom level and then over and
+     * over, halving the vine each time, until no vine is left. It takes
+     * linear time and a constant amount of memory, and every rotation keeps
+     * the parent links and counts up to date.
+     * @return the new root of the subtree.
+     */
+    public SBNode optimizeInPlace(){
+        SBNode head=this;
+        for(SBNode node=this;node!=null;){
+            if(node.left!=null){
+                SBNode left=node.left;
+                left.rotateUp();
+                if(node==head){head=left;}
+                node=left;
+            }else{
+                node=node.right;
+            }
+        }
+        int size=head.subtreesize;
+        // Nodes of a perfectly balanced tree no larger than the subtree
+        int full=Integer.highestOneBit(size+1)-1;
+        head=compress(head,size-full);
+        while(full>1){
+            full/=2;
+            head=compress(head,full);
+        }
+        return head;
+    }
+    /**
+     * Function used for balancing a subtree in place. Rotates every other node
+     * along a vine above its predecessor.
+     * @param head The first node of the vine.
+     * @param count The number of rotations.
+     * @return the new first node of the vine.
+     */
+    static SBNode compress(SBNode head,int count){
+        SBNode node=head;
+        for(int i=0;i<count;i++){
+            SBNode right=node.right;
+            right.rotateUp();
+            if(i==0){head=right;}
+            node=right.right;
+        }
+        return head;
+    }
+    /**
+     * Function used for balancing a subtree. The middle node of each range of
+     * the array becomes the parent of the middle nodes of the ranges to either
+     * side of it. Pending ranges are kept on a small explicit stack, which
+     * never holds more entries than the resulting tree has levels.
      * @param start Start index of this subtree.
      * @param end End index of this subtree.
      * @param array An in-order array of the nodes in the greater subtree.
      * @return the node which is the root of the subtree defined by the array
      * bounds [start,end].
      */
-    private static SBNode optimizeSub(int start,int end,SBNode[] array){
-        if(end>=start){
-            int middle=(int)Math.ceil((double)(end-start)/2d)+start;
-            int lf=middle-1,rs=middle+1;
-            if(lf>=start){
-                array[middle].left=optimizeSub(start,lf,array);
-            }
-            if(array[middle].left!=null){
-                array[middle].left.parent=array[middle];
+    static SBNode optimizeSub(int start,int end,SBNode[] array){
+        if(end<start){return null;}
+        // Each pending range is stored as start, end, parent index, side.
+        int[] stack=new int[4*64]; int stacksize=0;
+        stack[0]=start; stack[1]=end; stack[2]=-1; stacksize=4;
+        while(stacksize>0){
+            stacksize-=4;
+            int rangestart=stack[stacksize],rangeend=stack[stacksize+1];
+            int parentindex=stack[stacksize+2],side=stack[stacksize+3];
+            int middle=(int)Math.ceil((double)(rangeend-rangestart)/2d)+rangestart;
+            SBNode node=array[middle];
+            node.left=null; node.right=null;
+            if(parentindex>=0){
+                node.parent=array[parentindex];
+                if(side<0){
+                    node.parent.left=node;
+                }else{
+                    node.parent.right=node;
+                }
+            }else{
+                node.parent=null;
             }
-            if(rs<=end){
-                array[middle].right=optimizeSub(rs,end,array);
+            if(middle<rangeend){
+                stack[stacksize]=middle+1; stack[stacksize+1]=rangeend;
+                stack[stacksize+2]=middle; stack[stacksize+3]=1;
+                stacksize+=4;
             }
-            if(array[middle].right!=null){
-                array[middle].right.parent=array[middle];
+            if(middle>rangestart){
+                stack[stacksize]=rangestart; stack[stacksize+1]=middle-1;
+                stack[stacksize+2]=middle; stack[stacksize+3]=-1;
+                stacksize+=4;
             }
-            return array[middle];
         }
-        return null;
-    }  
+        SBNode root=array[(int)Math.ceil((double)(end-start)/2d)+start];
+        for(SBNode node=root.firstPostOrderNode();node!=null;node=node.nextPostOrder(root)){
+            node.updateCounts();
+        }
+        return root;
+    }
     /** 
      * Returns an array of all values in the subtree of which this node is the
      * root. The nodes are ordered the same as they would be encountered in an
@@ -427,21 +933,12 @@ public class SBNode implements Cloneable, Comparable<SBNode> {
      * @return an array of all values in the subtree.
      */
     public Object[] valuesInOrder(){
-        int[] index={0}; // Has to be an array since Java won't pass ints by reference
-        Object[] array=new Object[valuesSizeRecursive()];
-        valuesInOrderSub(index,array);
+        Object[] array=new Object[subtreevaluessize]; int index=0;
+        for(SBNode node=leftMostNode();node!=null;node=node.nextInOrder(this)){
+            for(int i=0;i<node.valuecount;i++){array[index++]=node.getValue(i);}
+        }
         return array;
     }
-    /** 
-     * Recursive method fills the array with values.
-     * @param index Current index in array.
-     * @param array The array being filled.
-     */
-    private void valuesInOrderSub(int[] index,Object[] array){
-        if(left!=null){left.valuesInOrderSub(index,array);}
-        for(Object value:values){array[index[0]]=value; index[0]++;}
-        if(right!=null){right.valuesInOrderSub(index,array);}
-    }
     /** 
      * Returns an array of all values in the subtree of which this node is the
      * root. The nodes are ordered the same as they would be encountered in an
@@ -449,21 +946,12 @@ public class SBNode implements Cloneable, Comparable<SBNode> {
      * @return an array of all values in the subtree.
      */
     public Object[] valuesReverseOrder(){
-        int[] index={0}; // Has to be an array since Java won't pass ints by reference
-        Object[] array=new Object[valuesSizeRecursive()];
-        valuesReverseOrderSub(index,array);
+        Object[] array=new Object[subtreevaluessize]; int index=0;
+        for(SBNode node=rightMostNode();node!=null;node=node.nextReverseOrder(this)){
+            for(int i=0;i<node.valuecount;i++){array[index++]=node.getValue(i);}
+        }
         return array;
     }
-    /** 
-     * Recursive method fills the array with values.
-     * @param index Current index in array.
-     * @param array The array being filled.
-     */
-    private void valuesReverseOrderSub(int[] index,Object[] array){
-        if(right!=null){right.valuesReverseOrderSub(index,array);}
-        for(Object value:values){array[index[0]]=value; index[0]++;}
-        if(left!=null){left.valuesReverseOrderSub(index,array);}
-    }
     /** 
      * Returns an array of all values in the subtree of which this node is the
      * root. The nodes are ordered the same as they would be encountered in an
@@ -471,21 +959,12 @@ public class SBNode implements Cloneable, Comparable<SBNode> {
      * @return an array of all values in the subtree.
      */
     public Object[] valuesPreOrder(){
-        int[] index={0}; // Has to be an array since Java won't pass ints by reference
-        Object[] array=new Object[valuesSizeRecursive()];
-        valuesPreOrderSub(index,array);
+        Object[] array=new Object[subtreevaluessize]; int index=0;
+        for(SBNode node=this;node!=null;node=node.nextPreOrder(this)){
+            for(int i=0;i<node.valuecount;i++){array[index++]=node.getValue(i);}
+        }
         return array;
     }
-    /** 
-     * Recursive method fills the array with values.
-     * @param index Current index in array.
-     * @param array The array being filled.
-     */
-    private void valuesPreOrderSub(int[] index,Object[] array){
-        for(Object value:values){array[index[0]]=value; index[0]++;}
-        if(left!=null){left.valuesPreOrderSub(index,array);}
-        if(right!=null){right.valuesPreOrderSub(index,array);}
-    }
     /** 
      * Returns an array of all values in the subtree of which this node is the
      * root. The nodes are ordered the same as they would be encountered in an
@@ -493,21 +972,12 @@ public class SBNode implements Cloneable, Comparable<SBNode> {
      * @return an array of all values in the subtree.
      */
     public Object[] valuesPostOrder(){
-        int[] index={0}; // Has to be an array since Java won't pass ints by reference
-        Object[] array=new Object[valuesSizeRecursive()];
-        valuesPostOrderSub(index,array);
+        Object[] array=new Object[subtreevaluessize]; int index=0;
+        for(SBNode node=firstPostOrderNode();node!=null;node=node.nextPostOrder(this)){
+            for(int i=0;i<node.valuecount;i++){array[index++]=node.getValue(i);}
+        }
         return array;
     }
-    /** 
-     * Recursive method fills the array with values.
-     * @param index Current index in array.
-     * @param array The array being filled.
-     */
-    private void valuesPostOrderSub(int[] index,Object[] array){
-        if(left!=null){left.valuesPostOrderSub(index,array);}
-        if(right!=null){right.valuesPostOrderSub(index,array);}
-        for(Object value:values){array[index[0]]=value; index[0]++;}
-    }
     /** 
      * Returns an array of all nodes in the subtree of which this node is the
      * root. The nodes are ordered the same as they would be encountered in an
@@ -515,21 +985,12 @@ public class SBNode implements Cloneable, Comparable<SBNode> {
      * @return an array of all values in the subtree.
      */
     public SBNode[] nodesInOrder(){
-        int[] index={0}; // Has to be an array since Java won't pass ints by reference
-        SBNode[] array=new SBNode[size()];
-        nodesInOrderSub(index,array);
+        SBNode[] array=new SBNode[subtreesize]; int index=0;
+        for(SBNode node=leftMostNode();node!=null;node=node.nextInOrder(this)){
+            array[index++]=node;
+        }
         return array;
     }
-    /** 
-     * Recursive method fills the array with nodes.
-     * @param index Current index in array.
-     * @param array The array being filled.
-     */
-    private void nodesInOrderSub(int[] index,SBNode[] array){
-        if(left!=null){left.nodesInOrderSub(index,array);}
-        array[index[0]]=this; index[0]++;
-        if(right!=null){right.nodesInOrderSub(index,array);}
-    }
     /** 
      * Returns an array of all nodes in the subtree of which this node is the
      * root. The nodes are ordered the same as they would be encountered in an
@@ -537,21 +998,12 @@ public class SBNode implements Cloneable, Comparable<SBNode> {
      * @return an array of all values in the subtree.
      */
     public SBNode[] nodesReverseOrder(){
-        int[] index={0}; // Has to be an array since Java won't pass ints by reference
-        SBNode[] array=new SBNode[size()];
-        nodesReverseOrderSub(index,array);
+        SBNode[] array=new SBNode[subtreesize]; int index=0;
+        for(SBNode node=rightMostNode();node!=null;node=node.nextReverseOrder(this)){
+            array[index++]=node;
+        }
         return array;
     }
-    /** 
-     * Recursive method fills the array with nodes.
-     * @param index Current index in array.
-     * @param array The array being filled.
-     */
-    private void nodesReverseOrderSub(int[] index,SBNode[] array){
-        if(right!=null){right.nodesReverseOrderSub(index,array);}
-        array[index[0]]=this; index[0]++;
-        if(left!=null){left.nodesReverseOrderSub(index,array);}
-    }
     /** 
      * Returns an array of all nodes in the subtree of which this node is the
      * root. The nodes are ordered the same as they would be encountered in an
@@ -559,21 +1011,12 @@ public class SBNode implements Cloneable, Comparable<SBNode> {
      * @return an array of all values in the subtree.
      */
     public SBNode[] nodesPreOrder(){
-        int[] index={0}; // Has to be an array since Java won't pass ints by reference
-        SBNode[] array=new SBNode[size()];
-        nodesPreOrderSub(index,array);
+        SBNode[] array=new SBNode[subtreesize]; int index=0;
+        for(SBNode node=this;node!=null;node=node.nextPreOrder(this)){
+            array[index++]=node;
+        }
         return array;
     }
-    /** 
-     * Recursive method fills the array with nodes.
-     * @param index Current index in array.
-     * @param array The array being filled.
-     */
-    private void nodesPreOrderSub(int[] index,SBNode[] array){
-        array[index[0]]=this; index[0]++;
-        if(left!=null){left.nodesPreOrderSub(index,array);}
-        if(right!=null){right.nodesPreOrderSub(index,array);}
-    }
     /** 
      * Returns an array of all nodes in the subtree of which this node is the
      * root. The nodes are ordered the same as they would be encountered in an
@@ -581,20 +1024,87 @@ public class SBNode implements Cloneable, Comparable<SBNode> {
      * @return an array of all values in the subtree.
      */
     public SBNode[] nodesPostOrder(){
-        int[] index={0}; // Has to be an array since Java won't pass ints by reference
-        SBNode[] array=new SBNode[size()];
-        nodesPostOrderSub(index,array);
+        SBNode[] array=new SBNode[subtreesize]; int index=0;
+        for(SBNode node=firstPostOrderNode();node!=null;node=node.nextPostOrder(this)){
+            array[index++]=node;
+        }
         return array;
     }
     /** 
-     * Recursive method fills the array with nodes.
-     * @param index Current index in array.
-     * @param array The array being filled.
+     * Traversal methods like this one follow parent links rather than keeping
+     * a stack, so they work at any depth using constant memory. They never
+     * leave the subtree whose root is passed to them.
+     * @param root The root of the subtree being traversed.
+     * @return the node following this one in an in-order traversal of the
+     * subtree, null if none exists.
+     */
+    public SBNode nextInOrder(SBNode root){
+        if(right!=null){return right.leftMostNode();}
+        SBNode current=this;
+        while(current!=root){
+            SBNode currentparent=current.parent;
+            if(currentparent.left==current){return currentparent;}
+            current=currentparent;
+        }
+        return null;
+    }
+    /** 
+     * @param root The root of the subtree being traversed.
+     * @return the node following this one in a reverse-order traversal of the
+     * subtree, null if none exists.
+     */
+    public SBNode nextReverseOrder(SBNode root){
+        if(left!=null){return left.rightMostNode();}
+        SBNode current=this;
+        while(current!=root){
+            SBNode currentparent=current.parent;
+            if(currentparent.right==current){return currentparent;}
+            current=currentparent;
+        }
+        return null;
+    }
+    /** 
+     * @param root The root of the subtree being traversed.
+     * @return the node following this one in a pre-order traversal of the
+     * subtree, null if none exists.
      */
-    private void nodesPostOrderSub(int[] index,SBNode[] array){
-        if(left!=null){left.nodesPostOrderSub(index,array);}
-        if(right!=null){right.nodesPostOrderSub(index,array);}
-        array[index[0]]=this; index[0]++;
+    public SBNode nextPreOrder(SBNode root){
+        if(left!=null){return left;}
+        if(right!=null){return right;}
+        SBNode current=this;
+        while(current!=root){
+            SBNode currentparent=current.parent;
+            if(currentparent.left==current && currentparent.right!=null){
+                return currentparent.right;
+            }
+            current=currentparent;
+        }
+        return null;
+    }
+    /** @return the first node in a post-order traversal of the subtree. */
+    public SBNode firstPostOrderNode(){
+        SBNode node=this;
+        while(true){
+            if(node.left!=null){
+                node=node.left;
+            }else if(node.right!=null){
+                node=node.right;
+            }else{
+                return node;
+            }
+        }
+    }
+    /** 
+     * @param root The root of the subtree being traversed.
+     * @return the node following this one in a post-order traversal of the
+     * subtree, null if none exists.
+     */
+    public SBNode nextPostOrder(SBNode root){
+        if(this==root){return null;}
+        if(parent.left==this && parent.right!=null){
+            return parent.right.firstPostOrderNode();
+        }
+        return parent;
     }
     /** @return the node to the immediate right of this one, null if none exists. */
     public SBNode successor(){
@@ -629,85 +1139,201 @@ public class SBNode implements Cloneable, Comparable<SBNode> {
      * @return the new root of the subtree.
      */
     public SBNode splay(SBNode node){
-        SBNode[] root={this}; // Array'd so it can be passed by reference
-        SBNode rootparent=parent; int parentside=0;
-        if(parent!=null){parentside=(parent.left==this)?-1:1;}
-        splay(node,root);
-        root[0].parent=rootparent;
-        if(parentside==-1){
-            rootparent.left=root[0];
-        }else if(parentside==1){
-            rootparent.right=root[0];
+        return (node==null)?this:splayKey(node.key);
+    }
+    /** 
+     * Splays this node bottom-up, by way of its parent links, until it is the
+     * root of the whole tree it belongs to. Unlike splay() this doesn't
+     * compare any keys.
+     * @return this node, which is the new root of the tree.
+     */
+    public SBNode splayUp(){
+        while(parent!=null){
+            SBNode grandparent=parent.parent;
+            if(grandparent==null){
+                rotateUp();
+            }else if((grandparent.left==parent)==(parent.left==this)){
+                parent.rotateUp(); rotateUp();
+            }else{
+                rotateUp(); rotateUp();
+            }
         }
-        return root[0];
+        return this;
     }
     /** 
-     * Recursive method which does the actual splaying.
-     * @param node The node which is to become the new root.
-     * @param root Reference to the current root, which changes as the subtree
-     * is operated upon.
-     */
-    private void splay(SBNode node,SBNode[] root){
-        if(node==null || node==this || node.parent==null){return;}
-        if(node.parent==this){
-            if(left==node){
-                rotRight(root);
+     * Semi-splays this node bottom-up. Where a splay would make the node the
+     * root of the tree, a semi-splay roughly halves the depth of it and of the
+     * nodes on its path, using half as many rotations: when the node and its
+     * parent are children on the same side, only the parent is rotated and
+     * the semi-splay carries on from the parent.
+     * @return the root of the whole tree the node belongs to.
+     */
+    public SBNode semiSplayUp(){
+        SBNode current=this;
+        while(current.parent!=null && current.parent.parent!=null){
+            SBNode currentparent=current.parent,grandparent=currentparent.parent;
+            if((grandparent.left==currentparent)==(currentparent.left==current)){
+                currentparent.rotateUp(); current=currentparent;
             }else{
-                rotLeft(root);
+                current.rotateUp(); current.rotateUp();
             }
+        }
+        return (current.parent==null)?current:current.parent;
+    }
+    /** 
+     * Rotates this node above its parent, which must exist, keeping the
+     * counts of both nodes up to date.
+     */
+    void rotateUp(){
+        SBNode oldparent=parent,grandparent=oldparent.parent;
+        if(oldparent.left==this){
+            oldparent.left=right;
+            if(right!=null){right.parent=oldparent;}
+            right=oldparent;
         }else{
-            SBNode p1=node.parent, p2=p1.parent;
-            if(p1.left==node && p2.left==p1){
-                p2.rotRight(root); p1.rotRight(root);
-            }else if(p1.left==node && p2.right==p1){
-                p1.rotRight(root); p2.rotLeft(root);
-            }else if(p1.right==node && p2.left==p1){
-                p1.rotLeft(root); p2.rotRight(root);
-            }else if(p1.right==node && p2.right==p1){
-                p2.rotLeft(root); p1.rotLeft(root);
+            oldparent.right=left;
+            if(left!=null){left.parent=oldparent;}
+            left=oldparent;
+        }
+        oldparent.parent=this;
+        parent=grandparent;
+        if(grandparent!=null){
+            if(grandparent.left==oldparent){
+                grandparent.left=this;
+            }else{
+                grandparent.right=this;
             }
-            splay(node,root);
         }
+        oldparent.updateCounts(); updateCounts();
+    }
+    /** @return the number of links between this node and the tree's root. */
+    public int depth(){
+        int depth=0;
+        for(SBNode node=parent;node!=null;node=node.parent){depth++;}
+        return depth;
     }
     /** 
-     * Rotates the tree left around this node.
-     * @param root Reference to the current root, which changes as the subtree
-     * is operated upon by the splay() method.
+     * Splays the subtree of which this node is the root so that the node with
+     * the specified key becomes the new root. If there is no such node, then
+     * the last node on the key's search path (the closest key on one side or
+     * the other) becomes the new root instead. The splay is done top-down in a
+     * single pass over the search path, without recursion and without
+     * allocating anything; afterwards the counts along the two spines which
+     * were assembled during the pass are brought up to date.
+     * @param key A key.
+     * @return the new root of the subtree.
      */
-    private void rotLeft(SBNode[] root){
-        SBNode node=right;
-        right=node.left;
-        if(node.left!=null){node.left.parent=this;}
-        node.left=this;
-        if(parent!=null){
-            if(this==parent.left){
-                parent.left=node;
+    public SBNode splayKey(Comparable key){
+        SBNode rootparent=parent; int parentside=0;
+        if(parent!=null){parentside=(parent.left==this)?-1:1;}
+        // Nodes less than the key are gathered along the right spine of the
+        // left tree, nodes greater along the left spine of the right tree.
+        SBNode current=this,leftroot=null,leftmax=null,rightroot=null,rightmin=null;
+        while(true){
+            int comparison=key.compareTo(current.key);
+            if(comparison<0){
+                SBNode child=current.left;
+                if(child==null){break;}
+                if(key.compareTo(child.key)<0){
+                    current.left=child.right;
+                    if(child.right!=null){child.right.parent=current;}
+                    child.right=current; current.parent=child;
+                    current.updateCounts();
+                    current=child;
+                    if(current.left==null){break;}
+                }
+                if(rightmin==null){
+                    rightroot=current;
+                }else{
+                    rightmin.left=current; current.parent=rightmin;
+                }
+                rightmin=current; current=current.left;
+            }else if(comparison>0){
+                SBNode child=current.right;
+                if(child==null){break;}
+                if(key.compareTo(child.key)>0){
+                    current.right=child.left;
+                    if(child.left!=null){child.left.parent=current;}
+                    child.left=current; current.parent=child;
+                    current.updateCounts();
+                    current=child;
+                    if(current.right==null){break;}
+                }
+                if(leftmax==null){
+                    leftroot=current;
+                }else{
+                    leftmax.right=current; current.parent=leftmax;
+                }
+                leftmax=current; current=current.right;
             }else{
-                parent.right=node;
+                break;
+            }
+        }
+        if(leftmax!=null){
+            leftmax.right=current.left;
+            if(current.left!=null){current.left.parent=leftmax;}
+            for(SBNode node=leftmax;;node=node.parent){
+                node.updateCounts();
+                if(node==leftroot){break;}
+            }
+            current.left=leftroot; leftroot.parent=current;
+        }
+        if(rightmin!=null){
+            rightmin.left=current.right;
+            if(current.right!=null){current.right.parent=rightmin;}
+            for(SBNode node=rightmin;;node=node.parent){
+                node.updateCounts();
+                if(node==rightroot){break;}
             }
+            current.right=rightroot; rightroot.parent=current;
+        }
+        current.updateCounts();
+        current.parent=rootparent;
+        if(parentside==-1){
+            rootparent.left=current;
+        }else if(parentside==1){
+            rootparent.right=current;
         }
-        node.parent=parent; parent=node;
-        if(root[0]==this){root[0]=node;}
+        return current;
     }
     /** 
-     * Rotates the tree right around this node.
-     * @param root Reference to the current root, which changes as the subtree
-     * is operated upon by the splay() method.
+     * Inserts a new key, value pair into the subtree of which this node is the
+     * root and splays the subtree so that the node containing the pair becomes
+     * its new root.
+     * @param key A key.
+     * @param value A value.
+     * @return the new root of the subtree, which is the node containing the
+     * new key, value pair.
      */
-    private void rotRight(SBNode[] root){
-        SBNode node=left;
-        left=node.right;
-        if(node.right!=null){node.right.parent=this;}
-        node.right=this;
-        if(parent!=null){
-            if(this==parent.left){
-                parent.left=node;
+    public SBNode insertSplay(Comparable key,Object value){
+        SBNode current=splayKey(key);
+        int comparison=key.compareTo(current.key);
+        if(comparison==0){
+            current.addValue(value);
+            return current;
+        }
+        SBNode rootparent=current.parent,node=new SBNode(key,value);
+        if(rootparent!=null){
+            if(rootparent.left==current){
+                rootparent.left=node;
             }else{
-                parent.right=node;
+                rootparent.right=node;
             }
         }
-        node.parent=parent; parent=node;
-        if(root[0]==this){root[0]=node;}
+        node.parent=rootparent;
+        if(comparison<0){
+            node.left=current.left; current.left=null;
+            node.right=current;
+            if(node.left!=null){node.left.parent=node;}
+        }else{
+            node.right=current.right; current.right=null;
+            node.left=current;
+            if(node.right!=null){node.right.parent=node;}
+        }
+        current.parent=node;
+        current.updateCounts(); node.updateCounts();
+        if(rootparent!=null){rootparent.addNodeCounts();}
+        return node;
     }
     /** 
      * @return a clone of the subtree of which this node is the root. 
@@ -715,73 +1341,116 @@ public class SBNode implements Cloneable, Comparable<SBNode> {
      */
     @Override
     public SBNode clone() throws CloneNotSupportedException{
-        SBNode node=(SBNode)super.clone();
-        node.key=key; node.values=(LinkedList<Object>)values.clone();
-        if(left!=null){
-            node.left=left.clone();
-            node.left.parent=node;
+        SBNode copy=cloneNode();
+        SBNode node=this,nodecopy=copy;
+        while(true){
+            if(node.left!=null){
+                node=node.left;
+                nodecopy.left=node.cloneNode();
+                nodecopy.left.parent=nodecopy; nodecopy=nodecopy.left;
+            }else if(node.right!=null){
+                node=node.right;
+                nodecopy.right=node.cloneNode();
+                nodecopy.right.parent=nodecopy; nodecopy=nodecopy.right;
+            }else{
+                while(true){
+                    if(node==this){return copy;}
+                    SBNode nodeparent=node.parent;
+                    nodecopy=nodecopy.parent;
+                    if(nodeparent.left==node && nodeparent.right!=null){
+                        node=nodeparent.right;
+                        nodecopy.right=node.cloneNode();
+                        nodecopy.right.parent=nodecopy; nodecopy=nodecopy.right;
+                        break;
+                    }
+                    node=nodeparent;
+                }
+            }
         }
-        if(right!=null){
-            node.right=right.clone();
-            node.right.parent=null;
+    }
+    /** 
+     * @return a copy of this node alone, with its own list of values and with
+     * no links to other nodes.
+     * @throws java.lang.CloneNotSupportedException 
+     */
+    private SBNode cloneNode() throws CloneNotSupportedException{
+        SBNode node=(SBNode)super.clone();
+        if(valuearray!=null){node.valuearray=valuearray.clone();}
+        node.parent=null; node.left=null; node.right=null;
+        return node;
+    }
+    /** 
+     * @param copyversion The version of the copy.
+     * @return a copy of this node alone, with its own list of values but the
+     * same links to other nodes.
+     */
+    SBNode copy(int copyversion){
+        SBNode node;
+        try{
+            node=(SBNode)super.clone();
+        }catch(CloneNotSupportedException e){
+            throw new InternalError(e);
         }
+        if(valuearray!=null){node.valuearray=valuearray.clone();}
+        node.version=copyversion;
         return node;
     }
-    /** @return the comparison of this node's key against the other's. */
+    /**
+     * Nodes are ordered by their keys, but equals() and hashCode() are left
+     * as identity: nodes from different trees, or copies kept by snapshots,
+     * may share a key while holding different values, and keys needn't have
+     * a hashCode() consistent with their ordering. So this ordering is
+     * inconsistent with equals().
+     * @return the comparison of this node's key against the other's.
+     */
     @Override
     public int compareTo(SBNode o) {
-        return key.compareTo((Comparable)o);
-    }
-    /** @return true if the keys of the two nodes are equal, false otherwise. */
-    @Override
-    public boolean equals(Object o){
-        return compareTo((SBNode)o)==0;
+        return key.compareTo(o.key);
     }
     @Override
     /** @return a String representation of the node and its values. */
     public String toString(){
-        if(values.isEmpty()){
+        if(valuecount==0){
             return key.toString();
         }else{
-            String str=key.toString()+": ";
-            for(Object value:values){
-                str+=value.toString();
-                if(value!=values.peekLast()){str+=", ";}
+            StringBuilder str=new StringBuilder(key.toString()).append(": ");
+            for(int i=0;i<valuecount;i++){
+                if(i>0){str.append(", ");}
+                str.append(getValue(i).toString());
             }
-            return str;
+            return str.toString();
         }
     }
     /** @return a simple sequential list of the subtree's nodes. */
     public String toSequencedString(){
-        String str="";
-        for(SBNode node=leftMostNode();node!=null && node!=parent;node=node.successor()){
-            str+=node.toString();
-            if(node!=rightMostNode()){str+="; ";}
+        StringBuilder str=new StringBuilder();
+        for(SBNode node=leftMostNode();node!=null;node=node.nextInOrder(this)){
+            if(str.length()>0){str.append("; ");}
+            str.append(node.toString());
         }
-        return str;
+        return str.toString();
     }
     /** @return a simple sequential list of the subtree's keys. */
     public String keysToSequencedString(){
-        String str="";
-        for(SBNode node=leftMostNode();node!=null && node!=parent;node=node.successor()){
-            str+=node.key.toString();
-            if(node!=rightMostNode()){str+=", ";}
+        StringBuilder str=new StringBuilder();
+        for(SBNode node=leftMostNode();node!=null;node=node.nextInOrder(this)){
+            if(str.length()>0){str.append(", ");}
+            str.append(node.key.toString());
         }
-        return str;
+        return str.toString();
     }
     /** @return a simple sequential list of the subtree's values. */
     public String valuesToSequencedString(){
-        String str="";
-        for(SBNode node=leftMostNode();node!=null && node!=parent;node=node.successor()){
-            Iterator it=node.values.iterator();
-            while(it.hasNext()){
-                Object value=it.next();
-                str+=value.toString();
-                if(it.hasNext()){str+=", ";}
+        StringBuilder str=new StringBuilder(); boolean first=true;
+        for(SBNode node=leftMostNode();node!=null;node=node.nextInOrder(this)){
+            if(!first){str.append("; ");}
+            first=false;
+            for(int i=0;i<node.valuecount;i++){
+                if(i>0){str.append(", ");}
+                str.append(node.getValue(i).toString());
             }
-            if(node!=rightMostNode()){str+="; ";}
         }
-        return str;
+        return str.toString();
     }
     /**
      * @return a structured String showing the subtree's nodes and their
@@ -796,9 +1465,27 @@ public class SBNode implements Cloneable, Comparable<SBNode> {
      * relationships to one another. 
      */
     public String toBranchedString(String prefix){
-        String str=prefix+toString();
-        if(left!=null){str+="\n"+left.toBranchedString(prefix+"L ");}
-        if(right!=null){str+="\n"+right.toBranchedString(prefix+"R ");}
-        return str;
+        StringBuilder str=new StringBuilder(),path=new StringBuilder(prefix);
+        SBNode node=this;
+        while(true){
+            if(node!=this){str.append('\n');}
+            str.append(path).append(node.toString());
+            if(node.left!=null){
+                path.append("L "); node=node.left;
+            }else if(node.right!=null){
+                path.append("R "); node=node.right;
+            }else{
+                while(true){
+                    if(node==this){return str.toString();}
+                    SBNode nodeparent=node.parent;
+                    path.setLength(path.length()-2);
+                    if(nodeparent.left==node && nodeparent.right!=null){
+                        path.append("R "); node=nodeparent.right;
+                        break;
+                    }
+                    node=nodeparent;
+                }
+            }
+        }
     }
 }
\ No newline at end of file
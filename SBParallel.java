@@ -0,0 +1,265 @@
+/*
+ * This code is released as public domain. But that doesn't mean you should
+ * claim credit that isn't yours or sell it when it could otherwise be had for
+ * free, because that would be a shitty thing of you to do.
+ * It was originally written by Sophie Kirschner. (sophiek@pineapplemachine.com)
+ */
+
+package SBTree;
+
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BiFunction;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * The SBParallel class runs whole-tree scans over the values of a subtree on
+ * a ForkJoinPool. It's used by the parallel methods of SBTree.
+ *
+ * Work is divided at subtree roots. A task walks down from its subtree's root
+ * towards the larger child, handing the smaller child off to a new task at
+ * every step, until what's left is small enough to traverse on its own. Since
+ * every task which is handed off holds at most half of its parent's nodes,
+ * tasks never nest more than about log n deep even when the tree is badly
+ * unbalanced, though the work is spread most evenly after optimize().
+ *
+ * Because every node knows how many values its subtree holds, a task can
+ * work out the in-order position of every value it visits, which lets
+ * toArray() have each task write straight into its part of the array.
+ *
+ * @author Sophie Kirschner
+ */
+final class SBParallel {
+    /** Subtrees with at most this many nodes are traversed by a single task. */
+    final static int THRESHOLD=4096;
+    private SBParallel(){}
+    /**
+     * @param root The root of a subtree, or null.
+     * @param action Action performed for every value in the subtree, in no
+     * particular order and possibly on several threads at once.
+     */
+    static void forEach(SBNode root,final Consumer<Object> action){
+        run(root,new Operation<Void>(){
+            @Override
+            Void visit(SBNode node,int offset){
+                for(int i=0;i<node.valuecount;i++){action.accept(node.getValue(i));}
+                return null;
+            }
+            @Override
+            Void combine(Void a,Void b){
+                return null;
+            }
+            @Override
+            Void empty(){
+                return null;
+            }
+        });
+    }
+    /**
+     * @param root The root of a subtree, or null.
+     * @param identity The identity value of the combiner, and the result if
+     * the subtree is empty.
+     * @param accumulator Function folds a value into a partial result.
+     * @param combiner Associative function combines two partial results, the
+     * first of which covers values before those of the second.
+     * @return the result of folding all values in the subtree in order.
+     */
+    static <U> U reduce(SBNode root,final U identity,final BiFunction<U,Object,U> accumulator,final BinaryOperator<U> combiner){
+        return run(root,new Operation<U>(){
+            @Override
+            U visit(SBNode node,int offset){
+                U result=identity;
+                for(int i=0;i<node.valuecount;i++){result=accumulator.apply(result,node.getValue(i));}
+                return result;
+            }
+            @Override
+            U leaf(SBNode subtree,int offset){
+                U result=identity;
+                for(SBNode node=subtree.leftMostNode();node!=null;node=node.nextInOrder(subtree)){
+                    for(int i=0;i<node.valuecount;i++){result=accumulator.apply(result,node.getValue(i));}
+                }
+                return result;
+            }
+            @Override
+            U combine(U a,U b){
+                return combiner.apply(a,b);
+            }
+            @Override
+            U empty(){
+                return identity;
+            }
+        });
+    }
+    /**
+     * @param root The root of a subtree, or null.
+     * @param predicate A predicate, which may be tested on several threads at
+     * once.
+     * @return the number of values in the subtree satisfying the predicate.
+     */
+    static int count(SBNode root,final Predicate<Object> predicate){
+        return run(root,new Operation<Integer>(){
+            @Override
+            Integer visit(SBNode node,int offset){
+                int count=0;
+                for(int i=0;i<node.valuecount;i++){
+                    if(predicate.test(node.getValue(i))){count++;}
+                }
+                return count;
+            }
+            @Override
+            Integer leaf(SBNode subtree,int offset){
+                int count=0;
+                for(SBNode node=subtree.leftMostNode();node!=null;node=node.nextInOrder(subtree)){
+                    for(int i=0;i<node.valuecount;i++){
+                        if(predicate.test(node.getValue(i))){count++;}
+                    }
+                }
+                return count;
+            }
+            @Override
+            Integer combine(Integer a,Integer b){
+                return a+b;
+            }
+            @Override
+            Integer empty(){
+                return 0;
+            }
+        });
+    }
+    /**
+     * @param root The root of a subtree, or null.
+     * @return an array of all values in the subtree, ordered as they are by
+     * SBNode.valuesInOrder().
+     */
+    static Object[] valuesInOrder(SBNode root){
+        final Object[] array=new Object[(root==null)?0:root.subtreevaluessize];
+        run(root,new Operation<Void>(){
+            @Override
+            Void visit(SBNode node,int offset){
+                for(int i=0;i<node.valuecount;i++){array[offset+i]=node.getValue(i);}
+                return null;
+            }
+            @Override
+            Void leaf(SBNode subtree,int offset){
+                for(SBNode node=subtree.leftMostNode();node!=null;node=node.nextInOrder(subtree)){
+                    for(int i=0;i<node.valuecount;i++){array[offset++]=node.getValue(i);}
+                }
+                return null;
+            }
+            @Override
+            Void combine(Void a,Void b){
+                return null;
+            }
+            @Override
+            Void empty(){
+                return null;
+            }
+        });
+        return array;
+    }
+    /**
+     * Runs an operation over a subtree, on the common pool if the subtree is
+     * large enough to be worth it.
+     * @param root The root of a subtree, or null.
+     * @param operation The operation.
+     * @return the operation's result.
+     */
+    private static <R> R run(SBNode root,Operation<R> operation){
+        if(root==null){return operation.empty();}
+        if(root.subtreesize<=THRESHOLD){return operation.leaf(root,0);}
+        return ForkJoinPool.commonPool().invoke(new SubtreeTask<>(root,0,operation));
+    }
+
+    /**
+     * An operation over the values of a subtree, producing a result which can
+     * be combined with the results of its neighbours.
+     */
+    static abstract class Operation<R> {
+        /**
+         * @param node A node.
+         * @param offset The in-order index of the node's first value.
+         * @return the result for the node's own values.
+         */
+        abstract R visit(SBNode node,int offset);
+        /**
+         * @param subtree The root of a subtree.
+         * @param offset The in-order index of the subtree's first value.
+         * @return the result for all values in the subtree.
+         */
+        R leaf(SBNode subtree,int offset){
+            R result=empty();
+            for(SBNode node=subtree.leftMostNode();node!=null;node=node.nextInOrder(subtree)){
+                result=combine(result,visit(node,offset));
+                offset+=node.valuecount;
+            }
+            return result;
+        }
+        /**
+         * @param a A result covering values before those covered by b.
+         * @param b Another result.
+         * @return the result covering the values of both.
+         */
+        abstract R combine(R a,R b);
+        /** @return the result for no values at all. */
+        abstract R empty();
+    }
+
+    /** Task runs an operation over a subtree. */
+    static final class SubtreeTask<R> extends RecursiveTask<R> {
+        final static private long serialVersionUID=1L;
+        final SBNode root;
+        final int offset;
+        final Operation<R> operation;
+        SubtreeTask(SBNode subtree,int subtreeoffset,Operation<R> op){
+            root=subtree; offset=subtreeoffset; operation=op;
+        }
+        @Override
+        protected R compute(){
+            // Parts before the remaining subtree, in order, and parts after
+            // it, in reverse order. Each part is a node's own result paired
+            // with a task for the child subtree next to it, if there is one.
+            ArrayList<R> before=new ArrayList<>(),after=new ArrayList<>();
+            ArrayList<SubtreeTask<R>> beforetasks=new ArrayList<>(),aftertasks=new ArrayList<>();
+            SBNode node=root; int nodeoffset=offset;
+            while(node.subtreesize>THRESHOLD){
+                int leftsize=(node.left==null)?0:node.left.subtreesize;
+                int rightsize=(node.right==null)?0:node.right.subtreesize;
+                int leftvalues=(node.left==null)?0:node.left.subtreevaluessize;
+                SubtreeTask<R> task=null;
+                if(leftsize>=rightsize){
+                    if(node.right!=null){
+                        task=new SubtreeTask<>(node.right,nodeoffset+leftvalues+node.valuecount,operation);
+                        task.fork();
+                    }
+                    aftertasks.add(task);
+                    after.add(operation.visit(node,nodeoffset+leftvalues));
+                    node=node.left;
+                }else{
+                    if(node.left!=null){
+                        task=new SubtreeTask<>(node.left,nodeoffset,operation);
+                        task.fork();
+                    }
+                    beforetasks.add(task);
+                    before.add(operation.visit(node,nodeoffset+leftvalues));
+                    nodeoffset+=leftvalues+node.valuecount;
+                    node=node.right;
+                }
+            }
+            R middle=operation.leaf(node,nodeoffset);
+            R result=operation.empty();
+            for(int i=0;i<before.size();i++){
+                if(beforetasks.get(i)!=null){result=operation.combine(result,beforetasks.get(i).join());}
+                result=operation.combine(result,before.get(i));
+            }
+            result=operation.combine(result,middle);
+            for(int i=after.size()-1;i>=0;i--){
+                result=operation.combine(result,after.get(i));
+                if(aftertasks.get(i)!=null){result=operation.combine(result,aftertasks.get(i).join());}
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,312 @@
+/*
+ * This code is released as public domain. But that doesn't mean you should
+ * claim credit that isn't yours or sell it when it could otherwise be had for
+ * free, because that would be a shitty thing of you to do.
+ * It was originally written by Sophie Kirschner. (sophiek@pineapplemachine.com)
+ */
+
+package SBTree;
+
+import java.util.ArrayList;
+
+/**
+ * The SBRebalancer class balances an SBTree a little at a time, as an
+ * alternative to SBTree.optimize(), which rebuilds the whole tree at once and
+ * holds up whatever called it for as long as that takes. It's made by
+ * SBTree.enableRebalancing().
+ *
+ * Every so often, an insertion, removal or search first measures how deep
+ * its key lies, and the rebalancer keeps a moving average of those depths.
+ * Once the average grows past DEGENERACY times log2 of the tree's size,
+ * the tree is swept from the top down: any node whose heavier subtree holds
+ * more than twice as many nodes as its lighter one is rotated towards
+ * balance, one single or double rotation at a time, before its children are
+ * visited in turn. Since balancing a child never changes how many nodes are
+ * on either side of its parent, the sweep leaves every node it visited
+ * balanced, and the tree's height logarithmic. The sweep is done in ticks,
+ * each doing at most a given amount of work, counted in nodes visited and
+ * rotations made.
+ *
+ * Between ticks the tree is free to change. The sweep only remembers which
+ * subtrees it has yet to visit, and checks that each is still part of the
+ * tree before touching it, so insertions, removals and splays in the
+ * meantime are harmless; at worst part of the tree is left for the next
+ * sweep. Nodes shared with a snapshot are copied before they're rotated.
+ *
+ * The tree ticks its rebalancer at the start of every insertion and removal
+ * by key, with the budget it was given, and ticks can also be called for
+ * directly, for instance when the program is otherwise idle. Like the tree,
+ * the rebalancer isn't thread-safe: ticks must come from whichever thread is
+ * allowed to write to the tree.
+ *
+ * @author Sophie Kirschner
+ */
+public class SBRebalancer {
+    /** Work done per insertion or removal by default. */
+    final static public int DEFAULTBUDGET=64;
+    /** Average depth, relative to log2 of the size, at which a sweep starts. */
+    final static public double DEGENERACY=2.0;
+    /** Trees smaller than this are never swept. */
+    final static public int MINSIZE=64;
+    /** Number of accesses per one whose depth is measured. */
+    final static int SAMPLEINTERVAL=16;
+    /** The tree being balanced. */
+    private final SBTree tree;
+    /** Work done on each insertion and removal, 0 if only explicit ticks do any. */
+    private int budget;
+    /** 
+     * Roots of the subtrees the current sweep has yet to balance, null
+     * standing for the whole tree.
+     */
+    private final ArrayList<SBNode> pending=new ArrayList<>();
+    /** Whether a sweep is underway. */
+    private boolean sweeping=false;
+    /** Number of subtrees at the bottom of pending which may have left the tree. */
+    private int unverified=0;
+    /** The tree's modcount and size when the last tick ended. */
+    private int settledmodcount=0,settledsize=0;
+    /** Moving average of the depths of the keys accessed. */
+    private double depth=0;
+    /** Accesses since the last one whose depth was measured. */
+    private int accesses=0;
+    /** State of the random number generator picking nodes to measure. */
+    private long seed=0x9E3779B97F4A7C15L;
+    /** Numbers of sweeps completed and rotations made. */
+    private long sweeps=0,rotations=0;
+    /**
+     * Initializes a new SBRebalancer.
+     * @param balanced The tree to balance.
+     * @param mutationbudget Work to do on each insertion and removal.
+     */
+    SBRebalancer(SBTree balanced,int mutationbudget){
+        tree=balanced;
+        setBudget(mutationbudget);
+    }
+    /** @return the work done on each insertion and removal. */
+    public int getBudget(){
+        return budget;
+    }
+    /**
+     * @param mutationbudget Set the work done on each insertion and removal,
+     * or 0 for the tree to be balanced only by explicit calls to tick().
+     */
+    public void setBudget(int mutationbudget){
+        if(mutationbudget<0){throw new IllegalArgumentException("Budget must not be negative");}
+        budget=mutationbudget;
+    }
+    /** @return whether a sweep is underway. */
+    public boolean isRebalancing(){
+        return sweeping;
+    }
+    /** @return the number of sweeps completed. */
+    public long getSweeps(){
+        return sweeps;
+    }
+    /** @return the number of rotations made. */
+    public long getRotations(){
+        return rotations;
+    }
+    /** @return the moving average of the depths of the keys accessed. */
+    public double getDepthEstimate(){
+        return depth;
+    }
+    /** Abandons any sweep underway, for when the tree was rebuilt or cleared. */
+    public void reset(){
+        pending.clear();
+        sweeping=false;
+        depth=log2(tree.size());
+    }
+    /** Called by the tree before each insertion and removal. */
+    void mutated(){
+        if(sweeping && budget>0){tick(budget);}
+    }
+    /**
+     * Called by the tree before each insertion, removal and search, to
+     * measure the depth of the key now and then.
+     * @param key The key being accessed.
+     */
+    void accessed(Comparable key){
+        if(++accesses<SAMPLEINTERVAL){return;}
+        accesses=0;
+        int steps=0;
+        for(SBNode node=tree.root;node!=null;steps++){
+            int comparison=key.compareTo(node.key);
+            if(comparison==0){break;}
+            node=(comparison<0)?node.left:node.right;
+        }
+        measured(steps);
+    }
+    /**
+     * Adds a depth to the moving average, and starts a sweep if the average
+     * has grown too great.
+     * @param sample The depth of a node.
+     */
+    private void measured(int sample){
+        depth+=(sample-depth)/8;
+        int size=tree.size();
+        if(!sweeping && size>=MINSIZE && depth>DEGENERACY*log2(size)){
+            pending.clear();
+            pending.add(null);
+            unverified=0;
+            settledmodcount=tree.modcount; settledsize=size;
+            sweeping=true;
+        }
+    }
+    /**
+     * Does a bounded amount of rebalancing. If a sweep is underway, it's
+     * carried on; otherwise the depth of a node picked at random is measured
+     * as though it had been accessed, so that ticks called for while the
+     * tree is otherwise idle notice degeneration too.
+     * @param work The most work to do, counted in nodes visited and
+     * rotations made.
+     * @return whether a sweep is still underway.
+     */
+    public boolean tick(int work){
+        SBNode root=tree.root;
+        if(root==null){reset(); return false;}
+        if(!sweeping){
+            int sample=sample(root,work);
+            work-=sample+1;
+            measured(sample);
+            if(!sweeping){return false;}
+        }
+        // Nodes are only taken out of the tree or replaced by copies when
+        // something other than an insertion changed it; then every subtree
+        // remembered so far has to be checked before it's touched
+        if(tree.modcount-settledmodcount!=tree.size()-settledsize){unverified=pending.size();}
+        while(work>0 && !pending.isEmpty()){
+            SBNode node=pending.remove(pending.size()-1);
+            if(node==null){
+                node=tree.root;
+                if(node==null){break;}
+            }else if(pending.size()<unverified){
+                unverified=pending.size();
+                int steps=attached(node);
+                work-=Math.abs(steps);
+                if(steps<0){continue;}
+            }
+            work--;
+            while(true){
+                SBNode rising=rotation(node);
+                if(rising==null){
+                    if(node.right!=null && node.right.subtreesize>2){pending.add(node.right);}
+                    if(node.left!=null && node.left.subtreesize>2){pending.add(node.left);}
+                    break;
+                }
+                if(work<=0){pending.add(node); break;}
+                boolean twice=(rising.parent!=node);
+                node=raise(rising,twice);
+                work-=twice?2:1;
+            }
+        }
+        settledmodcount=tree.modcount; settledsize=tree.size();
+        if(pending.isEmpty()){
+            sweeping=false;
+            sweeps++;
+            depth=log2(tree.size());
+            if(tree.metrics!=null){tree.metrics.rebalanced();}
+        }
+        return sweeping;
+    }
+    /**
+     * Measures the depth of a node picked at random, every node being
+     * equally likely.
+     * @param root The root of the tree.
+     * @param limit The greatest depth worth measuring.
+     * @return the node's depth, or the limit if it's deeper than that.
+     */
+    private int sample(SBNode root,int limit){
+        seed^=seed<<13; seed^=seed>>>7; seed^=seed<<17;
+        int index=(int)(((seed>>>33)*root.subtreesize)>>>31);
+        int steps=0;
+        for(SBNode node=root;steps<limit;steps++){
+            int left=(node.left==null)?0:node.left.subtreesize;
+            if(index<left){
+                node=node.left;
+            }else if(index==left){
+                break;
+            }else{
+                index-=left+1;
+                node=node.right;
+            }
+        }
+        return steps;
+    }
+    /**
+     * Checks that a node is still part of the tree, by following its parents
+     * up to the root.
+     * @param node A node which was part of the tree.
+     * @return the node's depth if it's still in the tree, otherwise minus one
+     * minus the number of links followed to find that out.
+     */
+    private int attached(SBNode node){
+        int steps=0;
+        for(;node.parent!=null;steps++){
+            SBNode parent=node.parent;
+            if(parent.left!=node && parent.right!=node){return -1-steps;}
+            node=parent;
+        }
+        return (node==tree.root)?steps:-1-steps;
+    }
+    /**
+     * Decides how to bring a subtree closer to balance.
+     * @param node The root of the subtree.
+     * @return the node to rotate up: a child of the root for a single
+     * rotation, a grandchild for a double one, or null if the subtree is
+     * balanced enough already.
+     */
+    private static SBNode rotation(SBNode node){
+        int left=size(node.left),right=size(node.right);
+        if(left+1<=2*(right+1) && right+1<=2*(left+1)){return null;}
+        SBNode heavy,inner,outer; int light;
+        if(left>right){
+            heavy=node.left; inner=heavy.right; outer=heavy.left; light=right;
+        }else{
+            heavy=node.right; inner=heavy.left; outer=heavy.right; light=left;
+        }
+        int before=Math.abs(left-right);
+        // After a single rotation the inner grandchild joins the light side
+        int single=Math.abs(size(outer)-(light+size(inner)+1));
+        // After a double one the inner grandchild's own subtrees are split
+        int twice=(inner==null)?Integer.MAX_VALUE:Math.abs(
+            (size(outer)+size((inner==heavy.left)?inner.right:inner.left)+1)-
+            (light+size((inner==heavy.left)?inner.left:inner.right)+1)
+        );
+        if(single<=twice){
+            return (single<before)?heavy:null;
+        }else{
+            return (twice<before)?inner:null;
+        }
+    }
+    /**
+     * Rotates a node up to the root of the subtree being balanced: once if
+     * it's a child of that root, twice if it's a grandchild.
+     * @param rising The node returned by rotation().
+     * @param twice Whether the node is a grandchild of that root.
+     * @return the new root of the subtree; the node itself, or the copy of it
+     * which took its place if it was shared with a snapshot.
+     */
+    private SBNode raise(SBNode rising,boolean twice){
+        SBNode node=tree.thaw(rising);
+        if(node!=rising){unverified=pending.size();}
+        node.rotateUp();
+        if(twice){node.rotateUp();}
+        rotations+=twice?2:1;
+        if(node.parent==null){tree.root=node;}
+        return node;
+    }
+    /**
+     * @param node A node, or null.
+     * @return the number of nodes in its subtree.
+     */
+    private static int size(SBNode node){
+        return (node==null)?0:node.subtreesize;
+    }
+    /**
+     * @param size A number of nodes.
+     * @return log2 of one more than the number.
+     */
+    private static double log2(int size){
+        return Math.log(size+1)/Math.log(2);
+    }
+}
@@ -0,0 +1,314 @@
+/*
+ * This code is released as public domain. But that doesn't mean you should
+ * claim credit that isn't yours or sell it when it could otherwise be had for
+ * free, because that would be a shitty thing of you to do.
+ * It was originally written by Sophie Kirschner. (sophiek@pineapplemachine.com)
+ */
+
+package SBTree;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.NoSuchElementException;
+import java.util.function.BiConsumer;
+
+/**
+ * The SBSnapshot class is a read-only view of an SBTree as it was at the
+ * moment SBTree.snapshot() was called. Taking one doesn't copy anything:
+ * the snapshot shares its nodes with the tree, which copies any node it
+ * would write to from then on. Nothing is ever written to the nodes of a
+ * snapshot, and it never splays, so it can be read by any number of threads
+ * at once without locking, even while the tree goes on changing.
+ *
+ * A snapshot only follows links from parents to children, since the tree
+ * keeps the parent links of shared nodes pointing at its own copies. For the
+ * same reason it doesn't hand out its nodes, only their keys and values.
+ *
+ * @author Sophie Kirschner
+ */
+public class SBSnapshot {
+    /** The root of the snapshot's nodes, null if the tree was empty. */
+    private final SBNode root;
+    /** The version of the tree the snapshot was taken of. */
+    private final int version;
+    /**
+     * Initializes a new SBSnapshot.
+     * @param snapshotroot The root of the tree, or null.
+     * @param snapshotversion The version of the tree.
+     */
+    SBSnapshot(SBNode snapshotroot,int snapshotversion){
+        root=snapshotroot; version=snapshotversion;
+    }
+    /** @return the root of the snapshot's nodes, null if it's empty. */
+    SBNode root(){
+        return root;
+    }
+    /**
+     * @return the version of the tree the snapshot was taken of. Snapshots
+     * taken without any writes in between may have different versions.
+     */
+    public int version(){
+        return version;
+    }
+    /** @return true if the snapshot is empty, false otherwise. */
+    public boolean isEmpty(){
+        return root==null;
+    }
+    /** @return the number of keys (nodes) in the snapshot. */
+    public int size(){
+        return (root==null)?0:root.subtreesize;
+    }
+    /** @return the number of values in the snapshot. */
+    public int valuesSize(){
+        return (root==null)?0:root.subtreevaluessize;
+    }
+    /**
+     * @param key A key.
+     * @return the node with the key, null if none exists.
+     */
+    private SBNode findNode(Comparable key){
+        return (root==null)?null:root.findNode(key);
+    }
+    /**
+     * @param key A key.
+     * @return whether the snapshot contains the key.
+     */
+    public boolean containsKey(Comparable key){
+        return findNode(key)!=null;
+    }
+    /**
+     * @param key A key.
+     * @param value A value.
+     * @return whether the snapshot contains the key, value pair.
+     */
+    public boolean contains(Comparable key,Object value){
+        SBNode node=findNode(key);
+        return (node!=null) && node.contains(value);
+    }
+    /**
+     * @param key A key.
+     * @return the oldest value associated with the key, null if none exists.
+     */
+    public Object findFirstValue(Comparable key){
+        SBNode node=findNode(key);
+        return (node==null)?null:node.getFirstValue();
+    }
+    /**
+     * @param key A key.
+     * @return the newest value associated with the key, null if none exists.
+     */
+    public Object findLastValue(Comparable key){
+        SBNode node=findNode(key);
+        return (node==null)?null:node.getLastValue();
+    }
+    /**
+     * @param key A key.
+     * @return a list of all values associated with the key, oldest first, or
+     * null if the key isn't in the snapshot.
+     */
+    public LinkedList<Object> findAllValues(Comparable key){
+        SBNode node=findNode(key);
+        return (node==null)?null:node.getAllValues();
+    }
+    /**
+     * @param key A key.
+     * @return the number of values associated with the key.
+     */
+    public int findValuesSize(Comparable key){
+        SBNode node=findNode(key);
+        return (node==null)?0:node.valuesSize();
+    }
+    /**
+     * @param key A key.
+     * @return the number of keys less than the specified key.
+     */
+    public int rank(Comparable key){
+        return (root==null)?0:root.rank(key);
+    }
+    /**
+     * @param index An index, where 0 refers to the least key.
+     * @return the key with the specified in-order index, null if none exists.
+     */
+    public Comparable keyAt(int index){
+        SBNode node=(root==null)?null:root.select(index);
+        return (node==null)?null:node.key;
+    }
+    /**
+     * @param index An index, where 0 refers to the least key's oldest value.
+     * @return the value at the specified index, null if none exists.
+     */
+    public Object valueAt(int index){
+        return (root==null)?null:root.valueAt(index);
+    }
+    /** @return the least key, null if the snapshot is empty. */
+    public Comparable firstKey(){
+        return (root==null)?null:root.leftMostNode().key;
+    }
+    /** @return the greatest key, null if the snapshot is empty. */
+    public Comparable lastKey(){
+        return (root==null)?null:root.rightMostNode().key;
+    }
+    /**
+     * @param key A key.
+     * @return the greatest key less than the specified key, null if none exists.
+     */
+    public Comparable lowerKey(Comparable key){
+        return keyOf((root==null)?null:root.lowerNode(key));
+    }
+    /**
+     * @param key A key.
+     * @return the greatest key less than or equal to the specified key, null
+     * if none exists.
+     */
+    public Comparable floorKey(Comparable key){
+        return keyOf((root==null)?null:root.floorNode(key));
+    }
+    /**
+     * @param key A key.
+     * @return the least key greater than or equal to the specified key, null
+     * if none exists.
+     */
+    public Comparable ceilingKey(Comparable key){
+        return keyOf((root==null)?null:root.ceilingNode(key));
+    }
+    /**
+     * @param key A key.
+     * @return the least key greater than the specified key, null if none
+     * exists.
+     */
+    public Comparable higherKey(Comparable key){
+        return keyOf((root==null)?null:root.higherNode(key));
+    }
+    /**
+     * @param node A node, or null.
+     * @return the node's key, or null.
+     */
+    private static Comparable keyOf(SBNode node){
+        return (node==null)?null:node.key;
+    }
+    /**
+     * Counts the keys in the range [lo,hi).
+     * @param lo The lower bound, null for none.
+     * @param hi The upper bound, null for none.
+     * @return the number of keys in the range.
+     */
+    public int countRange(Comparable lo,Comparable hi){
+        int end=(hi==null)?size():rank(hi);
+        int start=(lo==null)?0:rank(lo);
+        return Math.max(0,end-start);
+    }
+    /** @return an iterator over the snapshot's keys, in ascending order. */
+    public Iterator<Comparable> keys(){
+        final Iterator<SBNode> nodes=new NodeIterator(null,null);
+        return new Iterator<Comparable>(){
+            @Override
+            public boolean hasNext(){
+                return nodes.hasNext();
+            }
+            @Override
+            public Comparable next(){
+                return nodes.next().key;
+            }
+        };
+    }
+    /**
+     * @return an iterator over the snapshot's values, ordered as they are by
+     * SBTree.toArray().
+     */
+    public Iterator<Object> values(){
+        return valuesInRange(null,null);
+    }
+    /**
+     * @param lo The lower bound, null for none.
+     * @param hi The upper bound, null for none.
+     * @return an iterator over the values of the keys in the range [lo,hi),
+     * in ascending order of key and oldest first within a key.
+     */
+    public Iterator<Object> valuesInRange(Comparable lo,Comparable hi){
+        final Iterator<SBNode> nodes=new NodeIterator(lo,hi);
+        return new Iterator<Object>(){
+            /** The node whose values are being returned. */
+            private SBNode node=null;
+            /** Index of the next value of the node to be returned. */
+            private int index=0;
+            @Override
+            public boolean hasNext(){
+                while(node==null || index>=node.valuecount){
+                    if(!nodes.hasNext()){return false;}
+                    node=nodes.next(); index=0;
+                }
+                return true;
+            }
+            @Override
+            public Object next(){
+                if(!hasNext()){throw new NoSuchElementException();}
+                return node.getValue(index++);
+            }
+        };
+    }
+    /**
+     * Performs an action for every key, value pair of the keys in the range
+     * [lo,hi), in ascending order of key and oldest first within a key.
+     * @param lo The lower bound, null for none.
+     * @param hi The upper bound, null for none.
+     * @param action The action.
+     */
+    public void visitRange(Comparable lo,Comparable hi,BiConsumer<Comparable,Object> action){
+        for(NodeIterator nodes=new NodeIterator(lo,hi);nodes.hasNext();){
+            SBNode node=nodes.next();
+            for(int i=0;i<node.valuecount;i++){action.accept(node.key,node.getValue(i));}
+        }
+    }
+    /** @return an array of all values in the snapshot, in order. */
+    public Object[] toArray(){
+        Object[] array=new Object[valuesSize()]; int i=0;
+        for(Iterator<Object> values=values();values.hasNext();){array[i++]=values.next();}
+        return array;
+    }
+    /** @return a String representation of the snapshot. */
+    @Override
+    public String toString(){
+        StringBuilder string=new StringBuilder("[");
+        for(NodeIterator nodes=new NodeIterator(null,null);nodes.hasNext();){
+            SBNode node=nodes.next();
+            if(string.length()>1){string.append(", ");}
+            string.append(node.key).append("=").append(node.getAllValues());
+        }
+        return string.append("]").toString();
+    }
+
+    /**
+     * Iterates in order through the nodes with keys in a range. It keeps its
+     * own stack of the nodes still to be returned rather than following
+     * parent links.
+     */
+    private final class NodeIterator implements Iterator<SBNode> {
+        /** Nodes whose right subtrees haven't been visited, the next on top. */
+        private final ArrayList<SBNode> stack=new ArrayList<>();
+        /** The upper bound, null for none. */
+        private final Comparable hi;
+        NodeIterator(Comparable lo,Comparable hi){
+            this.hi=hi;
+            // Push the search path for the lower bound, skipping nodes below it
+            for(SBNode node=root;node!=null;){
+                if(lo!=null && node.key.compareTo(lo)<0){
+                    node=node.right;
+                }else{
+                    stack.add(node); node=node.left;
+                }
+            }
+        }
+        @Override
+        public boolean hasNext(){
+            return !stack.isEmpty() && (hi==null || stack.get(stack.size()-1).key.compareTo(hi)<0);
+        }
+        @Override
+        public SBNode next(){
+            if(!hasNext()){throw new NoSuchElementException();}
+            SBNode node=stack.remove(stack.size()-1);
+            for(SBNode child=node.right;child!=null;child=child.left){stack.add(child);}
+            return node;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * This code is released as public domain. But that doesn't mean you should
+ * claim credit that isn't yours or sell it when it could otherwise be had for
+ * free, because that would be a shitty thing of you to do.
+ * It was originally written by Sophie Kirschner. (sophiek@pineapplemachine.com)
+ */
+
+package SBTree;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The SBSplayPolicy class decides how an SBTree restructures itself after an
+ * insertion or a search reaches a node. A full splay brings the node to the
+ * root. A semi-splay only about halves the node's depth, doing half the
+ * rotations, and keeps most of the adaptivity. Doing nothing leaves the tree
+ * as it is, which is cheapest when the node is already near the root.
+ *
+ * Policies are set per tree with SBTree.setInsertionPolicy() and
+ * setSearchPolicy(), or passed to a single operation. Some built-in policies
+ * keep state, like a counter, which is shared by every tree using the same
+ * policy object.
+ *
+ * @author Sophie Kirschner
+ */
+public abstract class SBSplayPolicy {
+    /** Returned by restructure() to leave the tree as it is. */
+    final static public int SPLAYNONE=0;
+    /** Returned by restructure() to splay the node to the root. */
+    final static public int SPLAYFULL=1;
+    /** Returned by restructure() to semi-splay the node towards the root. */
+    final static public int SPLAYSEMI=2;
+    /** Policy which always splays. This is what trees do by default. */
+    final static public SBSplayPolicy ALWAYS=new Fixed(SPLAYFULL);
+    /** Policy which never splays. */
+    final static public SBSplayPolicy NEVER=new Fixed(SPLAYNONE);
+    /** Policy which always semi-splays. */
+    final static public SBSplayPolicy SEMI=new Fixed(SPLAYSEMI);
+    /**
+     * Decides what to do about a node an operation has reached.
+     * @param depth The node's depth, where the root's is 0, or -1 if
+     * usesDepth() is false and the depth wasn't worked out.
+     * @return SPLAYNONE, SPLAYFULL or SPLAYSEMI.
+     */
+    public abstract int restructure(int depth);
+    /**
+     * @return whether restructure() looks at the depth of the node, which
+     * otherwise isn't worked out.
+     */
+    public boolean usesDepth(){
+        return false;
+    }
+    /** @return a policy which always splays. */
+    public static SBSplayPolicy always(){
+        return ALWAYS;
+    }
+    /** @return a policy which never splays. */
+    public static SBSplayPolicy never(){
+        return NEVER;
+    }
+    /** @return a policy which always semi-splays. */
+    public static SBSplayPolicy semi(){
+        return SEMI;
+    }
+    /**
+     * @param threshold A depth.
+     * @return a policy which splays only nodes deeper than the threshold.
+     */
+    public static SBSplayPolicy depthThreshold(int threshold){
+        return depthThreshold(threshold,SPLAYFULL);
+    }
+    /**
+     * @param threshold A depth.
+     * @param action What to do to nodes deeper than the threshold, SPLAYFULL
+     * or SPLAYSEMI.
+     * @return a policy which restructures only nodes deeper than the
+     * threshold.
+     */
+    public static SBSplayPolicy depthThreshold(final int threshold,final int action){
+        return new SBSplayPolicy(){
+            @Override
+            public int restructure(int depth){
+                return (depth>threshold)?action:SPLAYNONE;
+            }
+            @Override
+            public boolean usesDepth(){
+                return true;
+            }
+        };
+    }
+    /**
+     * @param probability The chance, between 0 and 1, of splaying.
+     * @return a policy which splays at random.
+     */
+    public static SBSplayPolicy probability(final double probability){
+        return new SBSplayPolicy(){
+            @Override
+            public int restructure(int depth){
+                return (ThreadLocalRandom.current().nextDouble()<probability)?SPLAYFULL:SPLAYNONE;
+            }
+        };
+    }
+    /**
+     * @param k How many operations there are per splay.
+     * @return a policy which splays on every k-th operation it's asked about.
+     */
+    public static SBSplayPolicy everyKth(final int k){
+        if(k<1){throw new IllegalArgumentException("k must be at least 1");}
+        return new SBSplayPolicy(){
+            private int count=0;
+            @Override
+            public int restructure(int depth){
+                if(++count<k){return SPLAYNONE;}
+                count=0;
+                return SPLAYFULL;
+            }
+        };
+    }
+
+    /** A policy which always does the same thing. */
+    private static final class Fixed extends SBSplayPolicy {
+        private final int action;
+        Fixed(int fixedaction){
+            action=fixedaction;
+        }
+        @Override
+        public int restructure(int depth){
+            return action;
+        }
+    }
+}
@@ -0,0 +1,301 @@
+/*
+ * This code is released as public domain. But that doesn't mean you should
+ * claim credit that isn't yours or sell it when it could otherwise be had for
+ * free, because that would be a shitty thing of you to do.
+ * It was originally written by Sophie Kirschner. (sophiek@pineapplemachine.com)
+ */
+
+package SBTree;
+
+import java.util.LinkedList;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Function;
+
+/**
+ * The SBStampedTree class is a thread-safe SBTree for keys which are read far
+ * more often than they're written. It's guarded by a StampedLock. Writes take
+ * the write lock as usual, but point reads don't lock at all at first: they
+ * search the tree without splaying it and then check that no write happened
+ * in the meantime. Only if one did is the search repeated under the read
+ * lock. So reads don't wait on each other or on anything but writes.
+ *
+ * An optimistic search may see the tree halfway through a write, so it gives
+ * up after a fixed number of steps in case it's caught in a half-finished
+ * rotation, and any exception it runs into only means it has to try again.
+ *
+ * Never splaying would leave the tree as unbalanced as it was built, and
+ * always splaying would make every read a write, so reads splay now and then
+ * instead. After a read finds a key deeper than MINSPLAYDEPTH, a splay policy
+ * decides whether to splay it to the root. If it does, the splay happens
+ * under the write lock, but only if that can be had without waiting. Keys
+ * which are read often are soon splayed near the root, where they aren't
+ * splayed again.
+ *
+ * Searches hand back values rather than nodes, since nodes may be moved by
+ * other threads as soon as the lock is released. For scans, take a snapshot(),
+ * which can be read without any locking at all.
+ *
+ * @author Sophie Kirschner
+ */
+public class SBStampedTree {
+    /** Optimistic searches taking more steps than this fall back to the read lock. */
+    final static public int MAXOPTIMISTICDEPTH=256;
+    /** Reads only consider splaying keys found deeper than this. */
+    final static public int MINSPLAYDEPTH=8;
+    /** The read splay policy used by default, which splays one time in 32. */
+    final static public SBSplayPolicy DEFAULTREADPOLICY=SBSplayPolicy.probability(1.0/32);
+    /** The tree, whose searches never splay on their own. */
+    private final SBTree tree;
+    /** Lock guards the tree. */
+    private final StampedLock lock=new StampedLock();
+    /** Policy decides whether reads splay the keys they find. */
+    private final SBSplayPolicy readpolicy;
+    /** Initializes a new SBStampedTree. */
+    public SBStampedTree(){
+        this(SBSplayPolicy.ALWAYS,DEFAULTREADPOLICY);
+    }
+    /**
+     * Initializes a new SBStampedTree.
+     * @param read Policy decides whether reads splay the keys they find. It
+     * may be asked from several threads at once.
+     */
+    public SBStampedTree(SBSplayPolicy read){
+        this(SBSplayPolicy.ALWAYS,read);
+    }
+    /**
+     * Initializes a new SBStampedTree.
+     * @param insertion Policy determines how the tree is splayed after
+     * insertion operations.
+     * @param read Policy decides whether reads splay the keys they find. It
+     * may be asked from several threads at once.
+     */
+    public SBStampedTree(SBSplayPolicy insertion,SBSplayPolicy read){
+        tree=new SBTree();
+        tree.insertionpolicy=insertion;
+        tree.searchpolicy=SBSplayPolicy.NEVER;
+        readpolicy=read;
+    }
+    /** @return true if the tree is empty, false otherwise. */
+    public boolean isEmpty(){
+        return size()==0;
+    }
+    /** @return the number of keys (nodes) in the tree. */
+    public int size(){
+        long stamp=lock.tryOptimisticRead();
+        SBNode root=tree.root;
+        int size=(root==null)?0:root.subtreesize;
+        if(!lock.validate(stamp)){
+            stamp=lock.readLock();
+            try{
+                size=tree.size();
+            }finally{
+                lock.unlockRead(stamp);
+            }
+        }
+        return size;
+    }
+    /** @return the number of values in the tree. */
+    public int valuesSize(){
+        long stamp=lock.tryOptimisticRead();
+        SBNode root=tree.root;
+        int size=(root==null)?0:root.subtreevaluessize;
+        if(!lock.validate(stamp)){
+            stamp=lock.readLock();
+            try{
+                size=tree.valuesSize();
+            }finally{
+                lock.unlockRead(stamp);
+            }
+        }
+        return size;
+    }
+    /** Removes all keys and values from the tree. */
+    public void clear(){
+        long stamp=lock.writeLock();
+        try{
+            tree.clear();
+        }finally{
+            lock.unlockWrite(stamp);
+        }
+    }
+    /**
+     * Balances the tree, which helps optimistic reads of keys which haven't
+     * been splayed since the tree was built.
+     */
+    public void optimize(){
+        long stamp=lock.writeLock();
+        try{
+            tree.optimize();
+        }finally{
+            lock.unlockWrite(stamp);
+        }
+    }
+    /**
+     * Inserts a new key, value pair into the tree.
+     * @param key A key.
+     * @param value A value.
+     */
+    public void insert(Comparable key,Object value){
+        long stamp=lock.writeLock();
+        try{
+            tree.insert(key,value);
+        }finally{
+            lock.unlockWrite(stamp);
+        }
+    }
+    /**
+     * Removes all values associated with a key.
+     * @param key A key.
+     * @return whether the key was in the tree.
+     */
+    public boolean remove(Comparable key){
+        long stamp=lock.writeLock();
+        try{
+            int oldsize=tree.size();
+            tree.remove(key);
+            return tree.size()!=oldsize;
+        }finally{
+            lock.unlockWrite(stamp);
+        }
+    }
+    /**
+     * Removes a key, value pair.
+     * @param key A key.
+     * @param value A value.
+     * @return whether the pair was in the tree.
+     */
+    public boolean remove(Comparable key,Object value){
+        long stamp=lock.writeLock();
+        try{
+            int oldsize=tree.valuesSize();
+            tree.remove(key,value);
+            return tree.valuesSize()!=oldsize;
+        }finally{
+            lock.unlockWrite(stamp);
+        }
+    }
+    /**
+     * @param key A key.
+     * @return the oldest value associated with the key, null if none exists.
+     */
+    public Object findFirstValue(Comparable key){
+        return read(key,SBNode::getFirstValue);
+    }
+    /**
+     * @param key A key.
+     * @return the newest value associated with the key, null if none exists.
+     */
+    public Object findLastValue(Comparable key){
+        return read(key,SBNode::getLastValue);
+    }
+    /**
+     * @param key A key.
+     * @return a list of all values associated with the key, null if the key
+     * isn't in the tree.
+     */
+    public LinkedList<Object> findAllValues(Comparable key){
+        return read(key,SBNode::getAllValues);
+    }
+    /**
+     * @param key A key.
+     * @return the number of values associated with the key.
+     */
+    public int findValuesSize(Comparable key){
+        Integer size=read(key,SBNode::valuesSize);
+        return (size==null)?0:size;
+    }
+    /**
+     * @param key A key.
+     * @return whether the tree contains the key.
+     */
+    public boolean containsKey(Comparable key){
+        return read(key,node->Boolean.TRUE)!=null;
+    }
+    /**
+     * @param key A key.
+     * @param value A value.
+     * @return whether the tree contains the key, value pair.
+     */
+    public boolean contains(Comparable key,Object value){
+        Boolean contains=read(key,node->node.contains(value));
+        return (contains!=null) && contains;
+    }
+    /**
+     * Takes a snapshot of the tree, which any number of threads can read
+     * without locking while the tree goes on changing. See SBTree.snapshot().
+     * @return a snapshot of the tree as it is now.
+     */
+    public SBSnapshot snapshot(){
+        long stamp=lock.writeLock();
+        try{
+            return tree.snapshot();
+        }finally{
+            lock.unlockWrite(stamp);
+        }
+    }
+    /**
+     * Searches for a key, optimistically at first, and reads something from
+     * its node. Then splays the node if the read policy says to.
+     * @param key A key.
+     * @param reader Function reads from the node. When reading
+     * optimistically it may be handed a node in the middle of being changed,
+     * in which case whatever it returns or throws is thrown away.
+     * @return what was read, null if the key isn't in the tree.
+     */
+    private <T> T read(Comparable key,Function<SBNode,T> reader){
+        T result=null; int depth=-1;
+        boolean valid=false;
+        long stamp=lock.tryOptimisticRead();
+        if(stamp!=0){
+            try{
+                SBNode node=tree.root; int steps=0;
+                while(node!=null && steps<=MAXOPTIMISTICDEPTH){
+                    int comparison=key.compareTo(node.key);
+                    if(comparison==0){break;}
+                    node=(comparison<0)?node.left:node.right;
+                    steps++;
+                }
+                if(steps<=MAXOPTIMISTICDEPTH){
+                    if(node!=null){result=reader.apply(node); depth=steps;}
+                    valid=lock.validate(stamp);
+                }
+            }catch(RuntimeException e){
+                // A writer was partway through changing what was being read
+            }
+        }
+        if(!valid){
+            result=null; depth=-1;
+            stamp=lock.readLock();
+            try{
+                SBNode node=tree.root; int steps=0;
+                while(node!=null){
+                    int comparison=key.compareTo(node.key);
+                    if(comparison==0){break;}
+                    node=(comparison<0)?node.left:node.right;
+                    steps++;
+                }
+                if(node!=null){result=reader.apply(node); depth=steps;}
+            }finally{
+                lock.unlockRead(stamp);
+            }
+        }
+        if(depth>MINSPLAYDEPTH){splay(key,readpolicy.restructure(depth));}
+        return result;
+    }
+    /**
+     * Splays a key towards the root if the write lock is free.
+     * @param key A key.
+     * @param action SPLAYNONE, SPLAYFULL or SPLAYSEMI.
+     */
+    private void splay(Comparable key,int action){
+        if(action==SBSplayPolicy.SPLAYNONE){return;}
+        long stamp=lock.tryWriteLock();
+        if(stamp!=0){
+            try{
+                tree.findNode(key,(action==SBSplayPolicy.SPLAYSEMI)?SBSplayPolicy.SEMI:SBSplayPolicy.ALWAYS);
+            }finally{
+                lock.unlockWrite(stamp);
+            }
+        }
+    }
+}
@@ -7,35 +7,62 @@
 
 package SBTree;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * The SBTree class represents a splayed binary search tree. It holds any number
  * of key, value pairs which can be inserted, searched, and removed in a
  * worst-case time of amortized O(log n) and an average time of O(log n). The
- * tree class contains the reference to a root node and a boolean which defines 
+ * tree class contains the reference to a root node and policies which define 
  * whether the tree will be splayed after insertion and search operations. (This 
  * means that the most recent node will become the new root of the tree. This 
  * helps to keep the tree balanced, and reduces search time for commonly 
- * looked-for nodes.)
+ * looked-for nodes.) By default the tree is always splayed; see SBSplayPolicy
+ * for cheaper alternatives when reads are heavily skewed.
  * 
  * Its nodes are represented by the SBNode class. Each node corresponds to a
- * single key, and contains a LinkedList of all values assigned to that key.
- * Since I'm far too lazy to implement Iterator support, you'll want to iterate
- * through the tree's nodes like so:
- * for(SBNode node=tree.leftMostNode();node!=null;node=node.successor()){}
+ * single key, and holds all values assigned to that key.
+ * The tree is Iterable, so you can iterate through its nodes like so:
+ * for(SBNode node:tree){}
  * 
  * And through the tree's values thusly:
- * for(SBNode node=tree.leftMostNode();node!=null;node=node.successor()){
- *  for(Object value:node.values){}
+ * for(SBNode node:tree){
+ *  for(Object value:node.values()){}
  * }
  * 
+ * The tree can also be viewed as a NavigableMap from keys to nodes by way of
+ * asMap(), headMap(), tailMap() and friends, and its nodes can be streamed.
+ * Iterators are fail-fast; adding or removing nodes other than through the
+ * iterator makes them throw a ConcurrentModificationException. Iterating
+ * doesn't splay the tree.
+ * 
+ * snapshot() takes a read-only SBSnapshot of the tree in constant time. The
+ * snapshot shares its nodes with the tree, and from then on the tree copies
+ * each node before it would write to it, so that it only ever copies the paths
+ * it actually touches. Node references obtained before taking a snapshot, or
+ * from a search which didn't splay since, may belong to the snapshot; modify
+ * the tree through its own methods rather than through such nodes.
+ * 
  * I apologize for not using a template, just going with the Object class for
  * stuff was way easier.
  * 
  * @author Sophie Kirschner
  */
-public class SBTree implements Cloneable {
+public class SBTree implements Cloneable, Iterable<SBNode> {
     /** Constant passed optionally to the toArray() and toNodeArray() methods. */
     final static public int SORTINORDER=0;
     /** Constant passed optionally to the toArray() and toNodeArray() methods. */
@@ -46,13 +73,30 @@ public class SBTree implements Cloneable {
     final static public int SORTPOSTORDER=3;
     /** Reference to the root node. */
     public SBNode root=null;
+    /** Policy determines how the tree is splayed after insertion operations. */
+    public SBSplayPolicy insertionpolicy=SBSplayPolicy.ALWAYS;
+    /** Policy determines how the tree is splayed after search operations. */
+    public SBSplayPolicy searchpolicy=SBSplayPolicy.ALWAYS;
     /** 
-     * Boolean determines whether the tree is splayed after insertion
-     * operations. 
+     * Number of times nodes have been added to or removed from the tree. Used
+     * by iterators to detect concurrent modification.
      */
-    public boolean splayedinsertion=true;
-    /** Boolean determines whether the tree is splayed after search operations. */
-    public boolean splayedsearch=true;
+    int modcount=0;
+    /** 
+     * The tree's current version. While the tree is shared, only nodes of
+     * this version are its own to write to. 
+     */
+    int version=0;
+    /** Whether the tree may share nodes with a snapshot. */
+    boolean shared=false;
+    /** Source of versions, which are unique across all trees. */
+    final static private AtomicInteger VERSIONS=new AtomicInteger();
+    /** Counts of what the tree does, null unless enabled. */
+    SBTreeMetrics metrics=null;
+    /** Balances the tree a little at a time, null unless enabled. */
+    SBRebalancer rebalancer=null;
+    /** Maps values to the nodes holding them, null unless enabled. */
+    SBValueIndex valueindex=null;
     /** Initializes a new SBTree. */
     public SBTree(){}
     /** 
@@ -101,15 +145,15 @@ public class SBTree implements Cloneable {
     }
     /** @return true if the tree is empty (has no root node), false otherwise. */
     public boolean isEmpty(){
-        return root!=null;
+        return root==null;
     }
     /** @return the number of keys (nodes) in the tree. */
     public int size(){
-        return (root==null)?0:root.size();
+        return (root==null)?0:root.subtreesize;
     }
     /** @return the number of values in the tree. */
     public int valuesSize(){
-        return (root==null)?0:root.valuesSizeRecursive();
+        return (root==null)?0:root.subtreevaluessize;
     }
     /** @return the tree's height. */
     public int height(){
@@ -117,41 +161,140 @@ public class SBTree implements Cloneable {
     }
     /** Clears all references in the tree to nodes and values. */
     public void clear(){
-        if(root!=null){root.clear(); root=null;}
+        if(root!=null){
+            // Nodes shared with a snapshot are left intact for it
+            if(!shared){root.clear();}
+            root=null; modcount++;
+        }
+        if(metrics!=null){metrics.rebalanced();}
+        if(rebalancer!=null){rebalancer.reset();}
+        if(valueindex!=null){valueindex.clear();}
     }
     /** 
      * Balances the tree. This takes time, so it isn't something to be done
      * frequently. Also, if the tree is set to splay after insertions and
      * searches then the tree will stay more or less balanced all on its own.
+     * To balance it without a pause, see enableRebalancing().
      * @return the new root of the tree. 
      */
     public SBNode optimize(){
+        unshare();
         if(root!=null){root=root.optimize();}
+        if(metrics!=null){metrics.rebalanced();}
+        if(rebalancer!=null){rebalancer.reset();}
+        return root;
+    }
+    /** 
+     * Balances the tree the same as optimize(), but by rotating its nodes
+     * into place rather than rebuilding it from an array of them, so that
+     * balancing a very large tree needs no more memory than it already uses.
+     * (Unless the tree is shared with a snapshot, in which case it has to be
+     * copied first anyway.)
+     * @return the new root of the tree. 
+     */
+    public SBNode optimizeInPlace(){
+        unshare();
+        if(root!=null){root=root.optimizeInPlace();}
+        if(metrics!=null){metrics.rebalanced();}
+        if(rebalancer!=null){rebalancer.reset();}
         return root;
     }
-    /** @return whether the tree is splayed after insertion operations. */
+    /** 
+     * Starts counting what the tree does, if it isn't already. Until this is
+     * called, the tree pays almost nothing for being able to.
+     * @return the tree's metrics.
+     */
+    public SBTreeMetrics enableMetrics(){
+        if(metrics==null){metrics=new SBTreeMetrics(this);}
+        return metrics;
+    }
+    /** Stops counting what the tree does. */
+    public void disableMetrics(){
+        metrics=null;
+    }
+    /** @return the tree's metrics, null if they aren't enabled. */
+    public SBTreeMetrics getMetrics(){
+        return metrics;
+    }
+    /** 
+     * Starts balancing the tree a little at a time whenever it's found to
+     * have degenerated, with the default budget of work per insertion and
+     * removal.
+     * @return the tree's rebalancer.
+     */
+    public SBRebalancer enableRebalancing(){
+        return enableRebalancing(SBRebalancer.DEFAULTBUDGET);
+    }
+    /** 
+     * Starts balancing the tree a little at a time whenever it's found to
+     * have degenerated. Every insertion and removal by key first does at
+     * most the given amount of the work, so no one operation is held up for
+     * long the way optimize() holds up its caller.
+     * @param budget The most work to do per insertion and removal, counted
+     * in nodes visited and rotations made, or 0 to only rebalance when the
+     * rebalancer's tick() is called.
+     * @return the tree's rebalancer.
+     */
+    public SBRebalancer enableRebalancing(int budget){
+        if(rebalancer==null){
+            rebalancer=new SBRebalancer(this,budget);
+        }else{
+            rebalancer.setBudget(budget);
+        }
+        return rebalancer;
+    }
+    /** Stops balancing the tree a little at a time. */
+    public void disableRebalancing(){
+        rebalancer=null;
+    }
+    /** @return the tree's rebalancer, null if it isn't enabled. */
+    public SBRebalancer getRebalancer(){
+        return rebalancer;
+    }
+    /** 
+     * Starts keeping an index from each value in the tree to the nodes
+     * holding it, if the tree doesn't already, so that containsValue(),
+     * findKeyOf() and removeValue() take constant expected time instead of
+     * searching the whole tree. Building the index takes linear time, and
+     * keeping it costs a hash table update per value inserted or removed.
+     * 
+     * The index tells values apart by identity rather than equals(), so
+     * while it's enabled containsValue() does too. It only sees changes
+     * made through the tree's own methods, not through SBNode's.
+     */
+    public void enableValueIndex(){
+        if(valueindex==null){valueindex=new SBValueIndex(root);}
+    }
+    /** Stops keeping an index of the tree's values. */
+    public void disableValueIndex(){
+        valueindex=null;
+    }
+    /** @return whether the tree keeps an index of its values. */
+    public boolean isValueIndexed(){
+        return valueindex!=null;
+    }
+    /** @return whether the tree is ever splayed after insertion operations. */
     public boolean getSplayInsertion(){
-        return splayedinsertion;
+        return insertionpolicy!=SBSplayPolicy.NEVER;
     }
     /** @param set Set whether the tree is splayed after insertion operations. */
     public void setSplayInsertion(boolean set){
-        splayedinsertion=set;
+        insertionpolicy=set?SBSplayPolicy.ALWAYS:SBSplayPolicy.NEVER;
     }
-    /** @return whether the tree is splayed after search operations. */
+    /** @return whether the tree is ever splayed after search operations. */
     public boolean getSplaySearch(){
-        return splayedsearch;
+        return searchpolicy!=SBSplayPolicy.NEVER;
     }
     /** @param set Set whether the tree is splayed after search operations. */
     public void setSplaySearch(boolean set){
-        splayedsearch=set;
+        searchpolicy=set?SBSplayPolicy.ALWAYS:SBSplayPolicy.NEVER;
     }
     /** 
      * @param set Set whether the tree is splayed after insertion and search 
      * operations. 
      */
     final public void setSplay(boolean set){
-        splayedinsertion=set;
-        splayedsearch=set;
+        setSplay(set,set);
     }
     /** 
      * @param insertion Set whether the tree is splayed after insertion 
@@ -159,8 +302,32 @@ public class SBTree implements Cloneable {
      * @param search Set whether the tree is splayed after search operations. 
      */
     final public void setSplay(boolean insertion,boolean search){
-        splayedinsertion=insertion;
-        splayedsearch=search;
+        setSplayInsertion(insertion);
+        setSplaySearch(search);
+    }
+    /** @return the policy for splaying the tree after insertion operations. */
+    public SBSplayPolicy getInsertionPolicy(){
+        return insertionpolicy;
+    }
+    /** @param policy Set how the tree is splayed after insertion operations. */
+    public void setInsertionPolicy(SBSplayPolicy policy){
+        insertionpolicy=policy;
+    }
+    /** @return the policy for splaying the tree after search operations. */
+    public SBSplayPolicy getSearchPolicy(){
+        return searchpolicy;
+    }
+    /** @param policy Set how the tree is splayed after search operations. */
+    public void setSearchPolicy(SBSplayPolicy policy){
+        searchpolicy=policy;
+    }
+    /** 
+     * @param policy Set how the tree is splayed after insertion and search
+     * operations.
+     */
+    public void setPolicy(SBSplayPolicy policy){
+        insertionpolicy=policy;
+        searchpolicy=policy;
     }
     /** 
      * Inserts a new key, value pair into the tree. Both the key and the value
@@ -188,12 +355,54 @@ public class SBTree implements Cloneable {
      * @return the node containing the new key, value pair. 
      */
     public SBNode insert(Comparable key,Object value){
+        return insert(key,value,insertionpolicy);
+    }
+    /** 
+     * Inserts a new key, value pair into the tree.
+     * @param key A key.
+     * @param value A value.
+     * @param policy How to splay the tree afterwards.
+     * @return the node containing the new key, value pair. 
+     */
+    public SBNode insert(Comparable key,Object value,SBSplayPolicy policy){
+        if(rebalancer!=null){rebalancer.mutated(); rebalancer.accessed(key);}
+        SBNode node;
+        if(metrics!=null){
+            int depth=metrics.insert(root,key);
+            node=insertUnmeasured(key,value,policy);
+            metrics.restructured(depth,node);
+        }else{
+            node=insertUnmeasured(key,value,policy);
+        }
+        if(valueindex!=null){valueindex.add(value,node);}
+        return node;
+    }
+    /** 
+     * Inserts a new key, value pair into the tree without counting it.
+     * @param key A key.
+     * @param value A value.
+     * @param policy How to splay the tree afterwards.
+     * @return the node containing the new key, value pair. 
+     */
+    private SBNode insertUnmeasured(Comparable key,Object value,SBSplayPolicy policy){
         if(root!=null){
-            SBNode node=root.insert(key,value);
-            splay(node,splayedinsertion);
+            int oldsize=root.subtreesize;
+            SBNode node;
+            thawPath(root,key);
+            if(policy==SBSplayPolicy.ALWAYS){
+                root=root.insertSplay(key,value);
+                node=root;
+            }else{
+                node=root.insert(key,value);
+            }
+            node.version=version;
+            if(policy!=SBSplayPolicy.ALWAYS){node=restructure(node,policy);}
+            if(root.subtreesize!=oldsize){modcount++;}
             return node;
         }else{
             root=new SBNode(key,value);
+            root.version=version;
+            modcount++;
             return root;
         }
     }
@@ -203,7 +412,7 @@ public class SBTree implements Cloneable {
      * @return the node corresponding to the specified key, null if none exists. 
      */
     public SBNode findNode(Comparable key){
-        return findNode(key,splayedsearch);
+        return findNode(key,searchpolicy);
     }
     /** 
      * Searches for a node with a matching key.
@@ -212,13 +421,37 @@ public class SBTree implements Cloneable {
      * @return the node corresponding to the specified key, null if none exists. 
      */
     public SBNode findNode(Comparable key,boolean splay){
-        if(root!=null){
-            SBNode node=root.findNode(key);
-            splay(node,splay);
+        return findNode(key,splay?SBSplayPolicy.ALWAYS:SBSplayPolicy.NEVER);
+    }
+    /** 
+     * Searches for a node with a matching key.
+     * @param key A key.
+     * @param policy How to splay the tree afterwards.
+     * @return the node corresponding to the specified key, null if none exists. 
+     */
+    public SBNode findNode(Comparable key,SBSplayPolicy policy){
+        if(metrics!=null){
+            int depth=metrics.find(root,key);
+            SBNode node=search(key,policy);
+            metrics.restructured(depth,node);
             return node;
-        }else{
-            return null;
         }
+        return search(key,policy);
+    }
+    /** 
+     * Searches for a node with a matching key without counting it.
+     * @param key A key.
+     * @param policy How to splay the tree afterwards.
+     * @return the node corresponding to the specified key, null if none exists. 
+     */
+    private SBNode search(Comparable key,SBSplayPolicy policy){
+        if(root==null){return null;}
+        if(policy==SBSplayPolicy.NEVER){
+            if(rebalancer!=null){rebalancer.accessed(key);}
+            return root.findNode(key);
+        }
+        SBNode node=access(key,policy);
+        return (key.compareTo(node.key)==0)?node:null;
     }
     /** 
      * Searches for the node with the most closely matching key.
@@ -227,14 +460,129 @@ public class SBTree implements Cloneable {
      * none exists. 
      */
     public SBNode findClosestNode(Comparable key){
+        return (root==null)?null:access(key,searchpolicy);
+    }
+    /** 
+     * Searches for the node with the greatest key less than the specified key.
+     * @param key A key.
+     * @return the matching node, null if none exists.
+     */
+    public SBNode lowerNode(Comparable key){
+        if(root==null){return null;}
+        if(searchpolicy==SBSplayPolicy.NEVER){return root.lowerNode(key);}
+        SBNode node=access(key,searchpolicy);
+        return (node.key.compareTo(key)<0)?node:node.predecessor();
+    }
+    /** 
+     * Searches for the node with the greatest key less than or equal to the
+     * specified key.
+     * @param key A key.
+     * @return the matching node, null if none exists.
+     */
+    public SBNode floorNode(Comparable key){
+        if(root==null){return null;}
+        if(searchpolicy==SBSplayPolicy.NEVER){return root.floorNode(key);}
+        SBNode node=access(key,searchpolicy);
+        return (node.key.compareTo(key)<=0)?node:node.predecessor();
+    }
+    /** 
+     * Searches for the node with the least key greater than or equal to the
+     * specified key.
+     * @param key A key.
+     * @return the matching node, null if none exists.
+     */
+    public SBNode ceilingNode(Comparable key){
+        if(root==null){return null;}
+        if(searchpolicy==SBSplayPolicy.NEVER){return root.ceilingNode(key);}
+        SBNode node=access(key,searchpolicy);
+        return (node.key.compareTo(key)>=0)?node:node.successor();
+    }
+    /** 
+     * Searches for the node with the least key greater than the specified key.
+     * @param key A key.
+     * @return the matching node, null if none exists.
+     */
+    public SBNode higherNode(Comparable key){
+        if(root==null){return null;}
+        if(searchpolicy==SBSplayPolicy.NEVER){return root.higherNode(key);}
+        SBNode node=access(key,searchpolicy);
+        return (node.key.compareTo(key)>0)?node:node.successor();
+    }
+    /** 
+     * Counts the keys in the tree which are less than the specified key.
+     * @param key A key.
+     * @return the number of keys less than the specified key, which is also the
+     * in-order index of the key if the tree contains it.
+     */
+    public int rank(Comparable key){
+        if(root==null){return 0;}
+        if(searchpolicy==SBSplayPolicy.NEVER){return root.rank(key);}
+        SBNode node=access(key,searchpolicy);
+        return (node.key.compareTo(key)<0)?node.index()+1:node.index();
+    }
+    /** 
+     * Searches for the node with the specified in-order index.
+     * @param index An index, where 0 refers to the leftmost node.
+     * @return the node at the specified index, null if none exists.
+     */
+    public SBNode select(int index){
         if(root!=null){
-            SBNode node=root.findClosestNode(key);
-            splay(node,splayedsearch);
-            return node;
+            SBNode node=root.select(index);
+            return (node==null)?null:restructure(node,searchpolicy);
         }else{
             return null;
         }
     }
+    /** 
+     * Searches for the value with the specified index, where values are
+     * ordered as they are by toArray().
+     * @param index An index, where 0 refers to the leftmost node's oldest value.
+     * @return the value at the specified index, null if none exists.
+     */
+    public Object valueAt(int index){
+        if(root==null){return null;}
+        if(searchpolicy==SBSplayPolicy.NEVER){return root.valueAt(index);}
+        SBNode node=root.selectValueNode(index);
+        if(node==null){return null;}
+        node=restructure(node,searchpolicy);
+        return node.getValue(index-node.valueIndex());
+    }
+    /** 
+     * Searches for a key and restructures the tree around the node the search
+     * ended at according to a policy.
+     * @param key A key.
+     * @param policy How to splay the tree.
+     * @return the node with the specified key if there is one, otherwise the
+     * last node on the key's search path.
+     */
+    private SBNode access(Comparable key,SBSplayPolicy policy){
+        if(rebalancer!=null){rebalancer.accessed(key);}
+        if(policy==SBSplayPolicy.ALWAYS){
+            thawPath(root,key);
+            root=root.splayKey(key);
+            return root;
+        }
+        return restructure(root.findClosestNode(key),policy);
+    }
+    /** 
+     * Restructures the tree around a node according to a policy.
+     * @param node A node in the tree.
+     * @param policy How to splay the tree.
+     * @return the node, or the copy which took its place if the tree was
+     * shared.
+     */
+    private SBNode restructure(SBNode node,SBSplayPolicy policy){
+        if(policy==SBSplayPolicy.NEVER){return node;}
+        int action=policy.restructure(policy.usesDepth()?node.depth():-1);
+        if(action==SBSplayPolicy.SPLAYFULL){
+            node=thaw(node);
+            root=node.splayUp();
+        }else if(action==SBSplayPolicy.SPLAYSEMI){
+            node=thaw(node);
+            root=node.semiSplayUp();
+        }
+        return node;
+    }
     /** 
      * Searches for the oldest value which corresponds to a key.
      * @param key A key.
@@ -242,7 +590,6 @@ public class SBTree implements Cloneable {
      */
     public Object findFirstValue(Comparable key){
         SBNode node=findNode(key);
-        splay(node,splayedsearch);
         return (node==null)?null:node.getFirstValue();
     }
     /** 
@@ -252,7 +599,6 @@ public class SBTree implements Cloneable {
      */
     public Object findLastValue(Comparable key){
         SBNode node=findNode(key);
-        splay(node,splayedsearch);
         return (node==null)?null:node.getLastValue();
     }
     /** 
@@ -265,7 +611,6 @@ public class SBTree implements Cloneable {
      */
     public LinkedList<Object> findAllValues(Comparable key){
         SBNode node=findNode(key);
-        splay(node,splayedsearch);
         return (node==null)?null:node.getAllValues();
     }
     /** 
@@ -275,7 +620,6 @@ public class SBTree implements Cloneable {
      */
     public int findValuesSize(Comparable key){
         SBNode node=findNode(key);
-        splay(node,splayedsearch);
         return (node==null)?0:node.valuesSize();
     }
     /** 
@@ -310,13 +654,40 @@ public class SBTree implements Cloneable {
     }
     /** 
      * Searches for a value. This is not very efficient; without a key the
-     * entire tree must be indiscriminately searched.
+     * entire tree must be indiscriminately searched. That is, unless the
+     * tree keeps an index of its values, in which case this takes constant
+     * expected time but compares values by identity; see enableValueIndex().
      * @param value A value.
      * @return true if the value exists within the tree, false otherwise.
      */
     public boolean containsValue(Object value){
+        if(valueindex!=null){return valueindex.contains(value);}
         return (root==null)?false:root.treeContains(value);
     }
+    /** 
+     * Searches for the key of a value, the very value and not just an equal
+     * one. This takes constant expected time if the tree keeps an index of
+     * its values, and otherwise has to search the whole tree.
+     * @param value A value.
+     * @return the key of a node holding the value, null if none does.
+     */
+    public Comparable findKeyOf(Object value){
+        SBNode node=ownerOf(value);
+        return (node==null)?null:node.key;
+    }
+    /** 
+     * @param value A value.
+     * @return a node holding the very value, null if none does.
+     */
+    private SBNode ownerOf(Object value){
+        if(valueindex!=null){return valueindex.owner(value);}
+        for(SBNode node=root;node!=null;node=node.nextPreOrder(root)){
+            for(int i=0;i<node.valuecount;i++){
+                if(node.getValue(i)==value){return node;}
+            }
+        }
+        return null;
+    }
     /** 
      * Removes for a key, value pair from the tree. Accepts an Object array as
      * its argument. The value at index 0 will be the key (must inherit from
@@ -334,8 +705,35 @@ public class SBTree implements Cloneable {
      * @return the node which has taken the removed node's position in the tree.
      */
     public SBNode remove(Comparable key,Object value){
-        SBNode node=findNode(key,false);
-        return (node==null)?null:node.removeValue(value);
+        if(rebalancer!=null){rebalancer.mutated();}
+        if(metrics!=null){metrics.remove(root,key);}
+        SBNode node=search(key,SBSplayPolicy.NEVER);
+        if(node==null){return null;}
+        node=thawRemoval(node);
+        if(valueindex!=null){valueindex.remove(value,node);}
+        return replace(node,node.removeValue(value));
+    }
+    /** 
+     * Removes a value from the tree without knowing its key: the very value,
+     * and not just an equal one, from every node holding it. Nodes left
+     * without values are removed. This takes constant expected time, plus
+     * the time taken to remove the nodes, if the tree keeps an index of its
+     * values, and otherwise has to search the whole tree.
+     * @param value A value.
+     * @return whether the tree held the value.
+     */
+    public boolean removeValue(Object value){
+        SBNode node=ownerOf(value);
+        if(node==null){return false;}
+        while(node!=null){
+            if(rebalancer!=null){rebalancer.mutated();}
+            if(metrics!=null){metrics.remove(root,node.key);}
+            node=thawRemoval(node);
+            if(valueindex!=null){valueindex.remove(value,node);}
+            replace(node,node.removeValue(value));
+            node=ownerOf(value);
+        }
+        return true;
     }
     /** 
      * Removes all values associated with a key. In this case, the node
@@ -345,8 +743,13 @@ public class SBTree implements Cloneable {
      * null if none exists.
      */
     public SBNode remove(Comparable key){
-        SBNode node=findNode(key,false);
-        return (node==null)?null:node.remove();
+        if(rebalancer!=null){rebalancer.mutated();}
+        if(metrics!=null){metrics.remove(root,key);}
+        SBNode node=search(key,SBSplayPolicy.NEVER);
+        if(node==null){return null;}
+        node=thawRemoval(node);
+        if(valueindex!=null){valueindex.removeAll(node);}
+        return replace(node,node.remove());
     }
     /** 
      * Removes the oldest value associated with a key. If there are no more
@@ -357,8 +760,18 @@ public class SBTree implements Cloneable {
      * key, or null if none exists.
      */
     public SBNode removeFirstValue(Comparable key){
-        SBNode node=findNode(key,false);
-        return (node==null)?null:node.removeFirstValue();
+        if(rebalancer!=null){rebalancer.mutated();}
+        if(metrics!=null){metrics.remove(root,key);}
+        SBNode node=search(key,SBSplayPolicy.NEVER);
+        if(node==null){return null;}
+        node=thawRemoval(node);
+        if(valueindex!=null){
+            Object value=node.getFirstValue();
+            SBNode replacement=replace(node,node.removeFirstValue());
+            valueindex.removed(value,node);
+            return replacement;
+        }
+        return replace(node,node.removeFirstValue());
     }
     /** 
      * Removes the newest value associated with a key. If there are no more
@@ -369,8 +782,43 @@ public class SBTree implements Cloneable {
      * key, or null if none exists.
      */
     public SBNode removeLastValue(Comparable key){
-        SBNode node=findNode(key,false);
-        return (node==null)?null:node.removeLastValue();
+        if(rebalancer!=null){rebalancer.mutated();}
+        if(metrics!=null){metrics.remove(root,key);}
+        SBNode node=search(key,SBSplayPolicy.NEVER);
+        if(node==null){return null;}
+        node=thawRemoval(node);
+        if(valueindex!=null){
+            Object value=node.getLastValue();
+            SBNode replacement=replace(node,node.removeLastValue());
+            valueindex.removed(value,node);
+            return replacement;
+        }
+        return replace(node,node.removeLastValue());
+    }
+    /** 
+     * Removes the value at an index from those associated with a key. If
+     * there are no more values associated with the key, the node itself is
+     * also removed.
+     * @param key A key.
+     * @param index An index, where 0 refers to the key's oldest value.
+     * @return if the node was removed, the node which has taken the removed
+     * node's position in the tree. Otherwise, the node corresponding to the
+     * key, or null if none exists.
+     * @throws IndexOutOfBoundsException if the key has no such value.
+     */
+    public SBNode removeValueAt(Comparable key,int index){
+        if(rebalancer!=null){rebalancer.mutated();}
+        if(metrics!=null){metrics.remove(root,key);}
+        SBNode node=search(key,SBSplayPolicy.NEVER);
+        if(node==null){return null;}
+        node=thawRemoval(node);
+        if(valueindex!=null){
+            Object value=node.getValue(index);
+            SBNode replacement=replace(node,node.removeValueAt(index,true));
+            valueindex.removed(value,node);
+            return replacement;
+        }
+        return replace(node,node.removeValueAt(index,true));
     }
     /** 
      * Removes all values associated with a key. In this case, the node
@@ -381,13 +829,139 @@ public class SBTree implements Cloneable {
      * of its associated values.
      */
     public boolean removeAllValues(Comparable key){
-        SBNode node=findNode(key,false);
+        if(rebalancer!=null){rebalancer.mutated();}
+        if(metrics!=null){metrics.remove(root,key);}
+        SBNode node=search(key,SBSplayPolicy.NEVER);
         if(node!=null){
+            node=thaw(node);
+            if(valueindex!=null){valueindex.removeAll(node);}
             node.removeAllValues(); return true;
         }else{
             return false;
         }
     }
+    /** 
+     * Removes a node belonging to the tree, along with all its values.
+     * @param node A node in the tree.
+     * @return the node which has taken the removed node's position in the tree,
+     * null if none exists.
+     */
+    public SBNode removeNode(SBNode node){
+        node=thawRemoval(node);
+        if(valueindex!=null){valueindex.removeAll(node);}
+        return replace(node,node.remove());
+    }
+    /** 
+     * Convenience function keeps the root up to date after a node was removed.
+     * @param node A node which may have been removed.
+     * @param replacement The node returned by the removal.
+     * @return the replacement.
+     */
+    private SBNode replace(SBNode node,SBNode replacement){
+        if(replacement!=node){
+            if(node==root){root=replacement;}
+            modcount++;
+        }
+        return replacement;
+    }
+    /** 
+     * Takes a read-only snapshot of the tree. This takes constant time: the
+     * snapshot shares the tree's nodes, and the tree copies whichever of them
+     * it writes to afterwards, so that changes to the tree never show up in
+     * the snapshot. Operations which rebuild the whole tree, like optimize()
+     * and insertBatch(), copy it all the first time they run after a
+     * snapshot was taken.
+     * 
+     * Snapshots don't splay and are never written to, so any number of
+     * threads can read one without locking while another thread goes on
+     * writing to the tree.
+     * @return a snapshot of the tree as it is now.
+     */
+    public SBSnapshot snapshot(){
+        SBSnapshot snapshot=new SBSnapshot(root,version);
+        version=VERSIONS.incrementAndGet();
+        shared=(root!=null);
+        return snapshot;
+    }
+    /** 
+     * Makes an immutable copy of the tree laid out for fast searching. The
+     * tree itself is left as it is, and later changes to it don't show up in
+     * the copy.
+     * @return a frozen copy of the tree.
+     */
+    public SBFrozenTree freeze(){
+        return new SBFrozenTree(root);
+    }
+    /** 
+     * Makes a node writable without disturbing any snapshot sharing it. If
+     * the node belongs to a snapshot, it and each ancestor also belonging to
+     * one are replaced in the tree by copies of the current version. 
+     * Ancestors of a node of the current version are always of the current
+     * version themselves.
+     * @param node A node in the tree, or in a subtree detached from it.
+     * @return the node, or the copy which took its place.
+     */
+    SBNode thaw(SBNode node){
+        if(!shared || node.version==version){return node;}
+        ArrayList<SBNode> path=new ArrayList<>();
+        for(SBNode n=node;n!=null && n.version!=version;n=n.parent){path.add(n);}
+        SBNode copy=null;
+        for(int i=path.size()-1;i>=0;i--){
+            SBNode original=path.get(i);
+            copy=original.copy(version);
+            if(valueindex!=null){valueindex.moved(original,copy);}
+            // Snapshots never follow parent links, so they can be rewritten
+            if(copy.left!=null){copy.left.parent=copy;}
+            if(copy.right!=null){copy.right.parent=copy;}
+            if(copy.parent==null){
+                if(original==root){root=copy;}
+            }else if(copy.parent.left==original){
+                copy.parent.left=copy;
+            }else{
+                copy.parent.right=copy;
+            }
+        }
+        modcount++;
+        return copy;
+    }
+    /** 
+     * Makes a node writable, along with the nodes its removal would write to.
+     * @param node A node in the tree.
+     * @return the node, or the copy which took its place.
+     */
+    private SBNode thawRemoval(SBNode node){
+        node=thaw(node);
+        if(node.left!=null){thaw(node.left.rightMostNode());}
+        return node;
+    }
+    /** 
+     * Makes the nodes along the search path for a key writable.
+     * @param subtree The root of the tree or of a subtree detached from it.
+     * @param key A key.
+     * @return the root of the subtree, or the copy which took its place.
+     */
+    private SBNode thawPath(SBNode subtree,Comparable key){
+        if(!shared || subtree==null){return subtree;}
+        SBNode node=thaw(subtree.findClosestNode(key));
+        while(node.parent!=null){node=node.parent;}
+        return node;
+    }
+    /** 
+     * Copies every node of the tree which may be shared with a snapshot, for
+     * operations which rewrite the whole tree anyway.
+     */
+    private void unshare(){
+        if(shared){
+            try{
+                root=(root==null)?null:root.clone();
+            }catch(CloneNotSupportedException e){
+                throw new InternalError(e);
+            }
+            if(valueindex!=null){valueindex=new SBValueIndex(root);}
+            shared=false;
+            modcount++;
+        }
+    }
     /** @return an array of all values in the tree. */
     public Object[] toArray(){
         return toArray(SORTINORDER);
@@ -413,6 +987,48 @@ public class SBTree implements Cloneable {
         }
         return null;
     }
+    /** 
+     * Returns an array of all values in the tree, ordered as they are by
+     * toArray(). Subtrees are copied on separate threads, each one writing
+     * straight into its own part of the array.
+     * @return an array of all values in the tree, null if none exist.
+     */
+    public Object[] parallelToArray(){
+        return (root==null)?null:SBParallel.valuesInOrder(root);
+    }
+    /** 
+     * Performs an action for every value in the tree, using several threads.
+     * The tree mustn't be modified until this returns.
+     * @param action The action, which may be performed on the values in any
+     * order and on several threads at once.
+     */
+    public void parallelForEach(Consumer<Object> action){
+        SBParallel.forEach(root,action);
+    }
+    /** 
+     * Folds all values in the tree into a single result, using several
+     * threads. Values are folded in the order they appear in toArray(), so
+     * the combiner needn't be commutative, only associative.
+     * @param identity The identity value of the combiner, which is also the
+     * result if the tree is empty.
+     * @param accumulator Function folds a value into a partial result.
+     * @param combiner Function combines two partial results, the first of
+     * which covers values before those of the second.
+     * @return the result.
+     */
+    public <U> U parallelReduce(U identity,BiFunction<U,Object,U> accumulator,BinaryOperator<U> combiner){
+        return SBParallel.reduce(root,identity,accumulator,combiner);
+    }
+    /** 
+     * Counts the values in the tree which satisfy a predicate, using several
+     * threads.
+     * @param predicate A predicate, which may be tested on several threads at
+     * once.
+     * @return the number of matching values.
+     */
+    public int parallelCount(Predicate<Object> predicate){
+        return SBParallel.count(root,predicate);
+    }
     /** @return an array of all nodes in the tree. */
     public SBNode[] toNodeArray(){
         return toNodeArray(SORTINORDER);
@@ -456,20 +1072,621 @@ public class SBTree implements Cloneable {
         for(Object[] value:array){insert((Comparable)value[0],value[1]);}
     }
     /** 
-     * Splays the tree so that the specified node becomes the new root.
-     * @param node The node which is to become the new root.
+     * Builds a balanced tree from keys which are already sorted, in linear
+     * time. Inserted values will have themselves as the keys, and equal keys
+     * share a node.
+     * @param array An array of keys in ascending order.
+     * @return the new tree.
+     * @throws IllegalArgumentException if the keys are out of order.
      */
-    public void splay(SBNode node){
-        if(root!=null && node!=null){root=root.splay(node);}
+    public static SBTree fromSorted(Comparable[] array){
+        SBTree tree=new SBTree(); tree.bulkLoadSorted(array); return tree;
+    }
+    /** 
+     * Builds a balanced tree from key, value pairs which are already sorted
+     * by key, in linear time. The value at index 0 of each pair will be the
+     * key and the value at index 1 will be the value. Values of equal keys
+     * share a node and keep their order.
+     * @param array An array of key, value pairs in ascending order of key.
+     * @return the new tree.
+     * @throws IllegalArgumentException if the keys are out of order.
+     */
+    public static SBTree fromSorted(Object[][] array){
+        SBTree tree=new SBTree(); tree.bulkLoadSorted(array); return tree;
+    }
+    /** 
+     * Builds a balanced tree from key, value pairs which are already sorted
+     * by key, in linear time.
+     * @param pairs An iterator over key, value pairs in ascending order of key.
+     * @return the new tree.
+     * @throws IllegalArgumentException if the keys are out of order.
+     */
+    public static SBTree fromSorted(Iterator<? extends Object[]> pairs){
+        SBTree tree=new SBTree(); tree.bulkLoadSorted(pairs); return tree;
+    }
+    /** 
+     * Builds a balanced tree from key, value pairs which are already sorted
+     * by key, in linear time.
+     * @param pairs A sequential stream of key, value pairs in ascending order
+     * of key.
+     * @return the new tree.
+     * @throws IllegalArgumentException if the keys are out of order.
+     */
+    public static SBTree fromSorted(Stream<? extends Object[]> pairs){
+        SBTree tree=new SBTree(); tree.bulkLoadSorted(pairs); return tree;
+    }
+    /** 
+     * Loads keys which are already sorted into the tree. Into an empty tree
+     * this takes linear time and the result is perfectly balanced, otherwise
+     * the keys are merged in as by insertBatch(). Inserted values will have
+     * themselves as the keys.
+     * @param array An array of keys in ascending order.
+     * @throws IllegalArgumentException if the keys are out of order.
+     */
+    public void bulkLoadSorted(Comparable[] array){
+        ArrayList<SBNode> nodes=new ArrayList<>(array.length); SBNode last=null;
+        for(Comparable key:array){last=appendSorted(nodes,last,key,key);}
+        mergeSorted(nodes);
+    }
+    /** 
+     * Loads key, value pairs which are already sorted by key into the tree.
+     * Into an empty tree this takes linear time and the result is perfectly
+     * balanced, otherwise the pairs are merged in as by insertBatch(). The
+     * value at index 0 of each pair will be the key and the value at index 1
+     * will be the value.
+     * @param array An array of key, value pairs in ascending order of key.
+     * @throws IllegalArgumentException if the keys are out of order.
+     */
+    public void bulkLoadSorted(Object[][] array){
+        ArrayList<SBNode> nodes=new ArrayList<>(array.length); SBNode last=null;
+        for(Object[] pair:array){last=appendSorted(nodes,last,(Comparable)pair[0],pair[1]);}
+        mergeSorted(nodes);
+    }
+    /** 
+     * Loads key, value pairs which are already sorted by key into the tree.
+     * @param pairs An iterator over key, value pairs in ascending order of key.
+     * @throws IllegalArgumentException if the keys are out of order.
+     */
+    public void bulkLoadSorted(Iterator<? extends Object[]> pairs){
+        ArrayList<SBNode> nodes=new ArrayList<>(); SBNode last=null;
+        while(pairs.hasNext()){
+            Object[] pair=pairs.next();
+            last=appendSorted(nodes,last,(Comparable)pair[0],pair[1]);
+        }
+        mergeSorted(nodes);
+    }
+    /** 
+     * Loads key, value pairs which are already sorted by key into the tree.
+     * @param pairs A sequential stream of key, value pairs in ascending order
+     * of key.
+     * @throws IllegalArgumentException if the keys are out of order.
+     */
+    public void bulkLoadSorted(Stream<? extends Object[]> pairs){
+        bulkLoadSorted(pairs.iterator());
+    }
+    /** 
+     * Inserts a batch of keys into the tree, in any order. Inserted values
+     * will have themselves as the keys. See insertBatch(Object[][]).
+     * @param array An array of keys.
+     */
+    public void insertBatch(Comparable[] array){
+        Object[][] pairs=new Object[array.length][];
+        for(int i=0;i<array.length;i++){pairs[i]=new Object[]{array[i],array[i]};}
+        insertSortedBatch(pairs);
+    }
+    /** 
+     * Inserts a batch of key, value pairs into the tree, in any order. The
+     * value at index 0 of each pair will be the key and the value at index 1
+     * will be the value. This has the same result as inserting the pairs one
+     * at a time, values of the same key keeping the order they appear in, but
+     * the batch is sorted and merged into the tree in one ordered pass rather
+     * than searched for and splayed pair by pair.
+     * 
+     * A batch which is large next to the tree is merged with the tree's nodes
+     * and the lot rebuilt balanced, in linear time. A smaller one is inserted
+     * key by key, each search starting from where the last one ended, and
+     * new keys falling between the same two existing ones are attached as a
+     * single balanced subtree. That takes about O(m log(n/m+1)) comparisons.
+     * @param array An array of key, value pairs.
+     */
+    public void insertBatch(Object[][] array){
+        insertSortedBatch(array.clone());
+    }
+    /** 
+     * Convenience function sorts a batch, which may be modified, and merges
+     * it into the tree.
+     * @param pairs An array of key, value pairs.
+     */
+    private void insertSortedBatch(Object[][] pairs){
+        // The sort is stable, so values of equal keys keep their order
+        Arrays.sort(pairs,(a,b)->((Comparable)a[0]).compareTo(b[0]));
+        ArrayList<SBNode> nodes=new ArrayList<>(pairs.length); SBNode last=null;
+        for(Object[] pair:pairs){last=appendSorted(nodes,last,(Comparable)pair[0],pair[1]);}
+        mergeSorted(nodes);
+    }
+    /** 
+     * Convenience function adds a key, value pair to the end of a sorted list
+     * of unlinked nodes.
+     * @param nodes The nodes so far.
+     * @param last The last node in the list, null if it's empty.
+     * @param key A key, which mustn't be less than that of the last node.
+     * @param value A value.
+     * @return the node now last in the list.
+     * @throws IllegalArgumentException if the key is out of order.
+     */
+    private static SBNode appendSorted(ArrayList<SBNode> nodes,SBNode last,Comparable key,Object value){
+        if(last!=null){
+            int comparison=key.compareTo(last.key);
+            if(comparison==0){
+                last.addValue(value); return last;
+            }else if(comparison<0){
+                throw new IllegalArgumentException("Keys are not sorted: "+key+" follows "+last.key);
+            }
+        }
+        SBNode node=new SBNode(key,value);
+        nodes.add(node);
+        return node;
+    }
+    /** 
+     * Convenience function merges a sorted list of unlinked nodes with
+     * distinct keys into the tree. Nodes whose keys are already in the tree
+     * have their values added to the existing nodes.
+     * @param nodes The nodes, in order.
+     */
+    private void mergeSorted(ArrayList<SBNode> nodes){
+        if(nodes.isEmpty()){return;}
+        long values=0;
+        for(SBNode node:nodes){values+=node.valuecount;}
+        unshare();
+        if(root==null){
+            SBNode[] array=nodes.toArray(new SBNode[nodes.size()]);
+            root=SBNode.optimizeSub(0,array.length-1,array);
+            modcount++;
+        }else{
+            int m=nodes.size(),n=root.subtreesize;
+            int log=32-Integer.numberOfLeadingZeros(n);
+            if((long)m*log>=n){
+                mergeRebuild(nodes);
+            }else{
+                mergeFinger(nodes);
+            }
+        }
+        if(valueindex!=null){
+            for(SBNode node:nodes){
+                // Nodes whose keys were already in the tree gave it their values
+                if(node.parent!=null || node==root){
+                    valueindex.addAll(node);
+                }else{
+                    SBNode existing=root.findNode(node.key);
+                    for(int i=0;i<node.valuecount;i++){valueindex.add(node.getValue(i),existing);}
+                }
+            }
+        }
+        if(metrics!=null){metrics.inserted(values);}
+        if(rebalancer!=null){rebalancer.reset();}
+    }
+    /** 
+     * Convenience function merges a sorted list of unlinked nodes into the
+     * tree by merging them with the tree's own nodes and rebuilding it.
+     * @param nodes The nodes, in order.
+     */
+    private void mergeRebuild(ArrayList<SBNode> nodes){
+        SBNode[] existing=root.nodesInOrder();
+        root.clearLinks();
+        SBNode[] array=new SBNode[existing.length+nodes.size()];
+        int i=0,j=0,k=0;
+        while(i<existing.length && j<nodes.size()){
+            SBNode node=nodes.get(j);
+            int comparison=node.key.compareTo(existing[i].key);
+            if(comparison<0){
+                array[k++]=node; j++;
+            }else if(comparison>0){
+                array[k++]=existing[i++];
+            }else{
+                existing[i].addValues(node);
+                array[k++]=existing[i++]; j++;
+            }
+        }
+        while(i<existing.length){array[k++]=existing[i++];}
+        while(j<nodes.size()){array[k++]=nodes.get(j++);}
+        root=SBNode.optimizeSub(0,k-1,array);
+        if(k>existing.length){modcount++;}
+    }
+    /** 
+     * Convenience function merges a sorted list of unlinked nodes into the
+     * tree without rebuilding it. Each search starts from the node where the
+     * previous one ended, climbing only as far as it must. Runs of new keys
+     * which fall between the same two existing keys are attached as one
+     * balanced subtree, so sorted batches don't grow long chains.
+     * @param nodes The nodes, in order.
+     */
+    private void mergeFinger(ArrayList<SBNode> nodes){
+        SBNode finger=null;
+        int i=0;
+        while(i<nodes.size()){
+            Comparable key=nodes.get(i).key;
+            // The least existing node found with a key greater than key
+            SBNode bound=null,found=null;
+            SBNode start=root;
+            if(finger!=null){
+                // Climb until key is known to belong in start's subtree
+                start=finger;
+                while(start.parent!=null){
+                    if(start.parent.left==start){
+                        int comparison=start.parent.key.compareTo(key);
+                        if(comparison==0){
+                            found=start.parent; break;
+                        }else if(comparison>0){
+                            bound=start.parent; break;
+                        }
+                    }
+                    start=start.parent;
+                }
+            }
+            SBNode parent=null; boolean leftside=false;
+            for(SBNode node=start;found==null && node!=null;){
+                int comparison=key.compareTo(node.key);
+                if(comparison==0){
+                    found=node;
+                }else{
+                    parent=node;
+                    leftside=comparison<0;
+                    if(leftside){bound=node; node=node.left;}else{node=node.right;}
+                }
+            }
+            if(found!=null){
+                found.addValues(nodes.get(i));
+                finger=found; i++;
+                continue;
+            }
+            int end=i+1;
+            while(end<nodes.size() && (bound==null || nodes.get(end).key.compareTo(bound.key)<0)){end++;}
+            SBNode subtree;
+            if(end==i+1){
+                subtree=nodes.get(i); finger=subtree;
+            }else{
+                SBNode[] run=nodes.subList(i,end).toArray(new SBNode[end-i]);
+                subtree=SBNode.optimizeSub(0,run.length-1,run);
+                finger=run[run.length-1];
+            }
+            subtree.parent=parent;
+            if(leftside){parent.left=subtree;}else{parent.right=subtree;}
+            parent.addCounts(subtree.subtreesize,subtree.subtreevaluessize);
+            i=end;
+            modcount++;
+        }
+    }
+    /** 
+     * Lazily iterates through the nodes with keys in the range [lo,hi), in
+     * ascending order.
+     * @param lo The lower bound, null for none.
+     * @param hi The upper bound, null for none.
+     * @return a fail-fast iterator over the nodes in the range.
+     */
+    public Iterator<SBNode> findRange(Comparable lo,Comparable hi){
+        return findRange(lo,true,hi,false,false);
+    }
+    /** 
+     * Lazily iterates through the nodes with keys in a range. The end of the
+     * range iteration starts from is found once, and the rest are reached by
+     * following links from there, so visiting k nodes takes O(log n + k) time
+     * and no intermediate arrays are built.
+     * @param lo The lower bound, null for none.
+     * @param loinclusive Whether the lower bound is part of the range.
+     * @param hi The upper bound, null for none.
+     * @param hiinclusive Whether the upper bound is part of the range.
+     * @param descending Whether to iterate from the upper bound down.
+     * @return a fail-fast iterator over the nodes in the range.
+     */
+    public Iterator<SBNode> findRange(Comparable lo,boolean loinclusive,Comparable hi,boolean hiinclusive,boolean descending){
+        return rangeMap(lo,loinclusive,hi,hiinclusive,descending).nodeIterator(false);
+    }
+    /** 
+     * Lazily iterates through the values of nodes with keys in the range
+     * [lo,hi), in ascending order of key and oldest first within a key.
+     * @param lo The lower bound, null for none.
+     * @param hi The upper bound, null for none.
+     * @return a fail-fast iterator over the values in the range.
+     */
+    public Iterator<Object> valuesInRange(Comparable lo,Comparable hi){
+        return valuesInRange(lo,true,hi,false,false);
+    }
+    /** 
+     * Lazily iterates through the values of nodes with keys in a range. Each
+     * node's values are visited oldest first, whichever order the nodes are
+     * visited in, as they are by toArray().
+     * @param lo The lower bound, null for none.
+     * @param loinclusive Whether the lower bound is part of the range.
+     * @param hi The upper bound, null for none.
+     * @param hiinclusive Whether the upper bound is part of the range.
+     * @param descending Whether to iterate from the upper bound down.
+     * @return a fail-fast iterator over the values in the range.
+     */
+    public Iterator<Object> valuesInRange(Comparable lo,boolean loinclusive,Comparable hi,boolean hiinclusive,boolean descending){
+        return rangeMap(lo,loinclusive,hi,hiinclusive,descending).valueIterator();
+    }
+    /** 
+     * Performs an action for every node with a key in the range [lo,hi), in
+     * ascending order.
+     * @param lo The lower bound, null for none.
+     * @param hi The upper bound, null for none.
+     * @param visitor The action, which mustn't add or remove nodes.
+     */
+    public void visitRange(Comparable lo,Comparable hi,Consumer<SBNode> visitor){
+        visitRange(lo,true,hi,false,false,visitor);
+    }
+    /** 
+     * Performs an action for every node with a key in a range.
+     * @param lo The lower bound, null for none.
+     * @param loinclusive Whether the lower bound is part of the range.
+     * @param hi The upper bound, null for none.
+     * @param hiinclusive Whether the upper bound is part of the range.
+     * @param descending Whether to visit from the upper bound down.
+     * @param visitor The action, which mustn't add or remove nodes.
+     */
+    public void visitRange(Comparable lo,boolean loinclusive,Comparable hi,boolean hiinclusive,boolean descending,Consumer<SBNode> visitor){
+        rangeMap(lo,loinclusive,hi,hiinclusive,descending).visit(visitor);
+    }
+    /** 
+     * Counts the nodes with keys in the range [lo,hi) in O(log n) time, using
+     * the subtree sizes rather than visiting them.
+     * @param lo The lower bound, null for none.
+     * @param hi The upper bound, null for none.
+     * @return the number of keys in the range.
+     */
+    public int countRange(Comparable lo,Comparable hi){
+        return countRange(lo,true,hi,false);
+    }
+    /** 
+     * Counts the nodes with keys in a range in O(log n) time.
+     * @param lo The lower bound, null for none.
+     * @param loinclusive Whether the lower bound is part of the range.
+     * @param hi The upper bound, null for none.
+     * @param hiinclusive Whether the upper bound is part of the range.
+     * @return the number of keys in the range.
+     */
+    public int countRange(Comparable lo,boolean loinclusive,Comparable hi,boolean hiinclusive){
+        return rangeMap(lo,loinclusive,hi,hiinclusive,false).size();
+    }
+    /** 
+     * Counts the values of nodes with keys in the range [lo,hi) in O(log n)
+     * time.
+     * @param lo The lower bound, null for none.
+     * @param hi The upper bound, null for none.
+     * @return the number of values in the range.
+     */
+    public int countValuesInRange(Comparable lo,Comparable hi){
+        return countValuesInRange(lo,true,hi,false);
+    }
+    /** 
+     * Counts the values of nodes with keys in a range in O(log n) time.
+     * @param lo The lower bound, null for none.
+     * @param loinclusive Whether the lower bound is part of the range.
+     * @param hi The upper bound, null for none.
+     * @param hiinclusive Whether the upper bound is part of the range.
+     * @return the number of values in the range.
+     */
+    public int countValuesInRange(Comparable lo,boolean loinclusive,Comparable hi,boolean hiinclusive){
+        return rangeMap(lo,loinclusive,hi,hiinclusive,false).valuesSize();
+    }
+    /** 
+     * Convenience function gets a view of a range of the tree. If the tree
+     * splays after searches, the end of the range to be searched for first
+     * is splayed to the root, which makes finding it again cheap and keeps
+     * repeated queries over nearby ranges fast.
+     * @param lo The lower bound, null for none.
+     * @param loinclusive Whether the lower bound is part of the range.
+     * @param hi The upper bound, null for none.
+     * @param hiinclusive Whether the upper bound is part of the range.
+     * @param descending Whether the view is in descending order.
+     * @return the view.
+     */
+    private SBTreeMap rangeMap(Comparable lo,boolean loinclusive,Comparable hi,boolean hiinclusive,boolean descending){
+        Comparable first=descending?hi:lo;
+        if(searchpolicy!=SBSplayPolicy.NEVER && root!=null && first!=null){access(first,searchpolicy);}
+        return new SBTreeMap(this,lo==null,lo,loinclusive,hi==null,hi,hiinclusive,descending);
+    }
+    /** 
+     * Splits the tree in two at a key. Only the nodes along the splay path are
+     * touched, so this takes amortized O(log n) time. The tree itself is left
+     * empty, and the two new trees are splayed the same way it was.
+     * @param key A key.
+     * @return an array of two trees, the first holding the nodes with keys
+     * less than the specified key and the second the rest.
+     */
+    public SBTree[] split(Comparable key){
+        int size=size();
+        SBNode[] parts=splitRoot(root,key,false);
+        if(root!=null){root=null; modcount++;}
+        if(valueindex!=null){valueindex.clear();}
+        if(metrics!=null){metrics.removed(size);}
+        if(rebalancer!=null){rebalancer.reset();}
+        return new SBTree[]{
+            newTree(parts[0]),
+            newTree(parts[1])
+        };
+    }
+    /** 
+     * Moves all nodes of another tree into this one. Every key in one tree
+     * must be less than every key in the other, though either tree may be
+     * the one with the lesser keys. Only the nodes along the right spine of
+     * the lesser tree are touched, so this takes amortized O(log n) time. The
+     * other tree is left empty.
+     * @param other A tree whose keys don't overlap this one's.
+     * @throws IllegalArgumentException if the trees' keys overlap, or if the
+     * other tree is this one.
+     */
+    public void join(SBTree other){
+        if(other==this){throw new IllegalArgumentException("Cannot join a tree with itself");}
+        if(other.root==null){return;}
+        if(other.shared){
+            // Nodes of the other tree's version may belong to its snapshots,
+            // so none of the joined tree's nodes can be assumed writable
+            version=VERSIONS.incrementAndGet();
+            shared=true;
+        }
+        boolean otherlower=false;
+        if(root!=null && !(root.rightMostNode().key.compareTo(other.root.leftMostNode().key)<0)){
+            if(!(other.root.rightMostNode().key.compareTo(root.leftMostNode().key)<0)){
+                throw new IllegalArgumentException("Trees have overlapping keys");
+            }
+            otherlower=true;
+        }
+        int size=other.size(),values=other.valuesSize();
+        // Indexed before joining, since that may copy some of the nodes
+        if(valueindex!=null){valueindex.addSubtree(other.root);}
+        if(other.valueindex!=null){other.valueindex.clear();}
+        if(root==null){
+            root=other.root;
+        }else if(otherlower){
+            root=joinRoots(other.root,root);
+        }else{
+            root=joinRoots(root,other.root);
+        }
+        other.root=null;
+        modcount++; other.modcount++;
+        if(metrics!=null){metrics.inserted(values);}
+        if(rebalancer!=null){rebalancer.reset();}
+        if(other.metrics!=null){other.metrics.removed(size);}
+        if(other.rebalancer!=null){other.rebalancer.reset();}
+    }
+    /** 
+     * Removes all nodes with keys in the range [lo,hi) from the tree.
+     * @param lo The lower bound, null for none.
+     * @param hi The upper bound, null for none.
+     * @return a tree holding the removed nodes.
+     */
+    public SBTree removeRange(Comparable lo,Comparable hi){
+        return removeRange(lo,true,hi,false);
+    }
+    /** 
+     * Removes all nodes with keys in a range from the tree. The range is cut
+     * out by splitting the tree at both bounds and joining what's left, so
+     * however many nodes are removed, this takes amortized O(log n) time and
+     * leaves the remaining tree no deeper than it was. The removed nodes are
+     * handed back intact as a tree of their own.
+     * @param lo The lower bound, null for none.
+     * @param loinclusive Whether the lower bound is part of the range.
+     * @param hi The upper bound, null for none.
+     * @param hiinclusive Whether the upper bound is part of the range.
+     * @return a tree holding the removed nodes, which is splayed the same way
+     * as this one.
+     */
+    public SBTree removeRange(Comparable lo,boolean loinclusive,Comparable hi,boolean hiinclusive){
+        SBNode lower=null,middle=root,upper=null;
+        if(lo!=null){
+            SBNode[] parts=splitRoot(middle,lo,!loinclusive);
+            lower=parts[0]; middle=parts[1];
+        }
+        if(hi!=null){
+            SBNode[] parts=splitRoot(middle,hi,hiinclusive);
+            middle=parts[0]; upper=parts[1];
+        }
+        root=joinRoots(lower,upper);
+        if(middle!=null){modcount++;}
+        if(valueindex!=null){valueindex.removeSubtree(middle);}
+        if(metrics!=null){metrics.removed((middle==null)?0:middle.subtreesize);}
+        if(rebalancer!=null){rebalancer.reset();}
+        return newTree(middle);
+    }
+    /** 
+     * Removes all nodes with keys less than the specified key.
+     * @param key A key.
+     * @return a tree holding the removed nodes.
+     */
+    public SBTree removeHead(Comparable key){
+        return removeRange(null,true,key,false);
+    }
+    /** 
+     * Removes all nodes with keys less than, or if inclusive is true equal
+     * to, the specified key.
+     * @param key A key.
+     * @param inclusive Whether a node with the key itself is removed.
+     * @return a tree holding the removed nodes.
+     */
+    public SBTree removeHead(Comparable key,boolean inclusive){
+        return removeRange(null,true,key,inclusive);
+    }
+    /** 
+     * Removes all nodes with keys greater than or equal to the specified key.
+     * @param key A key.
+     * @return a tree holding the removed nodes.
+     */
+    public SBTree removeTail(Comparable key){
+        return removeRange(key,true,null,false);
+    }
+    /** 
+     * Removes all nodes with keys greater than, or if inclusive is true equal
+     * to, the specified key.
+     * @param key A key.
+     * @param inclusive Whether a node with the key itself is removed.
+     * @return a tree holding the removed nodes.
+     */
+    public SBTree removeTail(Comparable key,boolean inclusive){
+        return removeRange(key,inclusive,null,false);
+    }
+    /** 
+     * @param subtree The root of a subtree with no parent, or null.
+     * @return a new tree with the subtree as its root, splayed the same way as
+     * this one.
+     */
+    private SBTree newTree(SBNode subtree){
+        SBTree tree=new SBTree(subtree);
+        tree.insertionpolicy=insertionpolicy;
+        tree.searchpolicy=searchpolicy;
+        tree.version=version;
+        tree.shared=shared && subtree!=null;
+        return tree;
+    }
+    /** 
+     * Convenience function splits a subtree in two at a key.
+     * @param subtree The root of a subtree with no parent, or null.
+     * @param key A key.
+     * @param inclusive Whether a node with the key itself goes in the lower part.
+     * @return an array of two subtree roots, the first holding the nodes with
+     * keys less than (or equal to, if inclusive is true) the key and the
+     * second the rest. Either may be null.
+     */
+    private SBNode[] splitRoot(SBNode subtree,Comparable key,boolean inclusive){
+        SBNode lower=null,upper=null;
+        if(subtree!=null){
+            subtree=thawPath(subtree,key).splayKey(key);
+            int comparison=subtree.key.compareTo(key);
+            if(comparison<0 || (comparison==0 && inclusive)){
+                lower=subtree; upper=subtree.right;
+                subtree.right=null;
+            }else{
+                upper=subtree; lower=subtree.left;
+                subtree.left=null;
+            }
+            subtree.updateCounts();
+            if(lower!=null){lower.parent=null;}
+            if(upper!=null){upper.parent=null;}
+        }
+        return new SBNode[]{lower,upper};
+    }
+    /** 
+     * Convenience function joins two subtrees whose keys don't overlap.
+     * @param lower The root of a subtree with no parent, or null.
+     * @param upper The root of a subtree with no parent whose keys are all
+     * greater than those of the lower one, or null.
+     * @return the root of the joined subtree.
+     */
+    private SBNode joinRoots(SBNode lower,SBNode upper){
+        if(lower==null){return upper;}
+        if(upper==null){return lower;}
+        // With its greatest node at the root, the lower subtree has no right subtree
+        lower=thaw(lower.rightMostNode()).splayUp();
+        lower.right=upper; upper.parent=lower;
+        lower.updateCounts();
+        return lower;
     }
     /** 
      * Splays the tree so that the specified node becomes the new root.
      * @param node The node which is to become the new root.
-     * @param splayed Boolean determines whether it actually happens. (This is
-     * really just a convenience function.)
      */
-    private void splay(SBNode node,boolean splayed){
-        if(splayed && root!=null && node!=null){root=root.splay(node);}
+    public void splay(SBNode node){
+        if(root!=null && node!=null){root=thawPath(root,node.key).splayKey(node.key);}
     }
     /** @return the leftmost node in the tree. */
     public SBNode leftMostNode(){
@@ -479,6 +1696,70 @@ public class SBTree implements Cloneable {
     public SBNode rightMostNode(){
         return (root==null)?null:root.rightMostNode();
     }
+    /** 
+     * @return a NavigableMap view of the tree which maps each key to its node.
+     * Changes to the tree show through the view, and nodes removed through the
+     * view are removed from the tree.
+     */
+    public NavigableMap<Comparable,SBNode> asMap(){
+        return new SBTreeMap(this);
+    }
+    /** 
+     * @return a NavigableMap view of the tree in descending order.
+     */
+    public NavigableMap<Comparable,SBNode> descendingMap(){
+        return new SBTreeMap(this).descendingMap();
+    }
+    /** 
+     * @param tokey The upper bound.
+     * @param inclusive Whether the upper bound is part of the view.
+     * @return a NavigableMap view of the part of the tree whose keys are less
+     * than (or equal to, if inclusive is true) tokey.
+     */
+    public NavigableMap<Comparable,SBNode> headMap(Comparable tokey,boolean inclusive){
+        return new SBTreeMap(this).headMap(tokey,inclusive);
+    }
+    /** 
+     * @param fromkey The lower bound.
+     * @param inclusive Whether the lower bound is part of the view.
+     * @return a NavigableMap view of the part of the tree whose keys are
+     * greater than (or equal to, if inclusive is true) fromkey.
+     */
+    public NavigableMap<Comparable,SBNode> tailMap(Comparable fromkey,boolean inclusive){
+        return new SBTreeMap(this).tailMap(fromkey,inclusive);
+    }
+    /** 
+     * @param fromkey The lower bound.
+     * @param frominclusive Whether the lower bound is part of the view.
+     * @param tokey The upper bound.
+     * @param toinclusive Whether the upper bound is part of the view.
+     * @return a NavigableMap view of the part of the tree whose keys fall
+     * between fromkey and tokey.
+     */
+    public NavigableMap<Comparable,SBNode> subMap(Comparable fromkey,boolean frominclusive,Comparable tokey,boolean toinclusive){
+        return new SBTreeMap(this).subMap(fromkey,frominclusive,tokey,toinclusive);
+    }
+    /** @return a Set view of the tree's key, node pairs in order. */
+    public Set<Map.Entry<Comparable,SBNode>> entrySet(){
+        return new SBTreeMap(this).entrySet();
+    }
+    /** @return a fail-fast iterator over the tree's nodes in order. */
+    @Override
+    public Iterator<SBNode> iterator(){
+        return new SBTreeMap(this).nodeIterator(false);
+    }
+    /** 
+     * @return a fail-fast spliterator over the tree's nodes in order, which
+     * splits on subtree boundaries.
+     */
+    @Override
+    public Spliterator<SBNode> spliterator(){
+        return new SBTreeMap(this).values().spliterator();
+    }
+    /** @return a sequential Stream of the tree's nodes in order. */
+    public Stream<SBNode> stream(){
+        return StreamSupport.stream(spliterator(),false);
+    }
     /** 
      * @return a clone of the tree. 
      * @throws java.lang.CloneNotSupportedException 
@@ -486,9 +1767,13 @@ public class SBTree implements Cloneable {
     @Override
     public SBTree clone() throws CloneNotSupportedException {
         SBTree tree=(SBTree)super.clone();
-        tree.splayedinsertion=splayedinsertion;
-        tree.splayedsearch=splayedsearch;
+        tree.insertionpolicy=insertionpolicy;
+        tree.searchpolicy=searchpolicy;
         tree.root=(root==null)?null:root.clone();
+        tree.shared=false;
+        tree.metrics=null;
+        tree.rebalancer=null;
+        tree.valueindex=null;
         return tree;
     }
     /** @return a String representation of the tree. */
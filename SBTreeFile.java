@@ -0,0 +1,261 @@
+/*
+ * This code is released as public domain. But that doesn't mean you should
+ * claim credit that isn't yours or sell it when it could otherwise be had for
+ * free, because that would be a shitty thing of you to do.
+ * It was originally written by Sophie Kirschner. (sophiek@pineapplemachine.com)
+ */
+
+package SBTree;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedList;
+
+/**
+ * The SBTreeFile class saves trees to files and loads them back again, in a
+ * compact binary format. Keys and values are turned into bytes by SBCodecs,
+ * which must be the same when loading as when saving.
+ *
+ * A file begins with a header: the magic number, the format version, and the
+ * number of nodes and of values. Then comes a record for every node in
+ * pre-order, each holding a byte of flags saying whether the node has a left
+ * and a right child, the key, the number of values, and the values. That's
+ * enough to rebuild the tree in exactly the same shape, in linear time and
+ * without comparing a single key.
+ *
+ * Files are written and read through a FileChannel, using a large direct
+ * buffer which grows if a single record won't fit in it. Saving an SBSnapshot
+ * rather than a tree lets other threads go on writing to the tree meanwhile.
+ *
+ * @author Sophie Kirschner
+ */
+public class SBTreeFile {
+    /** The first four bytes of every file, "SBTF". */
+    final static public int MAGIC=0x53425446;
+    /** The version of the format written. */
+    final static public int FORMAT=1;
+    /** The size of the buffers used to read and write files. */
+    final static public int BUFFERSIZE=1<<22;
+    /** Flag set in a node record if the node has a left child. */
+    final static int HASLEFT=1;
+    /** Flag set in a node record if the node has a right child. */
+    final static int HASRIGHT=2;
+    private SBTreeFile(){}
+    /**
+     * Saves a tree to a file, replacing whatever the file held. The tree isn't
+     * splayed.
+     * @param tree A tree.
+     * @param path The file.
+     * @param keycodec Codec for the keys.
+     * @param valuecodec Codec for the values.
+     * @throws IOException if the file can't be written or a key or value
+     * can't be encoded.
+     */
+    public static void save(SBTree tree,Path path,SBCodec keycodec,SBCodec valuecodec) throws IOException{
+        save(tree.root,path,keycodec,valuecodec);
+    }
+    /**
+     * Saves a snapshot to a file, replacing whatever the file held.
+     * @param snapshot A snapshot.
+     * @param path The file.
+     * @param keycodec Codec for the keys.
+     * @param valuecodec Codec for the values.
+     * @throws IOException if the file can't be written or a key or value
+     * can't be encoded.
+     */
+    public static void save(SBSnapshot snapshot,Path path,SBCodec keycodec,SBCodec valuecodec) throws IOException{
+        save(snapshot.root(),path,keycodec,valuecodec);
+    }
+    /**
+     * Loads a tree from a file.
+     * @param path The file.
+     * @param keycodec Codec for the keys.
+     * @param valuecodec Codec for the values.
+     * @return a new tree, in the same shape as the one which was saved.
+     * @throws IOException if the file can't be read or isn't a valid tree
+     * file.
+     */
+    public static SBTree load(Path path,SBCodec keycodec,SBCodec valuecodec) throws IOException{
+        try(FileChannel channel=FileChannel.open(path,StandardOpenOption.READ)){
+            return new SBTree(read(channel,keycodec,valuecodec));
+        }
+    }
+    /**
+     * Saves a subtree to a file.
+     * @param root The root of the subtree, or null.
+     * @param path The file.
+     * @param keycodec Codec for the keys.
+     * @param valuecodec Codec for the values.
+     * @throws IOException if the file can't be written or a key or value
+     * can't be encoded.
+     */
+    private static void save(SBNode root,Path path,SBCodec keycodec,SBCodec valuecodec) throws IOException{
+        try(FileChannel channel=FileChannel.open(path,
+            StandardOpenOption.WRITE,StandardOpenOption.CREATE,StandardOpenOption.TRUNCATE_EXISTING
+        )){
+            write(channel,root,keycodec,valuecodec);
+        }
+    }
+    /**
+     * Writes a subtree to a channel. Only links from parents to children are
+     * followed, so this works for snapshots too.
+     * @param channel The channel.
+     * @param root The root of the subtree, or null.
+     * @param keycodec Codec for the keys.
+     * @param valuecodec Codec for the values.
+     * @throws IOException if the channel can't be written or a key or value
+     * can't be encoded.
+     */
+    static void write(FileChannel channel,SBNode root,SBCodec keycodec,SBCodec valuecodec) throws IOException{
+        ByteBuffer buffer=ByteBuffer.allocateDirect(BUFFERSIZE);
+        buffer.putInt(MAGIC).putInt(FORMAT);
+        buffer.putInt((root==null)?0:root.subtreesize);
+        buffer.putInt((root==null)?0:root.subtreevaluessize);
+        // Right children yet to be written, the next on top
+        ArrayList<SBNode> stack=new ArrayList<>();
+        SBNode node=root;
+        while(node!=null){
+            while(true){
+                int start=buffer.position();
+                try{
+                    int flags=((node.left!=null)?HASLEFT:0) | ((node.right!=null)?HASRIGHT:0);
+                    buffer.put((byte)flags);
+                    keycodec.write(node.key,buffer);
+                    buffer.putInt(node.valuecount);
+                    for(int i=0;i<node.valuecount;i++){valuecodec.write(node.getValue(i),buffer);}
+                    break;
+                }catch(BufferOverflowException e){
+                    buffer.position(start);
+                    if(start==0){
+                        buffer=ByteBuffer.allocateDirect(buffer.capacity()*2);
+                    }else{
+                        flush(channel,buffer);
+                    }
+                }
+            }
+            if(node.left!=null){
+                if(node.right!=null){stack.add(node.right);}
+                node=node.left;
+            }else if(node.right!=null){
+                node=node.right;
+            }else{
+                node=stack.isEmpty()?null:stack.remove(stack.size()-1);
+            }
+        }
+        flush(channel,buffer);
+    }
+    /**
+     * Reads a subtree from a channel.
+     * @param channel The channel, positioned at the start of the header.
+     * @param keycodec Codec for the keys.
+     * @param valuecodec Codec for the values.
+     * @return the root of the subtree, null if it's empty.
+     * @throws IOException if the channel can't be read or doesn't hold a
+     * valid tree.
+     */
+    static SBNode read(FileChannel channel,SBCodec keycodec,SBCodec valuecodec) throws IOException{
+        ByteBuffer buffer=ByteBuffer.allocateDirect(BUFFERSIZE);
+        buffer.limit(0);
+        buffer=fill(channel,buffer,16);
+        if(buffer.getInt()!=MAGIC){throw new IOException("Not an SBTree file");}
+        int format=buffer.getInt();
+        if(format!=FORMAT){throw new IOException("Unsupported SBTree file format "+format);}
+        int nodecount=buffer.getInt(),valuecount=buffer.getInt();
+        if(nodecount==0){return null;}
+        SBNode root=null,parent=null;
+        boolean leftside=false,complete=false;
+        // Nodes still waiting for their right child to be read, the next on top
+        ArrayList<SBNode> stack=new ArrayList<>();
+        for(int n=0;n<nodecount;n++){
+            SBNode node=null; int flags=0;
+            while(node==null){
+                int start=buffer.position();
+                try{
+                    flags=buffer.get();
+                    Comparable key=(Comparable)keycodec.read(buffer);
+                    int count=buffer.getInt();
+                    if(count<0){throw new IOException("Corrupt SBTree file");}
+                    if(count==0){
+                        node=new SBNode(key,new LinkedList<>());
+                    }else{
+                        node=new SBNode(key,valuecodec.read(buffer));
+                        for(int i=1;i<count;i++){node.addValue(valuecodec.read(buffer));}
+                    }
+                }catch(BufferUnderflowException e){
+                    // The record may have been cut off after its first value,
+                    // once the node was made; it's read again from the start
+                    node=null;
+                    buffer.position(start);
+                    buffer=fill(channel,buffer,buffer.remaining()+1);
+                }
+            }
+            if(parent==null){
+                root=node;
+            }else if(leftside){
+                parent.left=node; node.parent=parent;
+            }else{
+                parent.right=node; node.parent=parent;
+            }
+            if((flags & HASLEFT)!=0){
+                if((flags & HASRIGHT)!=0){stack.add(node);}
+                parent=node; leftside=true;
+            }else if((flags & HASRIGHT)!=0){
+                parent=node; leftside=false;
+            }else if(!stack.isEmpty()){
+                parent=stack.remove(stack.size()-1); leftside=false;
+            }else{
+                complete=true;
+                if(n!=nodecount-1){throw new IOException("Corrupt SBTree file");}
+            }
+        }
+        if(!complete){throw new IOException("Corrupt SBTree file");}
+        for(SBNode node=root.firstPostOrderNode();node!=null;node=node.nextPostOrder(root)){
+            node.updateCounts();
+        }
+        if(root.subtreesize!=nodecount || root.subtreevaluessize!=valuecount){
+            throw new IOException("Corrupt SBTree file");
+        }
+        return root;
+    }
+    /**
+     * Writes out everything in a buffer and clears it.
+     * @param channel The channel.
+     * @param buffer The buffer, with its position at the end of the data.
+     * @throws IOException if the channel can't be written.
+     */
+    private static void flush(FileChannel channel,ByteBuffer buffer) throws IOException{
+        buffer.flip();
+        while(buffer.hasRemaining()){channel.write(buffer);}
+        buffer.clear();
+    }
+    /**
+     * Reads from a channel until a buffer holds at least some number of bytes
+     * past its position, growing it if it's too small.
+     * @param channel The channel.
+     * @param buffer The buffer, with its position at the next byte to read
+     * and its limit at the end of the data.
+     * @param needed The number of bytes needed.
+     * @return the buffer, or the larger one which replaced it.
+     * @throws IOException if the channel can't be read or ends first.
+     */
+    private static ByteBuffer fill(FileChannel channel,ByteBuffer buffer,int needed) throws IOException{
+        if(needed>buffer.capacity()){
+            ByteBuffer larger=ByteBuffer.allocateDirect(Math.max(needed,buffer.capacity()*2));
+            larger.put(buffer);
+            buffer=larger;
+        }else{
+            buffer.compact();
+        }
+        while(buffer.position()<needed){
+            if(channel.read(buffer)<0){throw new IOException("Unexpected end of SBTree file");}
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
@@ -0,0 +1,858 @@
+/*
+ * This code is released as public domain. But that doesn't mean you should
+ * claim credit that isn't yours or sell it when it could otherwise be had for
+ * free, because that would be a shitty thing of you to do.
+ * It was originally written by Sophie Kirschner. (sophiek@pineapplemachine.com)
+ */
+
+package SBTree;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * The SBTreeMap class is a NavigableMap view of an SBTree, or of a range of
+ * one, which maps each key to the node holding it. Views are obtained through
+ * SBTree.asMap() and the head, tail, sub and descending maps derived from it,
+ * and they write through to the tree. New keys have to go in through the
+ * tree's insert() methods, so put() isn't supported, but removal through a
+ * view or its iterators is.
+ *
+ * Looking things up through a view never splays the tree, so iterating over
+ * a view leaves the tree's shape alone. Iterators are fail-fast: if a node is
+ * added to or removed from the tree other than through the iterator itself,
+ * the iterator throws a ConcurrentModificationException. Nodes linked or
+ * unlinked directly through the SBNode methods can't be noticed.
+ *
+ * Spliterators split the range at the root of the subtree spanning it, in
+ * ascending and descending views alike, and use the tree's subtree sizes to
+ * report exact sizes.
+ *
+ * @author Sophie Kirschner
+ */
+public class SBTreeMap extends AbstractMap<Comparable,SBNode> implements NavigableMap<Comparable,SBNode> {
+    /** Reference to the tree being viewed. */
+    final SBTree tree;
+    /** Lower bound of the view's range, ignored if fromstart is true. */
+    final Comparable lo;
+    /** Upper bound of the view's range, ignored if toend is true. */
+    final Comparable hi;
+    /** Boolean determines whether the view is unbounded below. */
+    final boolean fromstart;
+    /** Boolean determines whether the view is unbounded above. */
+    final boolean toend;
+    /** Boolean determines whether the lower bound is part of the range. */
+    final boolean loinclusive;
+    /** Boolean determines whether the upper bound is part of the range. */
+    final boolean hiinclusive;
+    /** Boolean determines whether the view is in descending order. */
+    final boolean descending;
+    /**
+     * Initializes a new SBTreeMap viewing an entire tree in ascending order.
+     * @param viewtree The tree to view.
+     */
+    SBTreeMap(SBTree viewtree){
+        this(viewtree,true,null,true,true,null,true,false);
+    }
+    /**
+     * Initializes a new SBTreeMap. Bounds are always given in ascending order,
+     * regardless of whether the view is descending.
+     * @param viewtree The tree to view.
+     * @param fromstart Whether the view is unbounded below.
+     * @param lo The lower bound.
+     * @param loinclusive Whether the lower bound is part of the range.
+     * @param toend Whether the view is unbounded above.
+     * @param hi The upper bound.
+     * @param hiinclusive Whether the upper bound is part of the range.
+     * @param descending Whether the view is in descending order.
+     */
+    SBTreeMap(SBTree viewtree,boolean fromstart,Comparable lo,boolean loinclusive,boolean toend,Comparable hi,boolean hiinclusive,boolean descending){
+        this.tree=viewtree;
+        this.fromstart=fromstart; this.lo=lo; this.loinclusive=loinclusive;
+        this.toend=toend; this.hi=hi; this.hiinclusive=hiinclusive;
+        this.descending=descending;
+    }
+
+    /* Range checks, all in ascending terms. */
+
+    /** @return true if the key falls below the view's range. */
+    final boolean tooLow(Comparable key){
+        if(!fromstart){
+            int comparison=key.compareTo(lo);
+            if(comparison<0 || (comparison==0 && !loinclusive)){return true;}
+        }
+        return false;
+    }
+    /** @return true if the key falls above the view's range. */
+    final boolean tooHigh(Comparable key){
+        if(!toend){
+            int comparison=key.compareTo(hi);
+            if(comparison>0 || (comparison==0 && !hiinclusive)){return true;}
+        }
+        return false;
+    }
+    /** @return true if the key falls within the view's range. */
+    final boolean inRange(Comparable key){
+        return !tooLow(key) && !tooHigh(key);
+    }
+    /** @return true if the key falls within the view's range or on a bound. */
+    final boolean inClosedRange(Comparable key){
+        return (fromstart || key.compareTo(lo)>=0) && (toend || key.compareTo(hi)<=0);
+    }
+    /** @return whether the key may be used as a bound of a narrower view. */
+    final boolean inRange(Comparable key,boolean inclusive){
+        return inclusive?inRange(key):inClosedRange(key);
+    }
+
+    /* Lookups in the view's range, all in ascending terms. */
+
+    /** @return the lowest node in the view's range, null if none exists. */
+    final SBNode absLowest(){
+        SBNode node;
+        if(fromstart){
+            node=tree.root==null?null:tree.root.leftMostNode();
+        }else{
+            node=loinclusive?ceiling(lo):higher(lo);
+        }
+        return (node==null || tooHigh(node.key))?null:node;
+    }
+    /** @return the highest node in the view's range, null if none exists. */
+    final SBNode absHighest(){
+        SBNode node;
+        if(toend){
+            node=tree.root==null?null:tree.root.rightMostNode();
+        }else{
+            node=hiinclusive?floor(hi):lower(hi);
+        }
+        return (node==null || tooLow(node.key))?null:node;
+    }
+    /** @return the least node in range with a key at least key. */
+    final SBNode absCeiling(Comparable key){
+        if(tooLow(key)){return absLowest();}
+        SBNode node=ceiling(key);
+        return (node==null || tooHigh(node.key))?null:node;
+    }
+    /** @return the least node in range with a key greater than key. */
+    final SBNode absHigher(Comparable key){
+        if(tooLow(key)){return absLowest();}
+        SBNode node=higher(key);
+        return (node==null || tooHigh(node.key))?null:node;
+    }
+    /** @return the greatest node in range with a key at most key. */
+    final SBNode absFloor(Comparable key){
+        if(tooHigh(key)){return absHighest();}
+        SBNode node=floor(key);
+        return (node==null || tooLow(node.key))?null:node;
+    }
+    /** @return the greatest node in range with a key less than key. */
+    final SBNode absLower(Comparable key){
+        if(tooHigh(key)){return absHighest();}
+        SBNode node=lower(key);
+        return (node==null || tooLow(node.key))?null:node;
+    }
+    /** @return the first node past the top of the range, null if none exists. */
+    final SBNode absHighFence(){
+        return toend?null:(hiinclusive?higher(hi):ceiling(hi));
+    }
+    /** @return the first node past the bottom of the range, null if none exists. */
+    final SBNode absLowFence(){
+        return fromstart?null:(loinclusive?lower(lo):floor(lo));
+    }
+    private SBNode ceiling(Comparable key){
+        return tree.root==null?null:tree.root.ceilingNode(key);
+    }
+    private SBNode higher(Comparable key){
+        return tree.root==null?null:tree.root.higherNode(key);
+    }
+    private SBNode floor(Comparable key){
+        return tree.root==null?null:tree.root.floorNode(key);
+    }
+    private SBNode lower(Comparable key){
+        return tree.root==null?null:tree.root.lowerNode(key);
+    }
+
+    /* Lookups in the view's own order. */
+
+    /** @return the view's first node, null if none exists. */
+    SBNode firstNode(){
+        return descending?absHighest():absLowest();
+    }
+    /** @return the view's last node, null if none exists. */
+    SBNode lastNode(){
+        return descending?absLowest():absHighest();
+    }
+    SBNode ceilingNode(Comparable key){
+        return descending?absFloor(key):absCeiling(key);
+    }
+    SBNode higherNode(Comparable key){
+        return descending?absLower(key):absHigher(key);
+    }
+    SBNode floorNode(Comparable key){
+        return descending?absCeiling(key):absFloor(key);
+    }
+    SBNode lowerNode(Comparable key){
+        return descending?absHigher(key):absLower(key);
+    }
+    /**
+     * @param node A node.
+     * @return an immutable entry mapping the node's key to the node, null if
+     * the node is null.
+     */
+    static Map.Entry<Comparable,SBNode> entry(SBNode node){
+        return (node==null)?null:new AbstractMap.SimpleImmutableEntry<>(node.key,node);
+    }
+    /** @return the node's key, throwing NoSuchElementException if it's null. */
+    static Comparable key(SBNode node){
+        if(node==null){throw new NoSuchElementException();}
+        return node.key;
+    }
+    /** @return the node's key, null if the node is null. */
+    static Comparable keyOrNull(SBNode node){
+        return (node==null)?null:node.key;
+    }
+
+    /* Map methods. */
+
+    /** @return the number of keys (nodes) in the view. */
+    @Override
+    public int size(){
+        if(fromstart && toend){return tree.size();}
+        SBNode lowest=absLowest(),highest=absHighest();
+        return (lowest==null || highest==null)?0:highest.index()-lowest.index()+1;
+    }
+    @Override
+    public boolean isEmpty(){
+        return absLowest()==null;
+    }
+    /**
+     * @param key A key.
+     * @return the node corresponding to the key, null if none exists in the
+     * view's range.
+     */
+    @Override
+    public SBNode get(Object key){
+        Comparable k=(Comparable)key;
+        if(tree.root==null || !inRange(k)){return null;}
+        return tree.root.findNode(k);
+    }
+    @Override
+    public boolean containsKey(Object key){
+        return get(key)!=null;
+    }
+    @Override
+    public boolean containsValue(Object value){
+        return (value instanceof SBNode) && get(((SBNode)value).key)==value;
+    }
+    /**
+     * Removes the node corresponding to a key, along with all its values.
+     * @param key A key.
+     * @return the removed node, null if none existed in the view's range.
+     */
+    @Override
+    public SBNode remove(Object key){
+        SBNode node=get(key);
+        if(node!=null){tree.removeNode(node);}
+        return node;
+    }
+    @Override
+    public void clear(){
+        if(fromstart && toend){
+            tree.clear();
+        }else{
+            for(Iterator<SBNode> i=nodeIterator(false);i.hasNext();){
+                i.next(); i.remove();
+            }
+        }
+    }
+    @Override
+    public Comparator<? super Comparable> comparator(){
+        return descending?Collections.reverseOrder():null;
+    }
+    @Override
+    public Comparable firstKey(){
+        return key(firstNode());
+    }
+    @Override
+    public Comparable lastKey(){
+        return key(lastNode());
+    }
+    @Override
+    public Map.Entry<Comparable,SBNode> firstEntry(){
+        return entry(firstNode());
+    }
+    @Override
+    public Map.Entry<Comparable,SBNode> lastEntry(){
+        return entry(lastNode());
+    }
+    @Override
+    public Map.Entry<Comparable,SBNode> pollFirstEntry(){
+        return poll(firstNode());
+    }
+    @Override
+    public Map.Entry<Comparable,SBNode> pollLastEntry(){
+        return poll(lastNode());
+    }
+    private Map.Entry<Comparable,SBNode> poll(SBNode node){
+        Map.Entry<Comparable,SBNode> entry=entry(node);
+        if(node!=null){tree.removeNode(node);}
+        return entry;
+    }
+    @Override
+    public Map.Entry<Comparable,SBNode> lowerEntry(Comparable key){
+        return entry(lowerNode(key));
+    }
+    @Override
+    public Comparable lowerKey(Comparable key){
+        return keyOrNull(lowerNode(key));
+    }
+    @Override
+    public Map.Entry<Comparable,SBNode> floorEntry(Comparable key){
+        return entry(floorNode(key));
+    }
+    @Override
+    public Comparable floorKey(Comparable key){
+        return keyOrNull(floorNode(key));
+    }
+    @Override
+    public Map.Entry<Comparable,SBNode> ceilingEntry(Comparable key){
+        return entry(ceilingNode(key));
+    }
+    @Override
+    public Comparable ceilingKey(Comparable key){
+        return keyOrNull(ceilingNode(key));
+    }
+    @Override
+    public Map.Entry<Comparable,SBNode> higherEntry(Comparable key){
+        return entry(higherNode(key));
+    }
+    @Override
+    public Comparable higherKey(Comparable key){
+        return keyOrNull(higherNode(key));
+    }
+
+    /* Derived views. */
+
+    @Override
+    public SBTreeMap descendingMap(){
+        return new SBTreeMap(tree,fromstart,lo,loinclusive,toend,hi,hiinclusive,!descending);
+    }
+    @Override
+    public SBTreeMap subMap(Comparable fromkey,boolean frominclusive,Comparable tokey,boolean toinclusive){
+        if(!inRange(fromkey,frominclusive)){throw new IllegalArgumentException("fromKey out of range");}
+        if(!inRange(tokey,toinclusive)){throw new IllegalArgumentException("toKey out of range");}
+        if(descending){
+            if(fromkey.compareTo(tokey)<0){throw new IllegalArgumentException("fromKey > toKey");}
+            return new SBTreeMap(tree,false,tokey,toinclusive,false,fromkey,frominclusive,true);
+        }else{
+            if(fromkey.compareTo(tokey)>0){throw new IllegalArgumentException("fromKey > toKey");}
+            return new SBTreeMap(tree,false,fromkey,frominclusive,false,tokey,toinclusive,false);
+        }
+    }
+    @Override
+    public SBTreeMap headMap(Comparable tokey,boolean inclusive){
+        if(!inRange(tokey,inclusive)){throw new IllegalArgumentException("toKey out of range");}
+        if(descending){
+            return new SBTreeMap(tree,false,tokey,inclusive,toend,hi,hiinclusive,true);
+        }else{
+            return new SBTreeMap(tree,fromstart,lo,loinclusive,false,tokey,inclusive,false);
+        }
+    }
+    @Override
+    public SBTreeMap tailMap(Comparable fromkey,boolean inclusive){
+        if(!inRange(fromkey,inclusive)){throw new IllegalArgumentException("fromKey out of range");}
+        if(descending){
+            return new SBTreeMap(tree,fromstart,lo,loinclusive,false,fromkey,inclusive,true);
+        }else{
+            return new SBTreeMap(tree,false,fromkey,inclusive,toend,hi,hiinclusive,false);
+        }
+    }
+    @Override
+    public SortedMap<Comparable,SBNode> subMap(Comparable fromkey,Comparable tokey){
+        return subMap(fromkey,true,tokey,false);
+    }
+    @Override
+    public SortedMap<Comparable,SBNode> headMap(Comparable tokey){
+        return headMap(tokey,false);
+    }
+    @Override
+    public SortedMap<Comparable,SBNode> tailMap(Comparable fromkey){
+        return tailMap(fromkey,true);
+    }
+    @Override
+    public NavigableSet<Comparable> navigableKeySet(){
+        return new KeySet(this);
+    }
+    @Override
+    public NavigableSet<Comparable> keySet(){
+        return navigableKeySet();
+    }
+    @Override
+    public NavigableSet<Comparable> descendingKeySet(){
+        return new KeySet(descendingMap());
+    }
+    /** @return a collection of the view's nodes, in the view's order. */
+    @Override
+    public Collection<SBNode> values(){
+        return new Values();
+    }
+    @Override
+    public Set<Map.Entry<Comparable,SBNode>> entrySet(){
+        return new EntrySet();
+    }
+
+    /* Iteration. */
+
+    /**
+     * @param reverse Whether to iterate against the view's order.
+     * @return a fail-fast iterator over the nodes in the view.
+     */
+    Iterator<SBNode> nodeIterator(boolean reverse){
+        return iterator(reverse,Function.identity());
+    }
+    /**
+     * @param reverse Whether to iterate against the view's order.
+     * @param mapper Function mapping each node to the element returned.
+     * @return a fail-fast iterator over the view.
+     */
+    <T> Iterator<T> iterator(boolean reverse,Function<SBNode,T> mapper){
+        if(descending!=reverse){
+            return new NodeIterator<>(absHighest(),absLowFence(),true,mapper);
+        }else{
+            return new NodeIterator<>(absLowest(),absHighFence(),false,mapper);
+        }
+    }
+    /**
+     * @return a fail-fast iterator over the values of the nodes in the view,
+     * in the view's order and oldest first within a node.
+     */
+    Iterator<Object> valueIterator(){
+        final Iterator<SBNode> nodes=nodeIterator(false);
+        return new Iterator<Object>(){
+            /** The node whose values are being returned. */
+            private SBNode node=null;
+            /** Index of the next value of the node to be returned. */
+            private int index=0;
+            @Override
+            public boolean hasNext(){
+                while(node==null || index>=node.valuecount){
+                    if(!nodes.hasNext()){return false;}
+                    node=nodes.next(); index=0;
+                }
+                return true;
+            }
+            @Override
+            public Object next(){
+                if(!hasNext()){throw new NoSuchElementException();}
+                return node.getValue(index++);
+            }
+        };
+    }
+    /**
+     * Performs an action for every node in the view, in the view's order.
+     * @param visitor The action, which mustn't add or remove nodes.
+     * @throws ConcurrentModificationException if it did.
+     */
+    void visit(Consumer<SBNode> visitor){
+        int expectedmodcount=tree.modcount;
+        SBNode node,fence;
+        if(descending){
+            node=absHighest(); fence=absLowFence();
+            for(;node!=null && node!=fence;node=node.predecessor()){visitor.accept(node);}
+        }else{
+            node=absLowest(); fence=absHighFence();
+            for(;node!=null && node!=fence;node=node.successor()){visitor.accept(node);}
+        }
+        if(tree.modcount!=expectedmodcount){throw new ConcurrentModificationException();}
+    }
+    /** @return the number of values held by the nodes in the view. */
+    int valuesSize(){
+        if(fromstart && toend){return tree.valuesSize();}
+        SBNode lowest=absLowest(),highest=absHighest();
+        if(lowest==null || highest==null){return 0;}
+        return highest.valueIndex()+highest.valuecount-lowest.valueIndex();
+    }
+    /**
+     * @param mapper Function mapping each node to the element returned.
+     * @param comparator The comparator reported for the elements, null if
+     * they're ordered naturally.
+     * @return a fail-fast spliterator over the view.
+     */
+    <T> Spliterator<T> spliterator(Function<SBNode,T> mapper,Comparator<? super T> comparator){
+        if(descending){
+            Comparator<? super T> reversed=(comparator==null)?
+                (Comparator)Collections.reverseOrder():Collections.reverseOrder(comparator);
+            return new NodeSpliterator<>(absHighest(),absLowest(),true,mapper,reversed);
+        }
+        return new NodeSpliterator<>(absLowest(),absHighest(),false,mapper,comparator);
+    }
+
+    /** Iterates through a range of nodes by following parent links. */
+    private final class NodeIterator<T> implements Iterator<T> {
+        /** The node to be returned next. */
+        SBNode next;
+        /** The first node outside the range, null if the range reaches the end. */
+        SBNode fence;
+        /** Whether to iterate in descending order. */
+        final boolean reverse;
+        final Function<SBNode,T> mapper;
+        /** The node most recently returned, null if it was removed. */
+        SBNode lastreturned=null;
+        int expectedmodcount=tree.modcount;
+        NodeIterator(SBNode first,SBNode fence,boolean reverse,Function<SBNode,T> mapper){
+            this.next=first; this.fence=fence;
+            this.reverse=reverse; this.mapper=mapper;
+        }
+        @Override
+        public boolean hasNext(){
+            return next!=null && next!=fence;
+        }
+        @Override
+        public T next(){
+            if(!hasNext()){throw new NoSuchElementException();}
+            if(tree.modcount!=expectedmodcount){throw new ConcurrentModificationException();}
+            lastreturned=next;
+            next=reverse?next.predecessor():next.successor();
+            return mapper.apply(lastreturned);
+        }
+        @Override
+        public void remove(){
+            if(lastreturned==null){throw new IllegalStateException();}
+            if(tree.modcount!=expectedmodcount){throw new ConcurrentModificationException();}
+            tree.removeNode(lastreturned);
+            lastreturned=null;
+            if(tree.shared){
+                // Removing from a tree shared with a snapshot replaces nodes
+                // near the removed one with copies, possibly these
+                next=(next==null || tree.root==null)?null:tree.root.findNode(next.key);
+                fence=(fence==null || tree.root==null)?null:tree.root.findNode(fence.key);
+            }
+            expectedmodcount=tree.modcount;
+        }
+    }
+
+    /**
+     * Traverses a range of nodes, in ascending or descending order. A range
+     * is split at the root of the smallest subtree containing both of its
+     * ends, and the sizes of the parts are worked out from the nodes'
+     * in-order indexes.
+     */
+    private final class NodeSpliterator<T> implements Spliterator<T> {
+        /** The node to be returned next, null once the range is exhausted. */
+        SBNode current;
+        /** The last node in the range. */
+        final SBNode last;
+        /** In-order index of the current node. */
+        int index;
+        /** Number of nodes remaining. */
+        int remaining;
+        /** Whether to traverse in descending order. */
+        final boolean reverse;
+        final Function<SBNode,T> mapper;
+        final Comparator<? super T> comparator;
+        final int expectedmodcount;
+        NodeSpliterator(SBNode first,SBNode last,boolean reverse,Function<SBNode,T> mapper,Comparator<? super T> comparator){
+            this.current=first; this.last=last; this.reverse=reverse;
+            this.mapper=mapper; this.comparator=comparator;
+            this.expectedmodcount=tree.modcount;
+            if(first==null || last==null){
+                current=null; remaining=0;
+            }else{
+                index=first.index(); remaining=Math.abs(last.index()-index)+1;
+            }
+        }
+        private NodeSpliterator(SBNode first,SBNode last,int index,int remaining,NodeSpliterator<T> parent){
+            this.current=first; this.last=last; this.reverse=parent.reverse;
+            this.index=index; this.remaining=remaining;
+            this.mapper=parent.mapper; this.comparator=parent.comparator;
+            this.expectedmodcount=parent.expectedmodcount;
+        }
+        /**
+         * @param node A node in the range.
+         * @return the node after it in the order of traversal.
+         */
+        private SBNode next(SBNode node){
+            return reverse?node.predecessor():node.successor();
+        }
+        @Override
+        public Spliterator<T> trySplit(){
+            if(remaining<2){return null;}
+            if(tree.modcount!=expectedmodcount){throw new ConcurrentModificationException();}
+            SBNode lowest=reverse?last:current,highest=reverse?current:last;
+            Comparable lowkey=lowest.key,highkey=highest.key;
+            // Find the root of the smallest subtree containing the whole range
+            SBNode top=tree.root;
+            while(true){
+                if(top.key.compareTo(lowkey)<0){
+                    top=top.right;
+                }else if(top.key.compareTo(highkey)>0){
+                    top=top.left;
+                }else{
+                    break;
+                }
+            }
+            // The prefix will run from the current node to split, inclusive
+            SBNode split;
+            if(top==current){
+                // The rest of the range is in one of the current node's
+                // subtrees; split before the root of its part of it
+                SBNode node;
+                if(reverse){
+                    node=current.left;
+                    while(lowkey.compareTo(node.key)>0){node=node.right;}
+                }else{
+                    node=current.right;
+                    while(highkey.compareTo(node.key)<0){node=node.left;}
+                }
+                split=reverse?node.successor():node.predecessor();
+            }else if(top==last){
+                if(reverse){
+                    split=last.right;
+                    while(highkey.compareTo(split.key)<0){split=split.left;}
+                }else{
+                    split=last.left;
+                    while(lowkey.compareTo(split.key)>0){split=split.right;}
+                }
+            }else{
+                split=top;
+            }
+            int splitindex=split.index();
+            int prefixsize=Math.abs(splitindex-index)+1;
+            NodeSpliterator<T> prefix=new NodeSpliterator<>(current,split,index,prefixsize,this);
+            current=next(split);
+            remaining-=prefixsize;
+            index=reverse?splitindex-1:splitindex+1;
+            return prefix;
+        }
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action){
+            if(action==null){throw new NullPointerException();}
+            if(current==null){return false;}
+            if(tree.modcount!=expectedmodcount){throw new ConcurrentModificationException();}
+            SBNode node=current;
+            current=(node==last)?null:next(node);
+            remaining--; index+=reverse?-1:1;
+            action.accept(mapper.apply(node));
+            return true;
+        }
+        @Override
+        public void forEachRemaining(Consumer<? super T> action){
+            if(action==null){throw new NullPointerException();}
+            SBNode node=current;
+            current=null; index+=reverse?-remaining:remaining; remaining=0;
+            while(node!=null){
+                SBNode next=(node==last)?null:next(node);
+                action.accept(mapper.apply(node));
+                node=next;
+            }
+            if(tree.modcount!=expectedmodcount){throw new ConcurrentModificationException();}
+        }
+        @Override
+        public long estimateSize(){
+            return remaining;
+        }
+        @Override
+        public int characteristics(){
+            return Spliterator.ORDERED | Spliterator.SORTED | Spliterator.DISTINCT |
+                Spliterator.NONNULL | Spliterator.SIZED | Spliterator.SUBSIZED;
+        }
+        @Override
+        public Comparator<? super T> getComparator(){
+            return comparator;
+        }
+    }
+
+    /* Collection views. */
+
+    /** The view's entries, each mapping a key to its node. */
+    private final class EntrySet extends AbstractSet<Map.Entry<Comparable,SBNode>> {
+        @Override
+        public Iterator<Map.Entry<Comparable,SBNode>> iterator(){
+            return SBTreeMap.this.iterator(false,SBTreeMap::entry);
+        }
+        @Override
+        public Spliterator<Map.Entry<Comparable,SBNode>> spliterator(){
+            return SBTreeMap.this.spliterator(SBTreeMap::entry,(Comparator)Map.Entry.comparingByKey());
+        }
+        @Override
+        public int size(){
+            return SBTreeMap.this.size();
+        }
+        @Override
+        public boolean isEmpty(){
+            return SBTreeMap.this.isEmpty();
+        }
+        @Override
+        public boolean contains(Object o){
+            if(!(o instanceof Map.Entry)){return false;}
+            Map.Entry entry=(Map.Entry)o;
+            SBNode node=get(entry.getKey());
+            return node!=null && node==entry.getValue();
+        }
+        @Override
+        public boolean remove(Object o){
+            if(!contains(o)){return false;}
+            tree.removeNode((SBNode)((Map.Entry)o).getValue());
+            return true;
+        }
+        @Override
+        public void clear(){
+            SBTreeMap.this.clear();
+        }
+    }
+
+    /** The view's nodes. Nodes are ordered by their keys. */
+    private final class Values extends AbstractCollection<SBNode> {
+        @Override
+        public Iterator<SBNode> iterator(){
+            return nodeIterator(false);
+        }
+        @Override
+        public Spliterator<SBNode> spliterator(){
+            return SBTreeMap.this.spliterator(Function.identity(),null);
+        }
+        @Override
+        public int size(){
+            return SBTreeMap.this.size();
+        }
+        @Override
+        public boolean isEmpty(){
+            return SBTreeMap.this.isEmpty();
+        }
+        @Override
+        public boolean contains(Object o){
+            return containsValue(o);
+        }
+        @Override
+        public boolean remove(Object o){
+            if(!containsValue(o)){return false;}
+            tree.removeNode((SBNode)o);
+            return true;
+        }
+        @Override
+        public void clear(){
+            SBTreeMap.this.clear();
+        }
+    }
+
+    /** The view's keys. */
+    static final class KeySet extends AbstractSet<Comparable> implements NavigableSet<Comparable> {
+        final SBTreeMap map;
+        KeySet(SBTreeMap keymap){
+            map=keymap;
+        }
+        @Override
+        public Iterator<Comparable> iterator(){
+            return map.iterator(false,node->node.key);
+        }
+        @Override
+        public Iterator<Comparable> descendingIterator(){
+            return map.iterator(true,node->node.key);
+        }
+        @Override
+        public Spliterator<Comparable> spliterator(){
+            return map.spliterator(node->node.key,null);
+        }
+        @Override
+        public int size(){
+            return map.size();
+        }
+        @Override
+        public boolean isEmpty(){
+            return map.isEmpty();
+        }
+        @Override
+        public boolean contains(Object o){
+            return map.containsKey(o);
+        }
+        @Override
+        public boolean remove(Object o){
+            return map.remove(o)!=null;
+        }
+        @Override
+        public void clear(){
+            map.clear();
+        }
+        @Override
+        public Comparator<? super Comparable> comparator(){
+            return map.comparator();
+        }
+        @Override
+        public Comparable first(){
+            return map.firstKey();
+        }
+        @Override
+        public Comparable last(){
+            return map.lastKey();
+        }
+        @Override
+        public Comparable lower(Comparable key){
+            return map.lowerKey(key);
+        }
+        @Override
+        public Comparable floor(Comparable key){
+            return map.floorKey(key);
+        }
+        @Override
+        public Comparable ceiling(Comparable key){
+            return map.ceilingKey(key);
+        }
+        @Override
+        public Comparable higher(Comparable key){
+            return map.higherKey(key);
+        }
+        @Override
+        public Comparable pollFirst(){
+            Map.Entry<Comparable,SBNode> entry=map.pollFirstEntry();
+            return (entry==null)?null:entry.getKey();
+        }
+        @Override
+        public Comparable pollLast(){
+            Map.Entry<Comparable,SBNode> entry=map.pollLastEntry();
+            return (entry==null)?null:entry.getKey();
+        }
+        @Override
+        public NavigableSet<Comparable> descendingSet(){
+            return new KeySet(map.descendingMap());
+        }
+        @Override
+        public NavigableSet<Comparable> subSet(Comparable fromkey,boolean frominclusive,Comparable tokey,boolean toinclusive){
+            return new KeySet(map.subMap(fromkey,frominclusive,tokey,toinclusive));
+        }
+        @Override
+        public NavigableSet<Comparable> headSet(Comparable tokey,boolean inclusive){
+            return new KeySet(map.headMap(tokey,inclusive));
+        }
+        @Override
+        public NavigableSet<Comparable> tailSet(Comparable fromkey,boolean inclusive){
+            return new KeySet(map.tailMap(fromkey,inclusive));
+        }
+        @Override
+        public SortedSet<Comparable> subSet(Comparable fromkey,Comparable tokey){
+            return subSet(fromkey,true,tokey,false);
+        }
+        @Override
+        public SortedSet<Comparable> headSet(Comparable tokey){
+            return headSet(tokey,false);
+        }
+        @Override
+        public SortedSet<Comparable> tailSet(Comparable fromkey){
+            return tailSet(fromkey,true);
+        }
+    }
+}
@@ -0,0 +1,308 @@
+/*
+ * This code is released as public domain. But that doesn't mean you should
+ * claim credit that isn't yours or sell it when it could otherwise be had for
+ * free, because that would be a shitty thing of you to do.
+ * It was originally written by Sophie Kirschner. (sophiek@pineapplemachine.com)
+ */
+
+package SBTree;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * The SBTreeMetrics class counts what an SBTree does: insertions, removals,
+ * searches and whether they found their keys, key comparisons, splays and
+ * their rotations, and the depths of the nodes accessed. It's made by
+ * SBTree.enableMetrics(). A tree without metrics pays for nothing but a null
+ * check per operation.
+ *
+ * Before each insertion, removal or search, the key's search path is walked
+ * once without splaying, which gives both the number of comparisons and the
+ * depth of the node accessed, or for a key which isn't in the tree the depth
+ * its node would have. That extra walk is the cost of enabling metrics. The
+ * rotations of a splay are counted as the number of levels the node rose,
+ * which for a full splay is exactly the number of rotations.
+ *
+ * The counts can be read at any time from any thread: pulled all at once as
+ * a Snapshot, or through JMX once register() has been called. Splay
+ * degeneration shows up as a depth ratio well above 1 and a growing height
+ * estimate, and skew towards a few hot keys as a depth histogram weighted
+ * towards the shallowest depths.
+ *
+ * @author Sophie Kirschner
+ */
+public class SBTreeMetrics implements SBTreeMetricsMBean {
+    /** Number of elements in the depth histogram. */
+    final static public int HISTOGRAMSIZE=33;
+    /** The tree being measured. */
+    private final SBTree tree;
+    private final LongAdder inserts=new LongAdder(),removes=new LongAdder(),finds=new LongAdder();
+    private final LongAdder hits=new LongAdder(),misses=new LongAdder();
+    private final LongAdder comparisons=new LongAdder(),depths=new LongAdder();
+    /** The number of search paths walked, which bulk changes don't add to. */
+    private final LongAdder walks=new LongAdder();
+    private final LongAdder splays=new LongAdder(),rotations=new LongAdder();
+    /** The greatest depth seen since the last reset or rebalancing. */
+    private final LongAccumulator height=new LongAccumulator(Math::max,0);
+    /** Accesses by depth, as described by getDepthHistogram(). */
+    private final LongAdder[] histogram=new LongAdder[HISTOGRAMSIZE];
+    /** The name the metrics are registered under, null if they aren't. */
+    private ObjectName name=null;
+    /**
+     * Initializes a new SBTreeMetrics.
+     * @param measured The tree to measure.
+     */
+    SBTreeMetrics(SBTree measured){
+        tree=measured;
+        for(int i=0;i<HISTOGRAMSIZE;i++){histogram[i]=new LongAdder();}
+    }
+    /**
+     * Walks a key's search path, counting the comparisons and recording the
+     * depth of the node with the key, or the depth it would have.
+     * @param root The root of the tree, or null.
+     * @param key A key.
+     * @return the depth of the node with the key if there is one, otherwise
+     * minus one minus the depth a new node with the key would have.
+     */
+    private int walk(SBNode root,Comparable key){
+        walks.increment();
+        int depth=0;
+        for(SBNode node=root;node!=null;depth++){
+            int comparison=key.compareTo(node.key);
+            if(comparison==0){
+                comparisons.add(depth+1);
+                record(depth);
+                return depth;
+            }
+            node=(comparison<0)?node.left:node.right;
+        }
+        comparisons.add(depth);
+        record(depth);
+        return -1-depth;
+    }
+    /** @param depth The depth of a node accessed. */
+    private void record(int depth){
+        depths.add(depth);
+        height.accumulate(depth);
+        histogram[32-Integer.numberOfLeadingZeros(depth)].increment();
+    }
+    /**
+     * Records an insertion, before it's made.
+     * @param root The root of the tree, or null.
+     * @param key The key being inserted.
+     * @return the depth the key's node has or will have.
+     */
+    int insert(SBNode root,Comparable key){
+        inserts.increment();
+        int depth=walk(root,key);
+        return (depth<0)?-1-depth:depth;
+    }
+    /**
+     * Records a removal, before it's made.
+     * @param root The root of the tree, or null.
+     * @param key The key being removed.
+     */
+    void remove(SBNode root,Comparable key){
+        removes.increment();
+        walk(root,key);
+    }
+    /**
+     * Records insertions made in bulk, whose depths aren't measured, and
+     * that the tree was restructured by them.
+     * @param count The number of values inserted.
+     */
+    void inserted(long count){
+        inserts.add(count);
+        height.reset();
+    }
+    /**
+     * Records removals made in bulk, whose depths aren't measured, and that
+     * the tree was restructured by them.
+     * @param count The number of nodes removed.
+     */
+    void removed(long count){
+        removes.add(count);
+        height.reset();
+    }
+    /**
+     * Records a search, before it's made.
+     * @param root The root of the tree, or null.
+     * @param key The key being searched for.
+     * @return the depth of the key's node, negative if it isn't in the tree.
+     */
+    int find(SBNode root,Comparable key){
+        finds.increment();
+        int depth=walk(root,key);
+        if(depth<0){misses.increment();}else{hits.increment();}
+        return depth;
+    }
+    /**
+     * Records how far a node rose when the tree was restructured.
+     * @param before The node's depth before.
+     * @param node The node, or null.
+     */
+    void restructured(int before,SBNode node){
+        if(node==null){return;}
+        int after=node.depth();
+        if(after<before){
+            splays.increment();
+            rotations.add(before-after);
+        }
+    }
+    /** Records that the tree was rebalanced, so its height is unknown again. */
+    void rebalanced(){
+        height.reset();
+    }
+    @Override
+    public int getSize(){
+        return tree.size();
+    }
+    @Override
+    public long getInserts(){
+        return inserts.sum();
+    }
+    @Override
+    public long getRemoves(){
+        return removes.sum();
+    }
+    @Override
+    public long getFinds(){
+        return finds.sum();
+    }
+    @Override
+    public long getHits(){
+        return hits.sum();
+    }
+    @Override
+    public long getMisses(){
+        return misses.sum();
+    }
+    @Override
+    public long getComparisons(){
+        return comparisons.sum();
+    }
+    @Override
+    public double getComparisonsPerOperation(){
+        return ratio(comparisons.sum(),walks.sum());
+    }
+    @Override
+    public long getSplays(){
+        return splays.sum();
+    }
+    @Override
+    public long getRotations(){
+        return rotations.sum();
+    }
+    @Override
+    public double getRotationsPerSplay(){
+        return ratio(rotations.sum(),splays.sum());
+    }
+    @Override
+    public double getMeanDepth(){
+        return ratio(depths.sum(),walks.sum());
+    }
+    @Override
+    public double getDepthRatio(){
+        return ratio(getMeanDepth(),balancedDepth(getSize()));
+    }
+    @Override
+    public int getHeightEstimate(){
+        return (int)height.get();
+    }
+    @Override
+    public long[] getDepthHistogram(){
+        long[] counts=new long[HISTOGRAMSIZE];
+        for(int i=0;i<HISTOGRAMSIZE;i++){counts[i]=histogram[i].sum();}
+        return counts;
+    }
+    @Override
+    public void reset(){
+        for(LongAdder adder:new LongAdder[]{inserts,removes,finds,hits,misses,comparisons,depths,walks,splays,rotations}){adder.reset();}
+        for(LongAdder adder:histogram){adder.reset();}
+        height.reset();
+    }
+    /** @return the counts as they are now. */
+    public Snapshot snapshot(){
+        return new Snapshot(this);
+    }
+    /**
+     * Registers the metrics with the platform MBean server, replacing any
+     * already registered under the same name.
+     * @param treename A name for the tree, unique among those registered.
+     * @return the name the metrics were registered under.
+     * @throws JMException if they couldn't be registered.
+     */
+    public synchronized ObjectName register(String treename) throws JMException{
+        unregister();
+        ObjectName objectname=new ObjectName("SBTree:type=SBTreeMetrics,name="+ObjectName.quote(treename));
+        MBeanServer server=ManagementFactory.getPlatformMBeanServer();
+        if(server.isRegistered(objectname)){server.unregisterMBean(objectname);}
+        server.registerMBean(this,objectname);
+        name=objectname;
+        return objectname;
+    }
+    /**
+     * Unregisters the metrics from the platform MBean server, if they're
+     * registered.
+     * @throws JMException if they couldn't be unregistered.
+     */
+    public synchronized void unregister() throws JMException{
+        if(name!=null){
+            MBeanServer server=ManagementFactory.getPlatformMBeanServer();
+            if(server.isRegistered(name)){server.unregisterMBean(name);}
+            name=null;
+        }
+    }
+    /**
+     * @param size A number of nodes.
+     * @return the mean depth of a node in a perfectly balanced tree of that
+     * many nodes, roughly.
+     */
+    static double balancedDepth(int size){
+        return Math.max(1,Math.log(size+1)/Math.log(2)-1);
+    }
+    private static double ratio(double numerator,double denominator){
+        return (denominator==0)?0:numerator/denominator;
+    }
+
+    /**
+     * The counts of an SBTreeMetrics at one moment, as plain fields. Counts
+     * are each read atomically, but not all at the same instant, so they may
+     * disagree a little if the tree was changing.
+     */
+    public static final class Snapshot {
+        final public int size;
+        final public long inserts,removes,finds,hits,misses;
+        final public long comparisons,splays,rotations;
+        final public double comparisonsperoperation,rotationspersplay,meandepth,depthratio;
+        final public int heightestimate;
+        /** See SBTreeMetricsMBean.getDepthHistogram(). */
+        final public long[] depthhistogram;
+        Snapshot(SBTreeMetrics metrics){
+            size=metrics.getSize();
+            inserts=metrics.getInserts(); removes=metrics.getRemoves(); finds=metrics.getFinds();
+            hits=metrics.getHits(); misses=metrics.getMisses();
+            comparisons=metrics.getComparisons(); splays=metrics.getSplays(); rotations=metrics.getRotations();
+            comparisonsperoperation=metrics.getComparisonsPerOperation();
+            rotationspersplay=metrics.getRotationsPerSplay();
+            meandepth=metrics.getMeanDepth(); depthratio=metrics.getDepthRatio();
+            heightestimate=metrics.getHeightEstimate();
+            depthhistogram=metrics.getDepthHistogram();
+        }
+        /** @return a String representation of the counts. */
+        @Override
+        public String toString(){
+            return "size="+size+" inserts="+inserts+" removes="+removes+" finds="+finds+
+                " hits="+hits+" misses="+misses+" comparisons/op="+comparisonsperoperation+
+                " rotations/splay="+rotationspersplay+" meandepth="+meandepth+
+                " depthratio="+depthratio+" height>="+heightestimate+
+                " depths="+Arrays.toString(depthhistogram);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * This code is released as public domain. But that doesn't mean you should
+ * claim credit that isn't yours or sell it when it could otherwise be had for
+ * free, because that would be a shitty thing of you to do.
+ * It was originally written by Sophie Kirschner. (sophiek@pineapplemachine.com)
+ */
+
+package SBTree;
+
+/**
+ * The SBTreeMetricsMBean interface is what JMX sees of an SBTreeMetrics.
+ * Counts are since the metrics were enabled or last reset.
+ *
+ * @author Sophie Kirschner
+ */
+public interface SBTreeMetricsMBean {
+    /** @return the number of keys in the tree. */
+    int getSize();
+    /** @return the number of insertions. */
+    long getInserts();
+    /** @return the number of removals. */
+    long getRemoves();
+    /** @return the number of searches. */
+    long getFinds();
+    /** @return the number of searches which found their key. */
+    long getHits();
+    /** @return the number of searches which didn't find their key. */
+    long getMisses();
+    /** @return the number of key comparisons made by all operations. */
+    long getComparisons();
+    /**
+     * @return the mean number of key comparisons per operation, not counting
+     * bulk insertions and removals.
+     */
+    double getComparisonsPerOperation();
+    /** @return the number of times a node was splayed towards the root. */
+    long getSplays();
+    /** @return the number of rotations made by splaying. */
+    long getRotations();
+    /** @return the mean number of rotations per splay. */
+    double getRotationsPerSplay();
+    /**
+     * @return the mean depth of the nodes accessed, not counting bulk
+     * insertions and removals.
+     */
+    double getMeanDepth();
+    /**
+     * @return the mean depth of the nodes accessed divided by the depth of a
+     * perfectly balanced tree of the same size. Well above 1 means the tree
+     * has degenerated; well below 1 means a few keys are accessed much more
+     * than the rest.
+     */
+    double getDepthRatio();
+    /** @return the greatest depth seen, an estimate of the tree's height. */
+    int getHeightEstimate();
+    /**
+     * @return the number of accesses at each depth: depth 0 in element 0,
+     * then depths from 2^(i-1) up to 2^i-1 in element i.
+     */
+    long[] getDepthHistogram();
+    /** Sets every count back to zero. */
+    void reset();
+}
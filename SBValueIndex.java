@@ -0,0 +1,143 @@
+/*
+ * This code is released as public domain. But that doesn't mean you should
+ * claim credit that isn't yours or sell it when it could otherwise be had for
+ * free, because that would be a shitty thing of you to do.
+ * It was originally written by Sophie Kirschner. (sophiek@pineapplemachine.com)
+ */
+
+package SBTree;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
+/**
+ * The SBValueIndex class maps each value in an SBTree to the nodes holding
+ * it, so that values can be found and removed without knowing their keys.
+ * It's made by SBTree.enableValueIndex(), and the tree keeps it up to date
+ * as values are inserted and removed and as nodes are copied away from
+ * snapshots.
+ *
+ * Values are told apart by identity, like an IdentityHashMap does, not by
+ * equals(). A value held by more than one node, under different keys, maps
+ * to a list of those nodes; a value held more than once by the same node
+ * maps to the node just once.
+ *
+ * @author Sophie Kirschner
+ */
+class SBValueIndex {
+    /** Each value's node, or an ArrayList of its nodes if there's more than one. */
+    private final IdentityHashMap<Object,Object> owners=new IdentityHashMap<>();
+    /**
+     * Initializes a new SBValueIndex.
+     * @param root The root of the tree to index, or null.
+     */
+    SBValueIndex(SBNode root){
+        addSubtree(root);
+    }
+    /**
+     * @param value A value.
+     * @return whether any node holds the value.
+     */
+    boolean contains(Object value){
+        return owners.containsKey(value);
+    }
+    /**
+     * @param value A value.
+     * @return a node holding the value, null if none does.
+     */
+    SBNode owner(Object value){
+        Object owner=owners.get(value);
+        if(owner==null || owner instanceof SBNode){return (SBNode)owner;}
+        return ((ArrayList<SBNode>)owner).get(0);
+    }
+    /**
+     * Records that a node holds a value.
+     * @param value A value.
+     * @param node The node it was added to.
+     */
+    void add(Object value,SBNode node){
+        Object owner=owners.get(value);
+        if(owner==null){
+            owners.put(value,node);
+        }else if(owner instanceof SBNode){
+            if(owner!=node){
+                ArrayList<SBNode> list=new ArrayList<>(2);
+                list.add((SBNode)owner); list.add(node);
+                owners.put(value,list);
+            }
+        }else{
+            ArrayList<SBNode> list=(ArrayList<SBNode>)owner;
+            for(SBNode listed:list){
+                if(listed==node){return;}
+            }
+            list.add(node);
+        }
+    }
+    /**
+     * Records that a node no longer holds a value.
+     * @param value A value.
+     * @param node The node it was removed from.
+     */
+    void remove(Object value,SBNode node){
+        Object owner=owners.get(value);
+        if(owner==node){
+            owners.remove(value);
+        }else if(owner!=null && !(owner instanceof SBNode)){
+            ArrayList<SBNode> list=(ArrayList<SBNode>)owner;
+            for(int i=0;i<list.size();i++){
+                if(list.get(i)==node){list.remove(i); break;}
+            }
+            if(list.size()==1){owners.put(value,list.get(0));}
+        }
+    }
+    /**
+     * Records that one of a node's copies of a value was removed, which
+     * leaves the node holding the value only if it had another copy.
+     * @param value A value.
+     * @param node The node it was removed from.
+     */
+    void removed(Object value,SBNode node){
+        for(int i=0;i<node.valuecount;i++){
+            if(node.getValue(i)==value){return;}
+        }
+        remove(value,node);
+    }
+    /** @param node A node whose values are all to be recorded. */
+    void addAll(SBNode node){
+        for(int i=0;i<node.valuecount;i++){add(node.getValue(i),node);}
+    }
+    /** @param node A node whose values are all to be forgotten. */
+    void removeAll(SBNode node){
+        for(int i=0;i<node.valuecount;i++){remove(node.getValue(i),node);}
+    }
+    /** @param root The root of a subtree whose values are all to be recorded, or null. */
+    void addSubtree(SBNode root){
+        for(SBNode node=root;node!=null;node=node.nextPreOrder(root)){addAll(node);}
+    }
+    /** @param root The root of a subtree whose values are all to be forgotten, or null. */
+    void removeSubtree(SBNode root){
+        for(SBNode node=root;node!=null;node=node.nextPreOrder(root)){removeAll(node);}
+    }
+    /**
+     * Records that a node was replaced in the tree by a copy of it.
+     * @param original The node.
+     * @param copy Its copy, holding the same values.
+     */
+    void moved(SBNode original,SBNode copy){
+        for(int i=0;i<copy.valuecount;i++){
+            Object value=copy.getValue(i),owner=owners.get(value);
+            if(owner==original){
+                owners.put(value,copy);
+            }else if(owner!=null && !(owner instanceof SBNode)){
+                ArrayList<SBNode> list=(ArrayList<SBNode>)owner;
+                for(int j=0;j<list.size();j++){
+                    if(list.get(j)==original){list.set(j,copy);}
+                }
+            }
+        }
+    }
+    /** Forgets every value. */
+    void clear(){
+        owners.clear();
+    }
+}
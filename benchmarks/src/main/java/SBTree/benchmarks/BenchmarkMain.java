@@ -0,0 +1,33 @@
+/*
+ * This code is released as public domain. But that doesn't mean you should
+ * claim credit that isn't yours or sell it when it could otherwise be had for
+ * free, because that would be a shitty thing of you to do.
+ * It was originally written by Sophie Kirschner. (sophiek@pineapplemachine.com)
+ */
+
+package SBTree.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks, taking the same arguments as JMH's own main class,
+ * with the GC profiler always added so that allocation rates are reported
+ * alongside times.
+ *
+ * @author Sophie Kirschner
+ */
+public class BenchmarkMain {
+    private BenchmarkMain(){}
+    /**
+     * @param args JMH's command line arguments, for example a regular
+     * expression choosing which benchmarks to run.
+     * @throws Exception if the arguments are invalid or a benchmark fails.
+     */
+    public static void main(String[] args) throws Exception{
+        CommandLineOptions options=new CommandLineOptions(args);
+        new Runner(new OptionsBuilder().parent(options).addProfiler(GCProfiler.class).build()).run();
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * This code is released as public domain. But that doesn't mean you should
+ * claim credit that isn't yours or sell it when it could otherwise be had for
+ * free, because that would be a shitty thing of you to do.
+ * It was originally written by Sophie Kirschner. (sophiek@pineapplemachine.com)
+ */
+
+package SBTree.benchmarks;
+
+import SBTree.SBStampedTree;
+import SBTree.SBTree;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of threads sharing one tree, for SBStampedTree and for an SBTree
+ * which splays on every search, guarded by synchronized blocks. The tree
+ * holds the even keys from 0 to 2*size-2, balanced, and searches follow the
+ * distribution, each thread starting at a different point in the sequence.
+ *
+ * find has four threads only searching. The mixed group has three threads
+ * searching while a fourth inserts an odd key and removes it again, turn
+ * about, so the tree's size stays the same. JMH reports the group's readers
+ * and writer separately as well as together.
+ *
+ * The numbers only mean much with at least as many cores as threads; with
+ * fewer, the threads mostly take turns whatever the tree does.
+ *
+ * @author Sophie Kirschner
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations=3,time=1)
+@Measurement(iterations=5,time=1)
+@Fork(1)
+public class ContentionBenchmark {
+    /** An SBStampedTree with its default policies. */
+    final static public String STAMPED="SBStampedTree";
+    /** An SBTree which splays, with every call synchronized on the tree. */
+    final static public String SYNCHRONIZED="synchronized";
+    /** Length of the key sequence, a power of two. */
+    final static public int OPERATIONS=1<<16;
+    @Param({STAMPED,SYNCHRONIZED})
+    public String implementation;
+    @Param({KeySequence.ZIPFIAN,KeySequence.UNIFORM})
+    public String distribution;
+    @Param({"10000","1000000"})
+    public int size;
+    /** The even keys, the ones in the tree, in ascending order. */
+    private Long[] present;
+    /** Indexes into present of the keys to search for. */
+    private int[] sequence;
+    private SBStampedTree stamped;
+    private SBTree locked;
+    /** Each thread's position in the sequence and, for writers, its key. */
+    @State(Scope.Thread)
+    public static class Cursor {
+        int position;
+        /** The odd key the writer inserts and removes, null if it isn't in the tree. */
+        Long inserted;
+        @Setup(Level.Trial)
+        public void setUp(){
+            position=ThreadLocalRandom.current().nextInt(OPERATIONS);
+        }
+    }
+    @Setup(Level.Trial)
+    public void setUp(){
+        present=new Long[size];
+        for(int i=0;i<size;i++){present[i]=2L*i;}
+        sequence=KeySequence.make(distribution,size,OPERATIONS);
+        if(STAMPED.equals(implementation)){
+            stamped=new SBStampedTree();
+            for(int key:KeySequence.permutation(size,new Random(KeySequence.SEED))){
+                stamped.insert(present[key],present[key]);
+            }
+            stamped.optimize();
+        }else{
+            locked=SBTree.fromSorted(present);
+            locked.setSplay(true);
+        }
+    }
+    /**
+     * @param cursor The thread's cursor.
+     * @return the value of the next key in the sequence.
+     */
+    private Object search(Cursor cursor){
+        Long key=present[sequence[cursor.position++ & (OPERATIONS-1)]];
+        if(stamped!=null){return stamped.findFirstValue(key);}
+        synchronized(locked){
+            return locked.findFirstValue(key);
+        }
+    }
+    /**
+     * Inserts an odd key next to the next one in the sequence, or removes
+     * the one inserted last time.
+     * @param cursor The thread's cursor.
+     */
+    private void change(Cursor cursor){
+        Long key=cursor.inserted;
+        if(key==null){
+            key=present[sequence[cursor.position++ & (OPERATIONS-1)]]+1;
+            if(stamped!=null){
+                stamped.insert(key,key);
+            }else{
+                synchronized(locked){locked.insert(key,key);}
+            }
+            cursor.inserted=key;
+        }else{
+            if(stamped!=null){
+                stamped.remove(key);
+            }else{
+                synchronized(locked){locked.remove(key);}
+            }
+            cursor.inserted=null;
+        }
+    }
+    /**
+     * @param cursor The thread's cursor.
+     * @return the value of the next key in the sequence.
+     */
+    @Benchmark
+    @Threads(4)
+    public Object find(Cursor cursor){
+        return search(cursor);
+    }
+    /**
+     * @param cursor The thread's cursor.
+     * @return the value of the next key in the sequence.
+     */
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(3)
+    public Object mixedFind(Cursor cursor){
+        return search(cursor);
+    }
+    /** @param cursor The thread's cursor. */
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public void mixedChange(Cursor cursor){
+        change(cursor);
+    }
+}
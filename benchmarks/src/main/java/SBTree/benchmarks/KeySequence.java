@@ -0,0 +1,89 @@
+/*
+ * This code is released as public domain. But that doesn't mean you should
+ * claim credit that isn't yours or sell it when it could otherwise be had for
+ * free, because that would be a shitty thing of you to do.
+ * It was originally written by Sophie Kirschner. (sophiek@pineapplemachine.com)
+ */
+
+package SBTree.benchmarks;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * The KeySequence class makes the sequences of keys the benchmarks insert,
+ * search for and remove. Every sequence picks from the same set of keys,
+ * numbered from 0, following one of several distributions:
+ *
+ * uniform: every key equally likely.
+ * sequential: the keys in ascending order, starting over when they run out.
+ * zipfian: a few keys very often and most rarely, with exponent 0.99. The
+ * popular keys are scattered among the rest rather than being the least.
+ * shifting: uniform within a working set of one key in a hundred, which
+ * moves somewhere else eight times over the sequence.
+ *
+ * Sequences are made from a fixed seed, so every run and every tree sees the
+ * same keys in the same order.
+ *
+ * @author Sophie Kirschner
+ */
+public class KeySequence {
+    /** Names of the distributions, for use as a JMH parameter. */
+    final static public String UNIFORM="uniform",SEQUENTIAL="sequential",ZIPFIAN="zipfian",SHIFTING="shifting";
+    /** Exponent of the zipfian distribution. */
+    final static public double ZIPFEXPONENT=0.99;
+    /** The seed sequences are made from. */
+    final static public long SEED=0x5B7EE;
+    private KeySequence(){}
+    /**
+     * Makes a sequence of keys.
+     * @param distribution UNIFORM, SEQUENTIAL, ZIPFIAN or SHIFTING.
+     * @param keycount The number of keys to pick from.
+     * @param length The length of the sequence.
+     * @return the keys, each from 0 to keycount-1.
+     */
+    public static int[] make(String distribution,int keycount,int length){
+        Random random=new Random(SEED);
+        int[] sequence=new int[length];
+        if(UNIFORM.equals(distribution)){
+            for(int i=0;i<length;i++){sequence[i]=random.nextInt(keycount);}
+        }else if(SEQUENTIAL.equals(distribution)){
+            for(int i=0;i<length;i++){sequence[i]=i%keycount;}
+        }else if(ZIPFIAN.equals(distribution)){
+            double[] cumulative=new double[keycount]; double total=0;
+            for(int i=0;i<keycount;i++){
+                total+=1/Math.pow(i+1,ZIPFEXPONENT);
+                cumulative[i]=total;
+            }
+            int[] scramble=permutation(keycount,random);
+            for(int i=0;i<length;i++){
+                int rank=Arrays.binarySearch(cumulative,random.nextDouble()*total);
+                if(rank<0){rank=-rank-1;}
+                sequence[i]=scramble[Math.min(rank,keycount-1)];
+            }
+        }else if(SHIFTING.equals(distribution)){
+            int window=Math.max(1,keycount/100),phase=Math.max(1,length/8),start=0;
+            for(int i=0;i<length;i++){
+                if(i%phase==0){start=random.nextInt(keycount-window+1);}
+                sequence[i]=start+random.nextInt(window);
+            }
+        }else{
+            throw new IllegalArgumentException("Unknown distribution "+distribution);
+        }
+        return sequence;
+    }
+    /**
+     * @param keycount The number of keys.
+     * @param random Source of randomness.
+     * @return the keys from 0 to keycount-1 in a random order.
+     */
+    public static int[] permutation(int keycount,Random random){
+        int[] permutation=new int[keycount];
+        for(int i=0;i<keycount;i++){permutation[i]=i;}
+        for(int i=keycount-1;i>0;i--){
+            int j=random.nextInt(i+1),swap=permutation[i];
+            permutation[i]=permutation[j]; permutation[j]=swap;
+        }
+        return permutation;
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * This code is released as public domain. But that doesn't mean you should
+ * claim credit that isn't yours or sell it when it could otherwise be had for
+ * free, because that would be a shitty thing of you to do.
+ * It was originally written by Sophie Kirschner. (sophiek@pineapplemachine.com)
+ */
+
+package SBTree.benchmarks;
+
+import SBTree.SBNode;
+import SBTree.SBTree;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of SBTree.optimize() and optimizeInPlace(). Before every invocation a tree is built by
+ * inserting the keys from 0 to size-1 in a random order and then searching
+ * for each key in the distribution's sequence, so that with splaying the
+ * tree's shape reflects the distribution. TreeMap has nothing to compare
+ * with, since it's always balanced.
+ *
+ * @author Sophie Kirschner
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations=3,time=1)
+@Measurement(iterations=5,time=1)
+@Fork(1)
+public class OptimizeBenchmark {
+    /** Length of the key sequences. */
+    final static public int OPERATIONS=1<<16;
+    @Param({TreeBenchmark.SBTREE,TreeBenchmark.SBTREENOSPLAY})
+    public String implementation;
+    @Param({KeySequence.UNIFORM,KeySequence.SEQUENTIAL,KeySequence.ZIPFIAN,KeySequence.SHIFTING})
+    public String distribution;
+    @Param({"10000","1000000"})
+    public int size;
+    private Long[] keys;
+    private int[] order;
+    private int[] sequence;
+    private SBTree tree;
+    @Setup(Level.Trial)
+    public void setUp(){
+        keys=TreeBenchmark.keys(size);
+        order=KeySequence.permutation(size,new Random(KeySequence.SEED));
+        sequence=KeySequence.make(distribution,size,OPERATIONS);
+    }
+    @Setup(Level.Invocation)
+    public void rebuild(){
+        tree=new SBTree(TreeBenchmark.SBTREE.equals(implementation));
+        for(int key:order){tree.insert(keys[key],keys[key]);}
+        for(int key:sequence){tree.findNode(keys[key]);}
+    }
+    /** @return the tree's new root. */
+    @Benchmark
+    public SBNode optimize(){
+        return tree.optimize();
+    }
+    /** @return the tree's new root. */
+    @Benchmark
+    public SBNode optimizeInPlace(){
+        return tree.optimizeInPlace();
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * This code is released as public domain. But that doesn't mean you should
+ * claim credit that isn't yours or sell it when it could otherwise be had for
+ * free, because that would be a shitty thing of you to do.
+ * It was originally written by Sophie Kirschner. (sophiek@pineapplemachine.com)
+ */
+
+package SBTree.benchmarks;
+
+import SBTree.SBNode;
+import SBTree.SBTree;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of searching and iterating through a tree which isn't being
+ * changed, for SBTree with and without splaying and for TreeMap. The tree
+ * holds the keys from 0 to size-1, inserted in a random order, and searches
+ * follow the key distribution.
+ *
+ * @author Sophie Kirschner
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations=3,time=1)
+@Measurement(iterations=5,time=1)
+@Fork(1)
+public class TreeBenchmark {
+    /** An SBTree which splays after insertions and searches. */
+    final static public String SBTREE="SBTree";
+    /** An SBTree which never splays. */
+    final static public String SBTREENOSPLAY="SBTreeNoSplay";
+    /** A java.util.TreeMap, as a baseline. */
+    final static public String TREEMAP="TreeMap";
+    /** Length of the key sequences, a power of two. */
+    final static public int OPERATIONS=1<<16;
+    @Param({SBTREE,SBTREENOSPLAY,TREEMAP})
+    public String implementation;
+    @Param({KeySequence.UNIFORM,KeySequence.SEQUENTIAL,KeySequence.ZIPFIAN,KeySequence.SHIFTING})
+    public String distribution;
+    @Param({"10000","1000000"})
+    public int size;
+    /** The keys, boxed up front so that searching doesn't allocate. */
+    private Long[] keys;
+    /** Indexes into keys of the keys to search for. */
+    private int[] sequence;
+    /** Position in the sequence. */
+    private int cursor=0;
+    private SBTree tree;
+    private TreeMap<Long,Object> map;
+    @Setup(Level.Trial)
+    public void setUp(){
+        keys=keys(size);
+        sequence=KeySequence.make(distribution,size,OPERATIONS);
+        int[] order=KeySequence.permutation(size,new Random(KeySequence.SEED));
+        if(TREEMAP.equals(implementation)){
+            map=new TreeMap<>();
+            for(int key:order){map.put(keys[key],keys[key]);}
+        }else{
+            tree=new SBTree(SBTREE.equals(implementation));
+            for(int key:order){tree.insert(keys[key],keys[key]);}
+        }
+    }
+    /**
+     * @param count The number of keys.
+     * @return the keys from 0 to count-1, boxed.
+     */
+    static Long[] keys(int count){
+        Long[] keys=new Long[count];
+        for(int i=0;i<count;i++){keys[i]=(long)i;}
+        return keys;
+    }
+    /** @return the value of the next key in the sequence. */
+    @Benchmark
+    public Object find(){
+        Long key=keys[sequence[cursor++ & (OPERATIONS-1)]];
+        return (tree!=null)?tree.findFirstValue(key):map.get(key);
+    }
+    /** @return a sum of every key, in order. */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public long iterate(){
+        long sum=0;
+        if(tree!=null){
+            for(SBNode node=tree.root.leftMostNode();node!=null;node=node.successor()){sum+=(Long)node.key;}
+        }else{
+            for(Map.Entry<Long,Object> entry:map.entrySet()){sum+=entry.getKey();}
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * This code is released as public domain. But that doesn't mean you should
+ * claim credit that isn't yours or sell it when it could otherwise be had for
+ * free, because that would be a shitty thing of you to do.
+ * It was originally written by Sophie Kirschner. (sophiek@pineapplemachine.com)
+ */
+
+package SBTree.benchmarks;
+
+import SBTree.SBTree;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of inserting into and removing from a tree, for SBTree with and
+ * without splaying and for TreeMap. Before every invocation the tree is
+ * rebuilt holding the even keys from 0 to 2*size-2. An invocation then
+ * inserts an odd key or removes an even one for each of the keys in the
+ * distribution's sequence, and is timed per key.
+ *
+ * A key which comes up again in the sequence is inserted again. SBTree adds
+ * another value to its node, while TreeMap replaces its value.
+ *
+ * @author Sophie Kirschner
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations=3,time=1)
+@Measurement(iterations=5,time=1)
+@Fork(1)
+public class UpdateBenchmark {
+    /** Length of the key sequences. */
+    final static public int OPERATIONS=1<<14;
+    @Param({TreeBenchmark.SBTREE,TreeBenchmark.SBTREENOSPLAY,TreeBenchmark.TREEMAP})
+    public String implementation;
+    @Param({KeySequence.UNIFORM,KeySequence.SEQUENTIAL,KeySequence.ZIPFIAN,KeySequence.SHIFTING})
+    public String distribution;
+    @Param({"10000","1000000"})
+    public int size;
+    /** The even keys, the ones in the tree, in ascending order. */
+    private Long[] present;
+    /** The keys to insert, odd keys in the order of the sequence. */
+    private Long[] insertions;
+    /** The keys to remove, even keys in the order of the sequence. */
+    private Long[] removals;
+    /** TreeMap holding the even keys, copied before every invocation. */
+    private TreeMap<Long,Object> template;
+    private SBTree tree;
+    private TreeMap<Long,Object> map;
+    @Setup(Level.Trial)
+    public void setUp(){
+        present=new Long[size];
+        for(int i=0;i<size;i++){present[i]=2L*i;}
+        int[] sequence=KeySequence.make(distribution,size,OPERATIONS);
+        insertions=new Long[OPERATIONS]; removals=new Long[OPERATIONS];
+        for(int i=0;i<OPERATIONS;i++){
+            insertions[i]=2L*sequence[i]+1;
+            removals[i]=present[sequence[i]];
+        }
+        if(TreeBenchmark.TREEMAP.equals(implementation)){
+            template=new TreeMap<>();
+            for(Long key:present){template.put(key,key);}
+        }
+    }
+    @Setup(Level.Invocation)
+    public void rebuild(){
+        if(template!=null){
+            map=new TreeMap<>(template);
+        }else{
+            tree=SBTree.fromSorted(present);
+            tree.setSplay(TreeBenchmark.SBTREE.equals(implementation));
+        }
+    }
+    /** Inserts every key in the sequence. */
+    @Benchmark
+    @OperationsPerInvocation(OPERATIONS)
+    public void insert(){
+        if(tree!=null){
+            for(Long key:insertions){tree.insert(key,key);}
+        }else{
+            for(Long key:insertions){map.put(key,key);}
+        }
+    }
+    /**
+     * Removes every key in the sequence.
+     * @return the number of keys left.
+     */
+    @Benchmark
+    @OperationsPerInvocation(OPERATIONS)
+    public int remove(){
+        if(tree!=null){
+            for(Long key:removals){tree.remove(key);}
+            return tree.size();
+        }
+        for(Long key:removals){map.remove(key);}
+        return map.size();
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * This code is released as public domain. But that doesn't mean you should
+ * claim credit that isn't yours or sell it when it could otherwise be had for
+ * free, because that would be a shitty thing of you to do.
+ * It was originally written by Sophie Kirschner. (sophiek@pineapplemachine.com)
+ */
+
+package SBTree;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that SBConcurrentTree rebalances its shards as they grow and as they
+ * shrink.
+ *
+ * @author Sophie Kirschner
+ */
+public class SBConcurrentTreeTest {
+    @Test
+    public void rebalancesAsKeysAreRemoved(){
+        SBConcurrentTree tree=new SBConcurrentTree();
+        int count=40*SBConcurrentTree.MINSHARDSIZE;
+        // Values are removed by identity, so the same objects are kept
+        Integer[] keys=new Integer[count];
+        for(int i=0;i<count;i++){keys[i]=i; tree.insert(keys[i],keys[i]);}
+        assertEquals(SBConcurrentTree.DEFAULTSHARDS,tree.shards());
+        // Emptying the low shards leaves the rest of the keys in a few of them
+        int kept=3*SBConcurrentTree.MINSHARDSIZE;
+        for(int i=0;i<count-kept;i++){assertTrue(tree.remove(i));}
+        assertEquals(kept,tree.size());
+        assertTrue(tree.shards()<=4,"shards: "+tree.shards());
+        List<Object> expected=new ArrayList<>();
+        for(int i=count-kept;i<count;i++){expected.add(i);}
+        assertEquals(expected,tree.toList());
+        for(int i=count-kept;i<count;i++){assertTrue(tree.remove(keys[i],keys[i]));}
+        assertEquals(0,tree.size());
+        assertEquals(1,tree.shards());
+    }
+}
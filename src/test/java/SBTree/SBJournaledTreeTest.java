@@ -0,0 +1,194 @@
+/*
+ * This code is released as public domain. But that doesn't mean you should
+ * claim credit that isn't yours or sell it when it could otherwise be had for
+ * free, because that would be a shitty thing of you to do.
+ * It was originally written by Sophie Kirschner. (sophiek@pineapplemachine.com)
+ */
+
+package SBTree;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Checks that an SBJournaledTree recovers what was written to it, from its
+ * journals alone and from checkpoints followed by journals.
+ *
+ * @author Sophie Kirschner
+ */
+public class SBJournaledTreeTest {
+    @TempDir
+    Path directory;
+    /** Codec for String values whose reads can be made to fail. */
+    static class FailingCodec extends SBCodec {
+        boolean failing=false;
+        @Override
+        public void write(Object object,ByteBuffer buffer) throws IOException{
+            SBCodec.STRING.write(object,buffer);
+        }
+        @Override
+        public Object read(ByteBuffer buffer) throws IOException{
+            if(failing){throw new IOException("Unreadable value");}
+            return SBCodec.STRING.read(buffer);
+        }
+    }
+    @Test
+    public void recoversFromJournals() throws IOException{
+        TreeMap<Long,ArrayList<Object>> reference=new TreeMap<>();
+        SBJournaledTree tree=new SBJournaledTree(directory,SBCodec.LONG,SBCodec.STRING);
+        change(tree,reference,new Random(3),5000);
+        tree.close();
+        tree=new SBJournaledTree(directory,SBCodec.LONG,SBCodec.STRING);
+        check(tree,reference);
+        change(tree,reference,new Random(4),5000);
+        tree.close();
+        check(new SBJournaledTree(directory,SBCodec.LONG,SBCodec.STRING),reference);
+    }
+    /** A checkpoint larger than SBTreeFile's buffer, with several values per key. */
+    @Test
+    public void recoversFromLargeCheckpoint() throws IOException{
+        TreeMap<Long,ArrayList<Object>> reference=new TreeMap<>();
+        SBJournaledTree tree=new SBJournaledTree(directory,SBCodec.LONG,SBCodec.STRING,SBJournal.NONE,0);
+        for(long key=0;key<300000;key++){
+            ArrayList<Object> values=new ArrayList<>();
+            for(int i=0;i<3;i++){
+                String value="value "+i+" of "+key;
+                tree.insert(Long.valueOf(key),value);
+                values.add(value);
+            }
+            reference.put(key,values);
+        }
+        tree.checkpoint();
+        assertTrue(Files.size(checkpoint())>SBTreeFile.BUFFERSIZE);
+        change(tree,reference,new Random(5),2000);
+        tree.close();
+        assertEquals(1,count(SBJournaledTree.CHECKPOINT));
+        check(new SBJournaledTree(directory,SBCodec.LONG,SBCodec.STRING),reference);
+    }
+    /** A checkpoint which can't be loaded back mustn't cost the files before it. */
+    @Test
+    public void keepsOlderFilesWhenCheckpointIsUnreadable() throws IOException{
+        TreeMap<Long,ArrayList<Object>> reference=new TreeMap<>();
+        FailingCodec codec=new FailingCodec();
+        SBJournaledTree tree=new SBJournaledTree(directory,SBCodec.LONG,codec);
+        change(tree,reference,new Random(6),3000);
+        tree.checkpoint();
+        change(tree,reference,new Random(7),3000);
+        codec.failing=true;
+        assertThrows(IOException.class,tree::checkpoint);
+        codec.failing=false;
+        change(tree,reference,new Random(8),3000);
+        tree.close();
+        assertEquals(1,count(SBJournaledTree.CHECKPOINT));
+        check(new SBJournaledTree(directory,SBCodec.LONG,codec),reference);
+    }
+    /** A crash between writing a checkpoint and renaming it leaves a temporary file behind. */
+    @Test
+    public void deletesUnfinishedCheckpoints() throws IOException{
+        TreeMap<Long,ArrayList<Object>> reference=new TreeMap<>();
+        SBJournaledTree tree=new SBJournaledTree(directory,SBCodec.LONG,SBCodec.STRING);
+        change(tree,reference,new Random(9),2000);
+        tree.close();
+        Path unfinished=directory.resolve(SBJournaledTree.CHECKPOINT+"7.tmp");
+        Files.write(unfinished,new byte[]{1,2,3});
+        tree=new SBJournaledTree(directory,SBCodec.LONG,SBCodec.STRING);
+        assertFalse(Files.exists(unfinished));
+        check(tree,reference);
+        tree.close();
+    }
+    @Test
+    public void closedTreeRefusesChanges() throws IOException{
+        SBJournaledTree tree=new SBJournaledTree(directory,SBCodec.LONG,SBCodec.STRING);
+        tree.insert(Long.valueOf(1),"one");
+        tree.close();
+        assertThrows(IOException.class,() -> tree.insert(Long.valueOf(2),"two"));
+        assertThrows(IOException.class,() -> tree.remove(Long.valueOf(1)));
+        assertEquals(1,tree.size());
+        assertEquals("one",tree.findFirstValue(Long.valueOf(1)));
+        assertFalse(tree.containsKey(Long.valueOf(2)));
+    }
+    /**
+     * Makes random changes to a tree and to the map it should match.
+     * @param tree A tree.
+     * @param reference The map.
+     * @param random Source of the changes.
+     * @param count The number of changes.
+     */
+    private static void change(SBJournaledTree tree,TreeMap<Long,ArrayList<Object>> reference,Random random,int count) throws IOException{
+        for(int i=0;i<count;i++){
+            Long key=Long.valueOf(random.nextInt(500));
+            int op=random.nextInt(10);
+            ArrayList<Object> values=reference.get(key);
+            if(op<5){
+                String value="v"+random.nextInt(4);
+                tree.insert(key,value);
+                reference.computeIfAbsent(key,k -> new ArrayList<>()).add(value);
+            }else if(op<6){
+                assertEquals(values!=null,tree.remove(key));
+                reference.remove(key);
+            }else if(op<8){
+                String value="v"+random.nextInt(4);
+                boolean removed=(values!=null && values.contains(value));
+                assertEquals(removed,tree.remove(key,value));
+                if(removed){
+                    values.removeIf(value::equals);
+                    if(values.isEmpty()){reference.remove(key);}
+                }
+            }else if(op<9){
+                assertEquals(values!=null,tree.removeFirstValue(key));
+                if(values!=null){
+                    if(!values.isEmpty()){values.remove(0);}
+                    if(values.isEmpty()){reference.remove(key);}
+                }
+            }else{
+                assertEquals(values!=null,tree.removeLastValue(key));
+                if(values!=null){
+                    if(!values.isEmpty()){values.remove(values.size()-1);}
+                    if(values.isEmpty()){reference.remove(key);}
+                }
+            }
+        }
+    }
+    /**
+     * @param tree A tree.
+     * @param reference The map it should match.
+     */
+    private static void check(SBJournaledTree tree,TreeMap<Long,ArrayList<Object>> reference){
+        assertEquals(reference.size(),tree.size());
+        Iterator<Comparable> keys=tree.snapshot().keys();
+        for(Map.Entry<Long,ArrayList<Object>> entry:reference.entrySet()){
+            assertEquals(entry.getKey(),keys.next());
+            LinkedList<Object> values=tree.findAllValues(entry.getKey());
+            assertEquals(entry.getValue(),new ArrayList<>(values));
+        }
+        assertFalse(keys.hasNext());
+    }
+    /** @return the only checkpoint in the directory. */
+    private Path checkpoint() throws IOException{
+        try(Stream<Path> files=Files.list(directory)){
+            return files.filter(file -> file.getFileName().toString().matches("checkpoint\\.\\d+")).findFirst().get();
+        }
+    }
+    /**
+     * @param prefix The prefix of the file names.
+     * @return the number of finished files in the directory with the prefix.
+     */
+    private long count(String prefix) throws IOException{
+        try(Stream<Path> files=Files.list(directory)){
+            return files.filter(file -> file.getFileName().toString().matches(prefix.replace(".","\\.")+"\\d+")).count();
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * This code is released as public domain. But that doesn't mean you should
+ * claim credit that isn't yours or sell it when it could otherwise be had for
+ * free, because that would be a shitty thing of you to do.
+ * It was originally written by Sophie Kirschner. (sophiek@pineapplemachine.com)
+ */
+
+package SBTree;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+/**
+ * Checks SBLongTree against a TreeMap holding a list of values per key.
+ *
+ * @author Sophie Kirschner
+ */
+public class SBLongTreeTest {
+    @Test
+    public void matchesTreeMap(){
+        for(int variant=0;variant<4;variant++){
+            Random random=new Random(variant);
+            SBLongTree tree=new SBLongTree((variant&1)==0,(variant&2)==0);
+            TreeMap<Long,ArrayList<Object>> reference=new TreeMap<>();
+            for(int i=0;i<20000;i++){
+                long key=random.nextInt(2000)-1000;
+                int op=random.nextInt(10);
+                if(op<5){
+                    Object value=Integer.valueOf(random.nextInt(5));
+                    tree.insert(key,value);
+                    reference.computeIfAbsent(key,k -> new ArrayList<>()).add(value);
+                }else if(op<7){
+                    assertEquals(reference.remove(key)!=null,tree.remove(key));
+                }else if(op<8){
+                    ArrayList<Object> values=reference.get(key);
+                    boolean removed=(values!=null && !values.isEmpty());
+                    assertEquals(removed,tree.removeFirstValue(key));
+                    if(removed){
+                        values.remove(0);
+                        if(values.isEmpty()){reference.remove(key);}
+                    }
+                }else{
+                    ArrayList<Object> values=reference.get(key);
+                    assertEquals(values!=null,tree.containsKey(key));
+                    assertEquals(values==null?null:values.get(0),tree.findFirstValue(key));
+                    Map.Entry<Long,ArrayList<Object>> higher=reference.higherEntry(key);
+                    int node=tree.higherNode(key);
+                    assertEquals(higher==null?null:higher.getKey(),node==SBLongTree.NONE?null:tree.getKey(node));
+                }
+                if(i%2000==0){
+                    if(variant==3){tree.optimize();}
+                    check(tree,reference);
+                }
+            }
+            check(tree,reference);
+        }
+    }
+    /** Sequential insertions leave the tree a chain, which mustn't make walking it quadratic. */
+    @Test
+    @Timeout(10)
+    public void sequentialInsertsIterateInLinearTime(){
+        SBLongTree tree=new SBLongTree();
+        int count=200000;
+        for(int i=0;i<count;i++){tree.insert(i,Integer.valueOf(i));}
+        long[] keys=tree.keysToArray();
+        Object[] values=tree.toArray();
+        assertEquals(count,keys.length);
+        for(int i=0;i<count;i++){
+            assertEquals(i,keys[i]);
+            assertEquals(Integer.valueOf(i),values[i]);
+        }
+    }
+    /**
+     * @param tree A tree.
+     * @param reference The map it should match.
+     */
+    private static void check(SBLongTree tree,TreeMap<Long,ArrayList<Object>> reference){
+        assertEquals(reference.size(),tree.size());
+        ArrayList<Object> values=new ArrayList<>();
+        long[] keys=new long[reference.size()]; int index=0;
+        for(Map.Entry<Long,ArrayList<Object>> entry:reference.entrySet()){
+            keys[index++]=entry.getKey();
+            values.addAll(entry.getValue());
+        }
+        assertEquals(values.size(),tree.valuesSize());
+        assertArrayEquals(keys,tree.keysToArray());
+        assertArrayEquals(values.toArray(),tree.toArray());
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * This code is released as public domain. But that doesn't mean you should
+ * claim credit that isn't yours or sell it when it could otherwise be had for
+ * free, because that would be a shitty thing of you to do.
+ * It was originally written by Sophie Kirschner. (sophiek@pineapplemachine.com)
+ */
+
+package SBTree;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Checks SBMappedTree against a TreeMap, before and after the file is closed
+ * and opened again.
+ *
+ * @author Sophie Kirschner
+ */
+public class SBMappedTreeTest {
+    @TempDir
+    Path directory;
+    @Test
+    public void matchesTreeMap() throws IOException{
+        Path path=directory.resolve("mapped.sbmt");
+        Random random=new Random(1);
+        TreeMap<Long,Long> reference=new TreeMap<>();
+        SBMappedTree tree=new SBMappedTree(path,8);
+        try{
+            for(int i=0;i<20000;i++){
+                long key=random.nextInt(2000)-1000;
+                int op=random.nextInt(10);
+                if(op<5){
+                    long value=random.nextLong();
+                    tree.insert(SBMappedTree.keyOf(key),value);
+                    reference.put(key,value);
+                }else if(op<7){
+                    assertEquals(reference.remove(key)!=null,tree.remove(SBMappedTree.keyOf(key)));
+                }else{
+                    Long value=reference.get(key);
+                    assertEquals(value!=null,tree.containsKey(SBMappedTree.keyOf(key)));
+                    assertEquals(value==null?-1L:value.longValue(),tree.findValue(SBMappedTree.keyOf(key),-1L));
+                    Map.Entry<Long,Long> lower=reference.lowerEntry(key);
+                    int node=tree.lowerNode(SBMappedTree.keyOf(key));
+                    assertEquals(lower==null?SBMappedTree.NONE:node,node);
+                    if(lower!=null){assertArrayEquals(SBMappedTree.keyOf(lower.getKey()),tree.getKey(node));}
+                }
+                if(i==10000){
+                    tree.close();
+                    tree=new SBMappedTree(path);
+                }
+                if(i%2000==0){check(tree,reference);}
+                if(i%5000==2500){tree.optimize();}
+            }
+            check(tree,reference);
+        }finally{
+            tree.close();
+        }
+        tree=new SBMappedTree(path);
+        try{
+            check(tree,reference);
+        }finally{
+            tree.close();
+        }
+    }
+    /** Sequential insertions leave the tree a chain, which mustn't make walking it quadratic. */
+    @Test
+    @Timeout(20)
+    public void sequentialInsertsIterateInLinearTime() throws IOException{
+        Path path=directory.resolve("sequential.sbmt");
+        int count=200000;
+        SBMappedTree tree=new SBMappedTree(path,8);
+        try{
+            for(int i=0;i<count;i++){tree.insert(SBMappedTree.keyOf(i),i);}
+            long[] values=tree.toArray();
+            for(int i=0;i<count;i++){assertEquals(i,values[i]);}
+            tree.optimize();
+            assertArrayEquals(values,tree.toArray());
+            assertEquals(count-1,tree.findValue(SBMappedTree.keyOf(count-1),-1L));
+        }finally{
+            tree.close();
+        }
+        tree=new SBMappedTree(path);
+        try{
+            assertEquals(count,tree.size());
+            assertEquals(12345,tree.findValue(SBMappedTree.keyOf(12345),-1L));
+        }finally{
+            tree.close();
+        }
+    }
+    /**
+     * @param tree A tree.
+     * @param reference The map it should match.
+     */
+    private static void check(SBMappedTree tree,TreeMap<Long,Long> reference){
+        assertEquals(reference.size(),tree.size());
+        long[] values=new long[reference.size()]; int index=0;
+        for(long value:reference.values()){values[index++]=value;}
+        assertArrayEquals(values,tree.toArray());
+    }
+}
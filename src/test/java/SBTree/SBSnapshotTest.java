@@ -0,0 +1,179 @@
+/*
+ * This code is released as public domain. But that doesn't mean you should
+ * claim credit that isn't yours or sell it when it could otherwise be had for
+ * free, because that would be a shitty thing of you to do.
+ * It was originally written by Sophie Kirschner. (sophiek@pineapplemachine.com)
+ */
+
+package SBTree;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that snapshots stay as they were taken while the tree they were
+ * taken of goes on splaying, rebalancing and changing in every way it can,
+ * one key at a time and in bulk.
+ *
+ * @author Sophie Kirschner
+ */
+public class SBSnapshotTest {
+    /** The greatest key, plus one. */
+    final static int KEYS=400;
+    /** A snapshot and a copy of the tree's contents made when it was taken. */
+    static class Taken {
+        final SBSnapshot snapshot;
+        final TreeMap<Integer,ArrayList<Object>> expected=new TreeMap<>();
+        Taken(SBSnapshot snapshot,TreeMap<Integer,ArrayList<Object>> reference){
+            this.snapshot=snapshot;
+            for(Map.Entry<Integer,ArrayList<Object>> entry:reference.entrySet()){
+                expected.put(entry.getKey(),new ArrayList<>(entry.getValue()));
+            }
+        }
+    }
+    @Test
+    public void snapshotsOutliveEveryChange(){
+        for(int round=0;round<24;round++){
+            Random random=new Random(round);
+            SBTree tree=new SBTree();
+            tree.setPolicy(policy(random));
+            if(random.nextBoolean()){tree.enableValueIndex();}
+            if(random.nextBoolean()){tree.enableRebalancing(random.nextInt(3)*16);}
+            if(random.nextBoolean()){tree.enableMetrics();}
+            TreeMap<Integer,ArrayList<Object>> reference=new TreeMap<>();
+            ArrayList<Taken> taken=new ArrayList<>();
+            int counter=0;
+            for(int i=0;i<2500;i++){
+                if(random.nextInt(40)==0){
+                    taken.add(new Taken(tree.snapshot(),reference));
+                    // Dropping some lets their nodes be collected and written over
+                    if(taken.size()>8){taken.remove(random.nextInt(taken.size()));}
+                }
+                int op=random.nextInt(20);
+                Integer key=random.nextInt(KEYS);
+                ArrayList<Object> values=reference.get(key);
+                if(op<6){
+                    Object value="v"+(counter++);
+                    if(random.nextBoolean()){
+                        tree.insert(key,value);
+                    }else{
+                        tree.insert(key,value,policy(random));
+                    }
+                    reference.computeIfAbsent(key,k -> new ArrayList<>()).add(value);
+                }else if(op<8){
+                    // Searches splay the tree too
+                    assertEquals(values!=null,tree.containsKey(key));
+                    SBNode lower=tree.lowerNode(key);
+                    Integer expected=reference.lowerKey(key);
+                    assertEquals(expected,lower==null?null:lower.key);
+                }else if(op<9){
+                    tree.remove(key);
+                    reference.remove(key);
+                }else if(op<10){
+                    if(values!=null){
+                        Object value=values.get(random.nextInt(values.size()));
+                        if(random.nextBoolean()){
+                            tree.remove(key,value);
+                        }else{
+                            assertTrue(tree.removeValue(value));
+                        }
+                        values.remove(value);
+                        if(values.isEmpty()){reference.remove(key);}
+                    }
+                }else if(op<11){
+                    if(values!=null){
+                        if(random.nextBoolean()){
+                            tree.removeFirstValue(key); values.remove(0);
+                        }else{
+                            tree.removeLastValue(key); values.remove(values.size()-1);
+                        }
+                        if(values.isEmpty()){reference.remove(key);}
+                    }
+                }else if(op<13){
+                    // Small batches are merged key by key, large ones rebuilt with the tree
+                    Object[][] pairs=new Object[1+random.nextInt(random.nextBoolean()?8:120)][];
+                    for(int j=0;j<pairs.length;j++){
+                        Integer batchkey=random.nextInt(KEYS);
+                        Object value="v"+(counter++);
+                        pairs[j]=new Object[]{batchkey,value};
+                        reference.computeIfAbsent(batchkey,k -> new ArrayList<>()).add(value);
+                    }
+                    tree.insertBatch(pairs);
+                }else if(op<14){
+                    int lo=random.nextInt(KEYS),hi=lo+random.nextInt(KEYS/4);
+                    boolean loinclusive=random.nextBoolean(),hiinclusive=random.nextBoolean();
+                    SBTree removed=tree.removeRange(lo,loinclusive,hi,hiinclusive);
+                    Map<Integer,ArrayList<Object>> range=reference.subMap(lo,loinclusive,hi,hiinclusive);
+                    assertEquals(range.size(),removed.size());
+                    // The removed nodes are shared with the snapshots as well
+                    removed.insert(lo,"removed");
+                    removed.optimize();
+                    range.clear();
+                }else if(op<15){
+                    // Cut the tree apart and put it back together
+                    SBTree[] parts=tree.split(key);
+                    assertEquals(0,tree.size());
+                    parts[random.nextInt(2)].containsKey(random.nextInt(KEYS));
+                    if(random.nextBoolean()){
+                        tree.join(parts[0]); tree.join(parts[1]);
+                    }else{
+                        tree.join(parts[1]); tree.join(parts[0]);
+                    }
+                }else if(op<16){
+                    SBTree head=tree.removeHead(key,random.nextBoolean());
+                    tree.insert(KEYS+1,"tail");
+                    tree.remove(KEYS+1);
+                    tree.join(head);
+                }else if(op<17){
+                    if(random.nextBoolean()){tree.optimize();}else{tree.optimizeInPlace();}
+                }else if(op<18){
+                    SBRebalancer rebalancer=tree.getRebalancer();
+                    if(rebalancer!=null){rebalancer.tick(64);}
+                }else if(op<19){
+                    if(random.nextInt(10)==0){
+                        tree.clear(); reference.clear();
+                    }
+                }else{
+                    tree.setPolicy(policy(random));
+                }
+                if(i%250==0){for(Taken t:taken){check(t.snapshot,t.expected);}}
+            }
+            check(tree.snapshot(),reference);
+            for(Taken t:taken){check(t.snapshot,t.expected);}
+        }
+    }
+    /**
+     * @param random Picks the policy.
+     * @return a splay policy.
+     */
+    private static SBSplayPolicy policy(Random random){
+        switch(random.nextInt(4)){
+            case 0: return SBSplayPolicy.ALWAYS;
+            case 1: return SBSplayPolicy.NEVER;
+            case 2: return SBSplayPolicy.SEMI;
+            default: return SBSplayPolicy.probability(0.3);
+        }
+    }
+    /**
+     * @param snapshot A snapshot.
+     * @param expected What it should hold.
+     */
+    private static void check(SBSnapshot snapshot,TreeMap<Integer,ArrayList<Object>> expected){
+        assertEquals(expected.size(),snapshot.size());
+        int valuessize=0;
+        Iterator<Comparable> keys=snapshot.keys();
+        for(Map.Entry<Integer,ArrayList<Object>> entry:expected.entrySet()){
+            assertEquals(entry.getKey(),keys.next());
+            assertEquals(entry.getValue(),new ArrayList<>(snapshot.findAllValues(entry.getKey())));
+            valuessize+=entry.getValue().size();
+        }
+        assertFalse(keys.hasNext());
+        assertEquals(valuessize,snapshot.valuesSize());
+    }
+}
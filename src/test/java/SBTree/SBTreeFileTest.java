@@ -0,0 +1,79 @@
+/*
+ * This code is released as public domain. But that doesn't mean you should
+ * claim credit that isn't yours or sell it when it could otherwise be had for
+ * free, because that would be a shitty thing of you to do.
+ * It was originally written by Sophie Kirschner. (sophiek@pineapplemachine.com)
+ */
+
+package SBTree;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Checks that trees saved by SBTreeFile load back the same.
+ *
+ * @author Sophie Kirschner
+ */
+public class SBTreeFileTest {
+    @TempDir
+    Path directory;
+    @Test
+    public void roundTripsEmptyTree() throws IOException{
+        Path path=directory.resolve("empty.sbtf");
+        SBTreeFile.save(new SBTree(),path,SBCodec.LONG,SBCodec.STRING);
+        SBTree loaded=SBTreeFile.load(path,SBCodec.LONG,SBCodec.STRING);
+        assertEquals(0,loaded.size());
+        assertNull(loaded.root);
+    }
+    @Test
+    public void roundTripsSmallTree() throws IOException{
+        Path path=directory.resolve("small.sbtf");
+        SBTree tree=new SBTree();
+        Random random=new Random(2);
+        for(int i=0;i<1000;i++){tree.insert(Long.valueOf(random.nextInt(300)),"value "+i);}
+        SBTreeFile.save(tree,path,SBCodec.LONG,SBCodec.STRING);
+        assertSame(tree,SBTreeFile.load(path,SBCodec.LONG,SBCodec.STRING));
+    }
+    /**
+     * Trees larger than the buffer, with several values per key, shifted by
+     * a varying number of bytes so that the buffer runs out partway through
+     * records at many different points, and especially between values.
+     */
+    @Test
+    public void roundTripsMultipleValuesAcrossBuffers() throws IOException{
+        Path path=directory.resolve("large.sbtf");
+        SBTree tree=new SBTree(false);
+        int count=200000;
+        for(int i=0;i<count;i++){
+            Long key=Long.valueOf((i*7919L)%count);
+            for(int j=0;j<3;j++){tree.insert(key,"v"+j+"-"+key);}
+        }
+        StringBuilder padding=new StringBuilder();
+        for(int shift=0;shift<12;shift++){
+            tree.remove(Long.valueOf(-1));
+            tree.insert(Long.valueOf(-1),padding.toString());
+            padding.append("xxx");
+            SBTreeFile.save(tree,path,SBCodec.LONG,SBCodec.STRING);
+            assertTrue(Files.size(path)>SBTreeFile.BUFFERSIZE);
+            assertSame(tree,SBTreeFile.load(path,SBCodec.LONG,SBCodec.STRING));
+        }
+    }
+    /**
+     * @param expected The tree which was saved.
+     * @param actual The tree which was loaded.
+     */
+    static void assertSame(SBTree expected,SBTree actual){
+        assertEquals(expected.size(),actual.size());
+        assertEquals(expected.valuesSize(),actual.valuesSize());
+        assertEquals(expected.height(),actual.height());
+        assertEquals(expected.keysToSequencedString(),actual.keysToSequencedString());
+        assertArrayEquals(expected.toArray(),actual.toArray());
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * This code is released as public domain. But that doesn't mean you should
+ * claim credit that isn't yours or sell it when it could otherwise be had for
+ * free, because that would be a shitty thing of you to do.
+ * It was originally written by Sophie Kirschner. (sophiek@pineapplemachine.com)
+ */
+
+package SBTree;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks the spliterators of SBTreeMap views, ascending and descending,
+ * against a TreeMap.
+ *
+ * @author Sophie Kirschner
+ */
+public class SBTreeMapTest {
+    @Test
+    public void spliteratorsSplitAndSortEveryView(){
+        Random random=new Random(9);
+        for(int round=0;round<200;round++){
+            SBTree tree=new SBTree(random.nextBoolean());
+            TreeMap<Comparable,Object> reference=new TreeMap<>();
+            int count=random.nextInt(300);
+            for(int i=0;i<count;i++){
+                Integer key=random.nextInt(1000);
+                tree.insert(key,key);
+                reference.put(key,key);
+            }
+            int lo=random.nextInt(1100)-50,hi=lo+random.nextInt(600);
+            boolean loinclusive=random.nextBoolean(),hiinclusive=random.nextBoolean();
+            check(tree.asMap(),reference,random);
+            check(tree.asMap().descendingMap(),reference.descendingMap(),random);
+            check(tree.subMap(lo,loinclusive,hi,hiinclusive),reference.subMap(lo,loinclusive,hi,hiinclusive),random);
+            check(tree.subMap(lo,loinclusive,hi,hiinclusive).descendingMap(),reference.subMap(lo,loinclusive,hi,hiinclusive).descendingMap(),random);
+            check(tree.headMap(hi,hiinclusive).descendingMap(),reference.headMap(hi,hiinclusive).descendingMap(),random);
+            check(tree.tailMap(lo,loinclusive).descendingMap(),reference.tailMap(lo,loinclusive).descendingMap(),random);
+        }
+    }
+    @Test
+    public void descendingParallelStreamKeepsOrder(){
+        SBTree tree=new SBTree();
+        for(int i=0;i<100000;i++){tree.insert(i,i);}
+        tree.optimize();
+        List<Comparable> keys=tree.asMap().descendingMap().keySet().parallelStream().collect(Collectors.toList());
+        assertEquals(100000,keys.size());
+        for(int i=0;i<keys.size();i++){assertEquals(99999-i,keys.get(i));}
+    }
+    /**
+     * Splits a view's key spliterator at random and checks that the parts
+     * hold the reference's keys in order, with exact sizes, and that they're
+     * sorted by the comparator they report.
+     * @param view A view.
+     * @param reference The map it should match.
+     * @param random Decides which parts are split further.
+     */
+    private static void check(NavigableMap<Comparable,SBNode> view,NavigableMap<Comparable,Object> reference,Random random){
+        Spliterator<Comparable> spliterator=view.keySet().spliterator();
+        int characteristics=Spliterator.ORDERED | Spliterator.SORTED | Spliterator.DISTINCT | Spliterator.SIZED | Spliterator.SUBSIZED;
+        assertEquals(characteristics,spliterator.characteristics() & characteristics);
+        Comparator<? super Comparable> comparator=spliterator.getComparator();
+        assertEquals(reference.comparator()==null,comparator==null);
+        List<Comparable> keys=new ArrayList<>();
+        collect(spliterator,keys,random);
+        assertEquals(new ArrayList<>(reference.keySet()),keys);
+        for(int i=1;i<keys.size();i++){
+            int order=(comparator==null)?keys.get(i-1).compareTo(keys.get(i)):comparator.compare(keys.get(i-1),keys.get(i));
+            assertTrue(order<0);
+        }
+        List<Comparable> entries=StreamSupport.stream(view.entrySet().spliterator(),false).map(Map.Entry::getKey).collect(Collectors.toList());
+        assertEquals(keys,entries);
+    }
+    /**
+     * @param spliterator A spliterator.
+     * @param keys Gets the spliterator's keys, in order.
+     * @param random Decides whether to split.
+     */
+    private static void collect(Spliterator<Comparable> spliterator,List<Comparable> keys,Random random){
+        long size=spliterator.estimateSize();
+        int before=keys.size();
+        if(random.nextInt(4)!=0){
+            Spliterator<Comparable> prefix=spliterator.trySplit();
+            if(prefix!=null){
+                assertTrue(prefix.estimateSize()>0 && spliterator.estimateSize()>0);
+                assertEquals(size,prefix.estimateSize()+spliterator.estimateSize());
+                collect(prefix,keys,random);
+                collect(spliterator,keys,random);
+                assertEquals(size,keys.size()-before);
+                return;
+            }
+            assertTrue(size<2);
+        }
+        if(random.nextBoolean() && spliterator.tryAdvance(keys::add)){
+            assertEquals(size-1,spliterator.estimateSize());
+        }
+        spliterator.forEachRemaining(keys::add);
+        assertEquals(0,spliterator.estimateSize());
+        assertEquals(size,keys.size()-before);
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * This code is released as public domain. But that doesn't mean you should
+ * claim credit that isn't yours or sell it when it could otherwise be had for
+ * free, because that would be a shitty thing of you to do.
+ * It was originally written by Sophie Kirschner. (sophiek@pineapplemachine.com)
+ */
+
+package SBTree;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that a tree's metrics and rebalancer keep up with bulk insertions
+ * and removals as well as single ones.
+ *
+ * @author Sophie Kirschner
+ */
+public class SBTreeMetricsTest {
+    @Test
+    public void countsBulkChanges(){
+        SBTree tree=new SBTree();
+        SBTreeMetrics metrics=tree.enableMetrics();
+        Integer[] keys=new Integer[1000];
+        for(int i=0;i<keys.length;i++){keys[i]=i;}
+        tree.insertBatch(keys);
+        for(int i=0;i<keys.length;i+=7){assertTrue(tree.containsKey(keys[i]));}
+        double meandepth=metrics.getMeanDepth(),comparisons=metrics.getComparisonsPerOperation();
+        assertTrue(meandepth>1);
+        // Bulk changes walk no search paths, so they mustn't dilute the means
+        tree.insertBatch(new Object[][]{{5,"five"},{2000,"two thousand"}});
+        assertEquals(1002,metrics.getInserts());
+        assertEquals(1001,tree.size());
+        assertEquals(meandepth,metrics.getMeanDepth());
+        assertEquals(comparisons,metrics.getComparisonsPerOperation());
+        tree.removeRange(100,200);
+        assertEquals(100,metrics.getRemoves());
+        assertEquals(meandepth,metrics.getMeanDepth());
+        assertEquals(comparisons,metrics.getComparisonsPerOperation());
+        // One value of a key holding two, then a key's only value
+        assertTrue(tree.removeValue("five"));
+        assertTrue(tree.removeValue(keys[6]));
+        assertEquals(102,metrics.getRemoves());
+        SBTree other=SBTree.fromSorted(new Comparable[]{3000,3001,3002});
+        SBTreeMetrics othermetrics=other.enableMetrics();
+        tree.join(other);
+        assertEquals(1005,metrics.getInserts());
+        assertEquals(3,othermetrics.getRemoves());
+        int size=tree.size();
+        tree.split(500);
+        assertEquals(102+size,metrics.getRemoves());
+        assertEquals(0,tree.size());
+    }
+    @Test
+    public void bulkRemovalResetsDepthEstimate(){
+        SBTree tree=new SBTree(false);
+        SBRebalancer rebalancer=tree.enableRebalancing(0);
+        for(int i=0;i<4000;i++){tree.insert(i,i);}
+        // Inserted in order without splaying, the tree is one long chain
+        assertTrue(rebalancer.isRebalancing());
+        SBTree removed=tree.removeRange(100,null);
+        assertEquals(3900,removed.size());
+        assertFalse(rebalancer.isRebalancing());
+        assertEquals(Math.log(101)/Math.log(2),rebalancer.getDepthEstimate(),1e-9);
+    }
+}